@@ -0,0 +1,47 @@
+package de.yugata.easy.edits.benchmarks;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of one dispatcher buffer between signed little endian pcm & floats, in both directions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioFloatConverterBenchmark {
+
+    private static final int BUFFER_SIZE = 2048;
+
+    @Param({"16", "24", "32"})
+    private int sampleSizeInBits;
+
+    private TarsosDSPAudioFloatConverter converter;
+
+    private float[] samples;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        final TarsosDSPAudioFormat format = new TarsosDSPAudioFormat(Signals.SAMPLE_RATE, sampleSizeInBits, 1, true, false);
+        this.converter = TarsosDSPAudioFloatConverter.getConverter(format);
+        this.samples = Signals.music((double) BUFFER_SIZE / Signals.SAMPLE_RATE);
+        this.bytes = converter.toByteArray(samples, new byte[BUFFER_SIZE * format.getFrameSize()]);
+    }
+
+    @Benchmark
+    public float[] toFloatArray() {
+        return converter.toFloatArray(bytes, samples);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return converter.toByteArray(samples, bytes);
+    }
+}
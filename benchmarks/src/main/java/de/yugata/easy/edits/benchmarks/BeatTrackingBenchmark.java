@@ -0,0 +1,71 @@
+package de.yugata.easy.edits.benchmarks;
+
+import be.tarsos.dsp.beatroot.Agent;
+import be.tarsos.dsp.beatroot.AgentList;
+import be.tarsos.dsp.beatroot.Event;
+import be.tarsos.dsp.beatroot.EventList;
+import be.tarsos.dsp.beatroot.Induction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BeatRoot's tempo induction & beat tracking on synthetic onsets: a jittered pulse with off-beat & spurious onsets in between,
+ * like the onsets the detector reports for a song.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeatTrackingBenchmark {
+
+    /**
+     * The length of the "song" in seconds.
+     */
+    @Param({"60", "240"})
+    private int duration;
+
+    private EventList onsets;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        this.onsets = new EventList();
+
+        for (double beat = 0.1; beat < duration; beat += Signals.BEAT_INTERVAL) {
+            add(beat + random.nextGaussian() * 0.005, 1 + random.nextDouble());
+
+            // Half of the off-beats & a few random onsets, which the tracker has to reject.
+            if (random.nextBoolean())
+                add(beat + Signals.BEAT_INTERVAL / 2, random.nextDouble());
+            if (random.nextInt(4) == 0)
+                add(beat + random.nextDouble() * Signals.BEAT_INTERVAL, random.nextDouble() * 0.5);
+        }
+    }
+
+    /**
+     * Adds an onset like the {@link be.tarsos.dsp.beatroot.BeatRootOnsetEventHandler} does.
+     */
+    private void add(final double time, final double salience) {
+        final double roundedTime = Math.round(time * 100) / 100.0;
+        final Event event = new Event(roundedTime, roundedTime, roundedTime, 56, 64, 0, 0, 1);
+        event.salience = salience;
+        onsets.insert(event, false);
+    }
+
+    @Benchmark
+    public AgentList beatInduction() {
+        return Induction.beatInduction(onsets);
+    }
+
+    @Benchmark
+    public Agent beatTrack() {
+        // Tracking changes the agents, so every invocation starts with a fresh induction.
+        final AgentList agents = Induction.beatInduction(onsets);
+        agents.beatTrack(onsets, -1);
+        return agents.bestAgent();
+    }
+}
@@ -0,0 +1,53 @@
+package de.yugata.easy.edits.benchmarks;
+
+import be.tarsos.dsp.util.fft.FFT;
+import be.tarsos.dsp.util.fft.FloatFFT;
+import be.tarsos.dsp.util.fft.HannWindow;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The transforms every spectral processor runs once per buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFTBenchmark {
+
+    @Param({"512", "1024", "2048", "4096"})
+    private int size;
+
+    private float[] signal, data, power, phase;
+
+    private FFT fft;
+    private FloatFFT floatFFT;
+
+    @Setup
+    public void setup() {
+        this.signal = Signals.music((double) size / Signals.SAMPLE_RATE);
+        this.data = new float[size];
+        this.power = new float[size / 2];
+        this.phase = new float[size / 2];
+        this.fft = new FFT(size, new HannWindow());
+        this.floatFFT = new FloatFFT(size);
+    }
+
+    @Benchmark
+    public float[] powerPhaseFFT() {
+        // The transform works in place, so every invocation starts from the same samples.
+        System.arraycopy(signal, 0, data, 0, size);
+        fft.powerPhaseFFT(data, power, phase);
+        return power;
+    }
+
+    @Benchmark
+    public float[] realForward() {
+        System.arraycopy(signal, 0, data, 0, size);
+        floatFFT.realForward(data);
+        return data;
+    }
+}
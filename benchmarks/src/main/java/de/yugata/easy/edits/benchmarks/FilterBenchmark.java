@@ -0,0 +1,88 @@
+package de.yugata.easy.edits.benchmarks;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import de.yugata.easy.edits.editor.edit.EditInfoBuilder;
+import de.yugata.easy.edits.filter.Filter;
+import de.yugata.easy.edits.filter.FilterParser;
+import de.yugata.easy.edits.filter.FilterRange;
+import de.yugata.easy.edits.filter.FilterType;
+import de.yugata.easy.edits.filter.FilterValue;
+import de.yugata.easy.edits.filter.FilterWrapper;
+import de.yugata.easy.edits.util.FFmpegUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the filter definitions & chaining the parsed filters into one filter graph, as it's done for every edit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    /**
+     * A filter with values & variables, like the ones in the filters directory.
+     * The font variable is left out, resolving it downloads the font.
+     */
+    private static final String FILTER_JSON = "{\n" +
+            "  \"name\": \"fade_video_out\",\n" +
+            "  \"type\": \"VIDEO\",\n" +
+            "  \"command\": \"fade=t=out:st=$fadeStart$:d=$fadeDuration$, curves=preset=$contrastPreset$[c0]; [c0]curves=all='0/0 0.5/$lightness$ 1/1'\",\n" +
+            "  \"settings\": [\n" +
+            "    {\"name\": \"fadeStart\", \"type\": \"VARIABLE\", \"mapped\": \"edit_time_s\", \"offset\": \"-3\"},\n" +
+            "    {\"name\": \"fadeDuration\", \"default\": \"4\", \"type\": \"VALUE\"},\n" +
+            "    {\"name\": \"contrastPreset\", \"default\": \"medium_contrast\", \"type\": \"VALUE\"},\n" +
+            "    {\"name\": \"lightness\", \"default\": \"0.4\", \"type\": \"VALUE\"}\n" +
+            "  ]\n" +
+            "}";
+
+    private FilterParser filterParser;
+    private FilterWrapper filterWrapper;
+    private JsonElement filterJson;
+
+    @Setup
+    public void setup() {
+        this.filterParser = new FilterParser(new EditInfoBuilder().setEditTime(TimeUnit.MINUTES.toMicros(3)).createEditInfo());
+        this.filterJson = JsonParser.parseString(FILTER_JSON);
+
+        final List<FilterValue> values = new ArrayList<>();
+        values.add(new FilterValue("fadeDuration", "2"));
+        values.add(new FilterValue("contrastPreset", "strong_contrast"));
+        this.filterWrapper = new FilterWrapper("fade_video_out", values);
+    }
+
+    @Benchmark
+    public Filter parseFilter() throws Exception {
+        return filterParser.parseFilter(filterWrapper, filterJson);
+    }
+
+    @Benchmark
+    public String chainFilters(final Chain chain) {
+        return FFmpegUtil.chainFilters(chain.filters);
+    }
+
+    @State(Scope.Thread)
+    public static class Chain {
+
+        /**
+         * The amount of filters chained.
+         */
+        @Param({"1", "4", "16"})
+        private int length;
+
+        private List<Filter> filters;
+
+        @Setup
+        public void setup() {
+            this.filters = new ArrayList<>(Collections.nCopies(length, new Filter("curves", "curves=preset=lighter", FilterType.VIDEO, FilterRange.EDIT)));
+        }
+    }
+}
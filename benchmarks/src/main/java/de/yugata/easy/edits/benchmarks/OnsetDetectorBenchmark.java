@@ -0,0 +1,43 @@
+package de.yugata.easy.edits.benchmarks;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The complex onset detector over ten seconds of generated audio, with the buffer size & overlap the {@link de.yugata.easy.edits.audio.AudioAnalyser} uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OnsetDetectorBenchmark {
+
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    private AudioEvent[] buffers;
+
+    @Setup
+    public void setup() {
+        this.buffers = Signals.buffers(Signals.music(10), BUFFER_SIZE, BUFFER_OVERLAP);
+    }
+
+    @Benchmark
+    public OnsetDetectionFunction process(final Blackhole blackhole) {
+        final ComplexOnsetDetector detector = new ComplexOnsetDetector(BUFFER_SIZE);
+        final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
+        detector.setHandler((time, salience) -> blackhole.consume(time));
+        detector.setDetectionFunctionHandler(detectionFunction);
+
+        for (final AudioEvent buffer : buffers) {
+            detector.process(buffer);
+        }
+        return detectionFunction;
+    }
+}
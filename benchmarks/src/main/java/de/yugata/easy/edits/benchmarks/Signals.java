@@ -0,0 +1,85 @@
+package de.yugata.easy.edits.benchmarks;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.synthesis.NoiseGenerator;
+import be.tarsos.dsp.synthesis.SineGenerator;
+
+import java.util.Arrays;
+
+/**
+ * Generates the inputs of the benchmarks, so they run without any audio files.
+ */
+final class Signals {
+
+    static final float SAMPLE_RATE = 44100;
+
+    static final TarsosDSPAudioFormat FORMAT = new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    /**
+     * The tempo of the generated "music", 120 bpm.
+     */
+    static final double BEAT_INTERVAL = 0.5;
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private Signals() {
+    }
+
+    /**
+     * A chord with a noise burst on every beat, so the onset detector & the beat tracker have something to find.
+     *
+     * @param seconds the length of the signal.
+     * @return the samples, in [-1, 1].
+     */
+    static float[] music(final double seconds) {
+        final float[] samples = new float[(int) (seconds * SAMPLE_RATE)];
+
+        final SineGenerator[] tones = {new SineGenerator(0.2, 220), new SineGenerator(0.15, 277.18), new SineGenerator(0.1, 329.63)};
+        final NoiseGenerator noise = new NoiseGenerator(1.0);
+
+        final AudioEvent audioEvent = new AudioEvent(FORMAT);
+        final float[] block = new float[BLOCK_SIZE];
+        final float[] burst = new float[BLOCK_SIZE];
+
+        for (int offset = 0; offset < samples.length; offset += BLOCK_SIZE) {
+            Arrays.fill(block, 0);
+            audioEvent.setFloatBuffer(block);
+            for (final SineGenerator tone : tones) {
+                tone.process(audioEvent);
+            }
+
+            Arrays.fill(burst, 0);
+            audioEvent.setFloatBuffer(burst);
+            noise.process(audioEvent);
+
+            final int length = Math.min(BLOCK_SIZE, samples.length - offset);
+            for (int i = 0; i < length; i++) {
+                final double sinceBeat = ((offset + i) / SAMPLE_RATE) % BEAT_INTERVAL;
+                // The noise is centered around zero & decays within ~50ms of the beat.
+                samples[offset + i] = (float) (block[i] + (burst[i] - 0.5) * Math.exp(-sinceBeat * 60));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @param samples the samples to split.
+     * @param bufferSize the size of the buffers.
+     * @param overlap the overlap between consecutive buffers.
+     * @return the buffers an {@link be.tarsos.dsp.AudioDispatcher} would dispatch for the samples, without the trailing partial buffer.
+     */
+    static AudioEvent[] buffers(final float[] samples, final int bufferSize, final int overlap) {
+        final int step = bufferSize - overlap;
+        final AudioEvent[] events = new AudioEvent[(samples.length - bufferSize) / step + 1];
+
+        for (int i = 0; i < events.length; i++) {
+            final AudioEvent audioEvent = new AudioEvent(FORMAT);
+            audioEvent.setFloatBuffer(Arrays.copyOfRange(samples, i * step, i * step + bufferSize));
+            audioEvent.setOverlap(i == 0 ? 0 : overlap);
+            audioEvent.setBytesProcessed((long) i * step * FORMAT.getFrameSize());
+            events[i] = audioEvent;
+        }
+        return events;
+    }
+}
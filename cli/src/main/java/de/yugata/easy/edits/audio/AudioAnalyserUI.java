@@ -1,6 +1,8 @@
 package de.yugata.easy.edits.audio;
 
 
+import be.tarsos.dsp.onsets.OnsetHandler;
+
 import javax.sound.sampled.*;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
@@ -21,6 +23,12 @@ public class AudioAnalyserUI extends JFrame {
 
     private final WaveForm waveForm;
 
+    /**
+     * The thread analysing with the current parameters, earlier ones are interrupted & their beats are dropped.
+     * Only accessed on the event dispatch thread.
+     */
+    private Thread analyser;
+
 
     // The File selected
     private File audioFile;
@@ -127,17 +135,51 @@ public class AudioAnalyserUI extends JFrame {
 
 
     private void update() {
+        if (analyser != null) {
+            analyser.interrupt();
+        }
         waveForm.clearIndicators();
+        waveForm.repaint();
 
-        final double[] lastMs = {0};
+        final String audioPath = audioFile.getAbsolutePath();
+        final double peakThreshold = threshold / 100;
+        final double minInterval = msThreshold;
+
+        // The provisional beats are drawn while the file is analysed, the final ones replace them.
+        final Thread analyser = new Thread(() -> {
+            final Thread self = Thread.currentThread();
+            AudioAnalyser.analyseBeatsOnline(audioPath, peakThreshold, minInterval, (timeStamp, salience) -> showBeat(self, timeStamp, false), new OnsetHandler() {
+                private boolean first = true;
+
+                @Override
+                public void handleOnset(final double timeStamp, final double salience) {
+                    showBeat(self, timeStamp, first);
+                    first = false;
+                }
+            });
+        }, "Beat analyser");
+        analyser.setDaemon(true);
+        this.analyser = analyser;
+        analyser.start();
+    }
 
-        AudioAnalyser.analyseBeats(audioFile.getAbsolutePath(), threshold / 100, msThreshold, (timeStamp, salience) -> {
-            final double time = (timeStamp * 1000);
+    /**
+     * Draws the beat on the event dispatch thread, unless another analysis has been started meanwhile.
+     *
+     * @param source the thread which found the beat.
+     * @param clear  whether the beats drawn so far are replaced.
+     */
+    private void showBeat(final Thread source, final double timeStamp, final boolean clear) {
+        SwingUtilities.invokeLater(() -> {
+            // Checked on the event dispatch thread, so no beat of an earlier analysis lands after the indicators are cleared.
+            if (source != this.analyser)
+                return;
+            if (clear) {
+                waveForm.clearIndicators();
+            }
             waveForm.addIndicator(timeStamp);
-            lastMs[0] = time;
+            waveForm.repaint();
         });
-
-        waveForm.repaint();
     }
 
 
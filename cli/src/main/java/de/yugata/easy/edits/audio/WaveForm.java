@@ -24,14 +24,9 @@ package de.yugata.easy.edits.audio;
  */
 
 
-import be.tarsos.dsp.AudioDispatcher;
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import de.yugata.easy.edits.util.AudioUtil;
 
 import javax.sound.sampled.Clip;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ComponentEvent;
@@ -40,7 +35,6 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -60,7 +54,7 @@ public final class WaveForm extends JComponent implements ComponentListener {
     private static final Logger LOG = Logger.getLogger(WaveForm.class.getName());
 
     private Clip audioClip;
-    private File audioFile;
+    private volatile File audioFile;
 
     private double minMarkerPosition; // position in seconds
     private double maxMarkerPosition; // position in seconds
@@ -68,14 +62,14 @@ public final class WaveForm extends JComponent implements ComponentListener {
     private final List<Double> indicatorPositions = new CopyOnWriteArrayList<>();
 
     /**
-     * A cached waveform image used to scale to the correct height and width.
+     * The peaks of the audio file, null until they are loaded.
      */
-    private BufferedImage waveFormImage;
+    private volatile PeakPyramid peakPyramid;
 
     /**
-     * The same image scaled to the current height and width.
+     * The peaks per pixel column, reused while the width stays the same.
      */
-    private BufferedImage scaledWaveFormImage;
+    private float[] pixelMin = new float[0], pixelMax = new float[0], pixelRms = new float[0];
 
     /**
      * The font used to draw axis labels.
@@ -105,12 +99,6 @@ public final class WaveForm extends JComponent implements ComponentListener {
         setMarker(pixelsToSeconds * newPosition, minMarker);
     }
 
-    private boolean waveFormCreationFinished = false;
-
-    private void setWaveFormCreationFinished(boolean isFinished) {
-        waveFormCreationFinished = isFinished;
-    }
-
     /**
      * Sets the marker position in seconds.
      *
@@ -163,13 +151,12 @@ public final class WaveForm extends JComponent implements ComponentListener {
     protected void paintComponent(Graphics g) {
         final Graphics2D graphics = (Graphics2D) g;
         initializeGraphics(graphics);
-        if (waveFormImage != null && waveFormCreationFinished) {
-            drawWaveForm(graphics);
-        } else {
-            graphics.transform(getSaneTransform());
-            drawReference(graphics);
-            graphics.transform(getInverseSaneTransform());
+        graphics.transform(getSaneTransform());
+        if (peakPyramid != null) {
+            drawWaveForm(graphics, peakPyramid);
         }
+        drawReference(graphics);
+        graphics.transform(getInverseSaneTransform());
         drawIndicators(graphics);
         drawMarker(graphics);
         super.paintComponent(g);
@@ -247,51 +234,27 @@ public final class WaveForm extends JComponent implements ComponentListener {
         g.setColor(Color.BLACK);
     }
 
-    private void drawWaveForm(final Graphics2D g) {
-        // Render the cached image.
-        scaleWaveFormImage();
-        g.drawImage(scaledWaveFormImage, 0, 0, null);
-    }
-
-    public BufferedImage scaleWaveFormImage() {
-        if (scaledWaveFormImage == null || scaledWaveFormImage.getHeight() != getHeight()
-                || scaledWaveFormImage.getWidth() != getWidth()) {
-
-            final int sourceWidth = waveFormImage.getWidth();
-            final int sourceHeight = waveFormImage.getHeight();
-            final int destWidth = getWidth();
-            final int destHeight = getHeight();
-
-            double xScale = (double) getWidth() / (double) sourceWidth;
-            double yScale = (double) getHeight() / (double) sourceHeight;
-
-            final GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-            final GraphicsDevice gd = ge.getDefaultScreenDevice();
-            final GraphicsConfiguration gc = gd.getDefaultConfiguration();
-
-            scaledWaveFormImage = gc.createCompatibleImage(destWidth, destHeight, waveFormImage.getColorModel().getTransparency());
-
-            Graphics2D g2d = null;
-            try {
-                g2d = scaledWaveFormImage.createGraphics();
-                g2d.getTransform();
-                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                        RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-                        RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-                AffineTransform at = AffineTransform.getScaleInstance(xScale, yScale);
-                g2d.drawRenderedImage(waveFormImage, at);
-                g2d.transform(getInverseSaneTransform());
-                drawReference(g2d);
-            } finally {
-                if (g2d != null) {
-                    g2d.dispose();
-                }
-            }
-            LOG.finer("Rescaled wave form image in ");
+    /**
+     * Draws the peaks of every pixel column: the range between the minimum & the maximum, the rms on top of it.
+     * The peaks are summarised from the pyramid's level matching the width, so this costs O(width) for any file & size.
+     */
+    private void drawWaveForm(final Graphics2D g, final PeakPyramid pyramid) {
+        final int width = getWidth();
+        if (pixelMin.length != width) {
+            this.pixelMin = new float[width];
+            this.pixelMax = new float[width];
+            this.pixelRms = new float[width];
+        }
+        pyramid.render(0, getLengthInMilliSeconds() / 1000.0, pixelMin, pixelMax, pixelRms);
+
+        final int one = (int) (getHeight() / 2 * 0.85);
+        for (int x = 0; x < width; x++) {
+            g.setColor(Color.GRAY);
+            g.drawLine(x, (int) (pixelMin[x] * one), x, (int) (pixelMax[x] * one));
+            g.setColor(Color.DARK_GRAY);
+            g.drawLine(x, (int) (-pixelRms[x] * one), x, (int) (pixelRms[x] * one));
         }
-        return scaledWaveFormImage;
+        g.setColor(Color.BLACK);
     }
 
     /**
@@ -376,60 +339,33 @@ public final class WaveForm extends JComponent implements ComponentListener {
     public void audioFileChanged(final Clip newAudioFile, final File audioFile) {
         this.audioFile = audioFile;
         this.audioClip = newAudioFile;
-        this.waveFormImage = null;
-        this.scaledWaveFormImage = null;
+        this.peakPyramid = null;
         clearIndicators();
-        setWaveFormCreationFinished(false);
-        createWaveFormImage();
+        loadPeakPyramid();
         requestRepaint();
     }
 
-    private void createWaveFormImage() {
-        try {
-            final int waveFormHeight = 200;
-            final int waveFormWidth = 2000;
-
-            this.waveFormImage = new BufferedImage(waveFormWidth, waveFormHeight, BufferedImage.TYPE_INT_RGB);
-
-            final Graphics2D waveFormGraphics = waveFormImage.createGraphics();
-            initializeGraphics(waveFormGraphics);
-            waveFormGraphics.clearRect(0, 0, waveFormWidth, waveFormHeight);
-            waveFormGraphics.transform(getSaneTransform(waveFormHeight));
-
-            final float frameRate = audioClip.getFormat().getFrameRate();
-            final int framesPerPixel = audioClip.getFrameLength() / waveFormWidth / 8;
-
-            waveFormGraphics.setColor(Color.black);
-
-            final int one = (int) (waveFormHeight / 2 * 0.85);
-            final double secondsToX = 1000D * waveFormWidth / AudioUtil.calculateLengthInMilliseconds(audioClip.getFrameLength(), frameRate);
-
-
-            final AudioDispatcher adp = AudioDispatcherFactory.fromFile(audioFile, framesPerPixel, 0);
-            adp.addAudioProcessor(new AudioProcessor() {
-                private int frame = 0;
+    /**
+     * Loads the peaks of the audio file in the background, from the file next to it or by decoding it once.
+     */
+    private void loadPeakPyramid() {
+        final File file = this.audioFile;
+        final int sampleRate = (int) audioClip.getFormat().getFrameRate();
 
-                public void processingFinished() {
-                    setWaveFormCreationFinished(true);
-                    invalidate();
+        final Thread loader = new Thread(() -> {
+            try {
+                final PeakPyramid pyramid = PeakPyramid.load(file, sampleRate);
+                // Another file may have been opened in the meantime.
+                if (file.equals(audioFile)) {
+                    this.peakPyramid = pyramid;
                     requestRepaint();
                 }
-
-                public boolean process(AudioEvent audioEvent) {
-                    final float[] audioFloatBuffer = audioEvent.getFloatBuffer();
-                    final double seconds = frame / frameRate;
-                    frame += audioFloatBuffer.length;
-                    final int x = (int) (secondsToX * seconds);
-                    final int y = (int) (audioFloatBuffer[0] * one);
-                    waveFormGraphics.drawLine(x, 0, x, y);
-                    return true;
-                }
-            });
-
-            new Thread(adp, "Waveform image builder").start();
-        } catch (UnsupportedAudioFileException | IOException e) {
-            e.printStackTrace();
-        }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "Waveform peak loader");
+        loader.setDaemon(true);
+        loader.start();
     }
 
     @Override
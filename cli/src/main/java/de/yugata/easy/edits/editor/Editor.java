@@ -40,6 +40,8 @@ public class Editor {
 
     static {
         WORKING_DIRECTORY.mkdir();
+        // Keep the onset detection functions between sessions.
+        AudioAnalyser.setWorkingDirectory(WORKING_DIRECTORY);
     }
 
     /**
@@ -1,24 +1,28 @@
 package de.yugata.easy.edits.playback;
 
 import de.yugata.easy.edits.editor.Editor;
+import de.yugata.easy.edits.editor.video.KeyframeIndex;
 import de.yugata.easy.edits.model.CLIArgs;
+import de.yugata.easy.edits.util.DecoderPool;
 import de.yugata.easy.edits.util.FFmpegUtil;
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.opencv.core.Point;
-import org.opencv.core.Scalar;
-import org.opencv.imgproc.Imgproc;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Scalar;
 
-import static org.opencv.imgproc.Imgproc.FONT_HERSHEY_PLAIN;
+import static de.yugata.easy.edits.util.DecoderPool.DECODER_POOL;
+import static org.bytedeco.opencv.global.opencv_imgproc.FONT_HERSHEY_PLAIN;
+import static org.bytedeco.opencv.global.opencv_imgproc.putText;
 
 public class VideoThread extends Thread {
 
 
     /**
-     * Const. Frame Converter
+     * Const. Frame Converter. Wraps the grabbed frame's memory in a {@link Mat}, the mat is reused as long as the grabber reuses its frame.
      */
     public static final OpenCVFrameConverter<Mat> FRAME_CONVERTER = new OpenCVFrameConverter.ToMat();
 
@@ -30,13 +34,33 @@ public class VideoThread extends Thread {
     /**
      * Const. Scalar with 255, 255, 255 = r,g,b == white
      */
-    public static final Scalar SCALAR_WHITE = new Scalar(255, 255, 255);
+    public static final Scalar SCALAR_WHITE = new Scalar(255, 255, 255, 0);
 
     /**
      * The threads internal framegrabber which grabs continuous frames from the provided input-
      */
     private FFmpegFrameGrabber frameGrabber;
 
+    /**
+     * The lease of the frame grabber, borrowed from the decoder pool for the playback session.
+     */
+    private DecoderPool.Lease frameGrabberLease;
+
+    /**
+     * The input's keyframes, seeking starts at the keyframe before the timestamp & decodes forward to it.
+     */
+    private KeyframeIndex keyframeIndex;
+
+    /**
+     * Guards the grabber, the seeks are made from the player's threads while this thread grabs.
+     */
+    private final Object grabberLock = new Object();
+
+    /**
+     * The frame a seek has landed on, shown before the grabber continues.
+     */
+    private Frame seekedFrame;
+
     /**
      * The videoplayer this thread attaches to & provides with the current image to show.
      */
@@ -46,6 +70,13 @@ public class VideoThread extends Thread {
      */
     private boolean paused;
 
+    /**
+     * The rendered overlay text, only rebuilt once the amount of segments or beats changes.
+     */
+    private BytePointer overlayText;
+
+    private int overlayStamps = -1, overlayBeats = -1;
+
     /**
      * Default constructor.
      *
@@ -60,23 +91,30 @@ public class VideoThread extends Thread {
      */
     @Override
     public void start() {
-        this.frameGrabber = new FFmpegFrameGrabber(CLIArgs.getInput()) {
-            // We have to overwrite this method for the grabbing to work correctly.
-            @Override
-            public Frame grabAtFrameRate() throws FrameGrabber.Exception, InterruptedException {
-                final Frame frame = grabImage();
-                if (frame != null) {
-                    waitForTimestamp(frame);
-                }
-                return frame;
-            }
-        };
-        FFmpegUtil.configureDecoder(frameGrabber);
-        frameGrabber.setVideoCodecName("hevc_cuvid");
+        this.keyframeIndex = KeyframeIndex.of(CLIArgs.getInput(), Editor.WORKING_DIRECTORY);
+        // Keep the grabber warm for the session, it is returned to the pool once the playback stops.
+        DECODER_POOL.retain(CLIArgs.getInput());
 
         try {
-            frameGrabber.start();
-        } catch (FFmpegFrameGrabber.Exception e) {
+            this.frameGrabberLease = DECODER_POOL.acquire(CLIArgs.getInput(), "playback", source -> {
+                final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source) {
+                    // We have to overwrite this method for the grabbing to work correctly.
+                    @Override
+                    public Frame grabAtFrameRate() throws FrameGrabber.Exception, InterruptedException {
+                        final Frame frame = grabImage();
+                        if (frame != null) {
+                            waitForTimestamp(frame);
+                        }
+                        return frame;
+                    }
+                };
+                FFmpegUtil.configureDecoder(grabber, DECODER_POOL.probeVideoCodec(source));
+                return grabber;
+            }, 0);
+            this.frameGrabber = frameGrabberLease.getGrabber();
+            frameGrabber.setTimestamp(0);
+            frameGrabber.resetStartTime();
+        } catch (FrameGrabber.Exception e) {
             throw new RuntimeException(e);
         }
         super.start();
@@ -88,19 +126,16 @@ public class VideoThread extends Thread {
         try {
             /* Grab frames until there are no more or the thread has been interrupted */
             Frame frame;
-            while ((frame = frameGrabber.grabAtFrameRate()) != null && !Thread.interrupted()) {
+            while ((frame = nextFrame()) != null && !Thread.interrupted()) {
                 if (frame.image == null)
                     continue;
 
-                // Convert the frame to an opencv.core Mat
-                final org.opencv.core.Mat coreFrameMat = FRAME_CONVERTER.convertToOrgOpenCvCoreMat(frame);
-
-                // Render the string s to the created mat
-                final String s = "Segments: " + Editor.INSTANCE.stamps() + "; Required: " + Editor.INSTANCE.beats();
-                Imgproc.putText(coreFrameMat, s, TEXT_ORIGIN, FONT_HERSHEY_PLAIN, 4, SCALAR_WHITE);
+                // Wrap the frame in a mat, the text is drawn straight into the frame's memory.
+                final Mat frameMat = FRAME_CONVERTER.convert(frame);
+                putText(frameMat, overlayText(), TEXT_ORIGIN, FONT_HERSHEY_PLAIN, 4, SCALAR_WHITE);
 
-                // Show the image (convert the previously written to mat to a new frame)
-                parent.showImage(FRAME_CONVERTER.convert(coreFrameMat));
+                // Show the image
+                parent.showImage(frame);
 
                 // Wait if the thread is paused, needs to sync the thread.
                 synchronized (this) {
@@ -109,12 +144,50 @@ public class VideoThread extends Thread {
                     }
                 }
             } // End frame grabbing
-            frameGrabber.close();
         } catch (FrameGrabber.Exception | InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            frameGrabberLease.close();
+            DECODER_POOL.release(CLIArgs.getInput());
+
+            if (overlayText != null) {
+                overlayText.close();
+            }
         }
     }
 
+    /**
+     * @return the frame the last seek has landed on if it has not been shown yet, otherwise the next frame at the frame rate.
+     */
+    private Frame nextFrame() throws FrameGrabber.Exception, InterruptedException {
+        synchronized (grabberLock) {
+            if (seekedFrame != null) {
+                final Frame frame = seekedFrame;
+                this.seekedFrame = null;
+                return frame;
+            }
+            return frameGrabber.grabAtFrameRate();
+        }
+    }
+
+    /**
+     * @return the overlay text, rebuilt only if the amount of segments or beats has changed since the last frame.
+     */
+    private BytePointer overlayText() {
+        final int stamps = Editor.INSTANCE.stamps();
+        final int beats = Editor.INSTANCE.beats();
+
+        if (overlayText == null || stamps != overlayStamps || beats != overlayBeats) {
+            if (overlayText != null) {
+                overlayText.close();
+            }
+            this.overlayText = new BytePointer("Segments: " + stamps + "; Required: " + beats);
+            this.overlayStamps = stamps;
+            this.overlayBeats = beats;
+        }
+        return overlayText;
+    }
+
     public void pause() {
         // Unpause
         if (paused) {
@@ -131,12 +204,8 @@ public class VideoThread extends Thread {
      * @param amount the amount so seek in microseconds
      */
     public void seek(final long amount) {
-        try {
-            long prevTimeStamp = frameGrabber.getTimestamp();
-            frameGrabber.setTimestamp(prevTimeStamp + amount);
-            frameGrabber.resetStartTime();
-        } catch (FFmpegFrameGrabber.Exception ex) {
-            throw new RuntimeException(ex);
+        synchronized (grabberLock) {
+            seekTo(frameGrabber.getTimestamp() + amount);
         }
     }
 
@@ -145,11 +214,13 @@ public class VideoThread extends Thread {
     }
 
     public void seekTo(long stamp) {
-        try {
-            frameGrabber.setTimestamp(stamp);
-            frameGrabber.resetStartTime();
-        } catch (FFmpegFrameGrabber.Exception ex) {
-            throw new RuntimeException(ex);
+        synchronized (grabberLock) {
+            try {
+                this.seekedFrame = keyframeIndex.seekExact(frameGrabber, Math.max(stamp, 0));
+                frameGrabber.resetStartTime();
+            } catch (FFmpegFrameGrabber.Exception ex) {
+                throw new RuntimeException(ex);
+            }
         }
     }
 }
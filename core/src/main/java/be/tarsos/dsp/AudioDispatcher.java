@@ -25,14 +25,27 @@
 package be.tarsos.dsp;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
 import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+import be.tarsos.dsp.io.MappedWaveInputStream;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat.Encoding;
 
 
 /**
@@ -56,6 +69,13 @@ public class AudioDispatcher implements Runnable {
 	 */
 	private final TarsosDSPAudioInputStream audioInputStream;
 
+	/**
+	 * The stream if it is a memory mapped file, the samples are converted
+	 * straight from the mapping. Null for all other streams, and for unsigned
+	 * samples, where zero padding is not silence.
+	 */
+	private final MappedWaveInputStream mappedStream;
+
 	/**
 	 * This buffer is reused again and again to store audio data using the float
 	 * data type.
@@ -74,6 +94,30 @@ public class AudioDispatcher implements Runnable {
 	 */
 	private final List<AudioProcessor> audioProcessors;
 
+	/**
+	 * The processors which only read the audio event, see
+	 * {@link #addIndependentAudioProcessor(AudioProcessor)}.
+	 */
+	private final Set<AudioProcessor> independentProcessors;
+
+	/**
+	 * The consecutive independent processors of the current block and their
+	 * pending results, reused for every block.
+	 */
+	private final List<AudioProcessor> group = new ArrayList<AudioProcessor>();
+	private final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+	/**
+	 * The time spent in each processor, in nanoseconds.
+	 */
+	private final Map<AudioProcessor, LongAdder> processingTimes;
+
+	/**
+	 * Runs the independent processors in parallel, null to run all processors
+	 * one after the other on the dispatching thread.
+	 */
+	private ExecutorService executor;
+
 	/**
 	 * Converter converts an array of floats to an array of bytes (and vice
 	 * versa).
@@ -151,7 +195,15 @@ public class AudioDispatcher implements Runnable {
 		// it is iterated. A nice feature to have when adding AudioProcessors while
 		// the AudioDispatcher is running.
 		audioProcessors = new CopyOnWriteArrayList<AudioProcessor>();
+		independentProcessors = ConcurrentHashMap.newKeySet();
+		processingTimes = new ConcurrentHashMap<AudioProcessor, LongAdder>();
 		audioInputStream = stream;
+		
+		if (stream instanceof MappedWaveInputStream && !stream.getFormat().getEncoding().equals(Encoding.PCM_UNSIGNED)) {
+			mappedStream = (MappedWaveInputStream) stream;
+		} else {
+			mappedStream = null;
+		}
 
 		format = audioInputStream.getFormat();
 		
@@ -229,9 +281,71 @@ public class AudioDispatcher implements Runnable {
 	 *            The AudioProcessor to add.
 	 */
 	public void addAudioProcessor(final AudioProcessor audioProcessor) {
+		processingTimes.put(audioProcessor, new LongAdder());
 		audioProcessors.add(audioProcessor);
 		LOG.fine("Added an audioprocessor to the list of processors: " + audioProcessor.toString());
 	}
+
+	/**
+	 * Adds an AudioProcessor which only reads the audio event to the chain of
+	 * processors. With an executor set, consecutive independent processors run
+	 * in parallel on each block. Every other processor is a barrier: it runs
+	 * after the independent processors before it are done with the block, and
+	 * the ones after it start once it is done. So processors which change the
+	 * buffer, like a {@link GainProcessor}, and processors whose results are
+	 * read by others, like a {@link SpectrumProcessor}, keep their place in the
+	 * chain and must be added with {@link #addAudioProcessor(AudioProcessor)}.
+	 * <p>
+	 * An independent processor must not change the float buffer, must not call
+	 * {@link AudioEvent#getByteBuffer()}, which converts into a shared buffer,
+	 * and should return true: the chain stops after the independent processors
+	 * of a block are done if one of them returns false.
+	 * </p>
+	 * 
+	 * @param audioProcessor
+	 *            The AudioProcessor to add.
+	 * @see #setExecutor(ExecutorService)
+	 */
+	public void addIndependentAudioProcessor(final AudioProcessor audioProcessor) {
+		independentProcessors.add(audioProcessor);
+		addAudioProcessor(audioProcessor);
+	}
+
+	/**
+	 * Runs the independent processors in parallel. The executor is not shut
+	 * down by the dispatcher.
+	 * 
+	 * @param executor
+	 *            The executor the independent processors run on, null to run
+	 *            all processors on the dispatching thread, the default.
+	 * @see #addIndependentAudioProcessor(AudioProcessor)
+	 */
+	public void setExecutor(final ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param audioProcessor
+	 *            A processor of the chain.
+	 * @return The time the processor spent processing blocks so far, in
+	 *         nanoseconds. Zero for processors which are not in the chain.
+	 */
+	public long getProcessingTime(final AudioProcessor audioProcessor) {
+		LongAdder time = processingTimes.get(audioProcessor);
+		return time == null ? 0 : time.sum();
+	}
+
+	/**
+	 * @return The time each processor of the chain spent processing blocks so
+	 *         far, in nanoseconds.
+	 */
+	public Map<AudioProcessor, Long> getProcessingTimes() {
+		Map<AudioProcessor, Long> times = new HashMap<AudioProcessor, Long>();
+		for (final AudioProcessor processor : audioProcessors) {
+			times.put(processor, getProcessingTime(processor));
+		}
+		return Collections.unmodifiableMap(times);
+	}
 	
 	/**
 	 * Removes an AudioProcessor to the chain of processors and calls its <code>processingFinished</code> method.
@@ -241,6 +355,8 @@ public class AudioDispatcher implements Runnable {
 	 */
 	public void removeAudioProcessor(final AudioProcessor audioProcessor) {
 		audioProcessors.remove(audioProcessor);
+		independentProcessors.remove(audioProcessor);
+		processingTimes.remove(audioProcessor);
 		audioProcessor.processingFinished();
 		LOG.fine("Remove an audioprocessor to the list of processors: " + audioProcessor.toString());
 	}
@@ -268,12 +384,7 @@ public class AudioDispatcher implements Runnable {
 		while (bytesRead != 0 && !stopped) {
 			
 			//Makes sure the right buffers are processed, they can be changed by audio processors.
-			for (final AudioProcessor processor : audioProcessors) {
-				if(!processor.process(audioEvent)){
-					//skip to the next audio processors if false is returned.
-					break;
-				}	
-			}
+			processBlock();
 			
 			if(!stopped){			
 				//Update the number of bytes processed;
@@ -302,6 +413,88 @@ public class AudioDispatcher implements Runnable {
 	}
 	
 	
+	/**
+	 * Lets the chain of processors process the current block. Consecutive
+	 * independent processors run in parallel if an executor is set.
+	 */
+	private void processBlock() {
+		final ExecutorService executor = this.executor;
+		group.clear();
+		for (final AudioProcessor processor : audioProcessors) {
+			if (executor != null && independentProcessors.contains(processor)) {
+				group.add(processor);
+				continue;
+			}
+			// A barrier: the independent processors before it finish first.
+			if (!processGroup(executor, group) || !process(processor)) {
+				//skip to the next audio processors if false is returned.
+				return;
+			}
+			group.clear();
+		}
+		processGroup(executor, group);
+	}
+
+	/**
+	 * Processes the current block with all processors of the group, in
+	 * parallel, and waits for them. If the dispatching thread is interrupted
+	 * while it waits, the dispatcher is stopped.
+	 * 
+	 * @return False if one of the processors returned false or the dispatcher
+	 *         has been stopped.
+	 */
+	private boolean processGroup(final ExecutorService executor, final List<AudioProcessor> group) {
+		if (group.isEmpty()) {
+			return true;
+		}
+		if (group.size() == 1) {
+			return process(group.get(0));
+		}
+
+		futures.clear();
+		for (int i = 1; i < group.size(); i++) {
+			final AudioProcessor processor = group.get(i);
+			futures.add(executor.submit(() -> process(processor)));
+		}
+		// The dispatching thread takes the first one itself.
+		boolean proceed = process(group.get(0));
+		try {
+			for (final Future<Boolean> future : futures) {
+				proceed &= future.get();
+			}
+		} catch (InterruptedException e) {
+			for (final Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
+			// Keep the interrupt for the caller, the block is not finished.
+			Thread.currentThread().interrupt();
+			LOG.fine("Interrupted while processing audio, stopping the dispatcher.");
+			stop();
+			return false;
+		} catch (ExecutionException e) {
+			for (final Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw (Error) e.getCause();
+		} finally {
+			futures.clear();
+		}
+		return proceed;
+	}
+
+	private boolean process(final AudioProcessor processor) {
+		final long start = System.nanoTime();
+		final boolean proceed = processor.process(audioEvent);
+		final LongAdder time = processingTimes.get(processor);
+		if (time != null) {
+			time.add(System.nanoTime() - start);
+		}
+		return proceed;
+	}
+
 	private void skipToStart() {
 		long skipped = 0l;
 		try{
@@ -383,6 +576,10 @@ public class AudioDispatcher implements Runnable {
 			}*/
 		}
 		
+		if (mappedStream != null) {
+			return readNextMappedBlock(bytesToRead / format.getFrameSize(), offsetInSamples);
+		}
+		
 		// Total amount of bytes read
 		int totalBytesRead = 0;
 		
@@ -454,6 +651,45 @@ public class AudioDispatcher implements Runnable {
 		return totalBytesRead; 
 	}
 
+	/**
+	 * Converts the next block straight from the mapped file into the float
+	 * buffer. The buffer ends up exactly as {@link #readNextAudioBlock()}
+	 * leaves it after reading the block through a byte array.
+	 * 
+	 * @param samplesToRead
+	 *            the amount of samples to read, a full buffer or a step.
+	 * @param offsetInSamples
+	 *            the index the samples are written to.
+	 * @return The number of bytes read.
+	 */
+	private int readNextMappedBlock(int samplesToRead, int offsetInSamples) {
+		int samplesRead = 0;
+		
+		if (!stopped) {
+			samplesRead = (int) Math.min(samplesToRead, mappedStream.getFramesRemaining());
+			
+			if (samplesRead == samplesToRead) {
+				mappedStream.read(converter, audioFloatBuffer, offsetInSamples, samplesToRead);
+			} else if (zeroPadLastBuffer) {
+				// Like the byte path, the last buffer is padded with zeros & a step's worth of samples is converted.
+				int converted = Math.min(samplesRead, floatStepSize);
+				mappedStream.read(converter, audioFloatBuffer, offsetInSamples, converted);
+				Arrays.fill(audioFloatBuffer, offsetInSamples + converted, offsetInSamples + floatStepSize, 0);
+				mappedStream.skip((long) (samplesRead - converted) * format.getFrameSize());
+			} else {
+				// Send a smaller buffer through the chain.
+				audioFloatBuffer = new float[offsetInSamples + samplesRead];
+				mappedStream.read(converter, audioFloatBuffer, offsetInSamples, samplesRead);
+			}
+		}
+		
+		// Makes sure AudioEvent contains correct info.
+		audioEvent.setFloatBuffer(audioFloatBuffer);
+		audioEvent.setOverlap(offsetInSamples);
+		
+		return samplesRead * format.getFrameSize();
+	}
+
 	/**
 	 * The current format used to convert floats to bytes and back.
 	 * @return The current format used to convert floats to bytes and back.
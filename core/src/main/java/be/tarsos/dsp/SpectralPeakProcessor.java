@@ -28,7 +28,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import be.tarsos.dsp.util.PitchConverter;
-import be.tarsos.dsp.util.fft.FFT;
 import be.tarsos.dsp.util.fft.HammingWindow;
 
 /**
@@ -90,9 +89,15 @@ public class SpectralPeakProcessor implements AudioProcessor {
 	private final double inv_2pideltat;
 
 	/**
-	 * The fft object used to calculate phase and magnitudes.
+	 * Calculates the Hamming windowed spectrum, phase and magnitudes.
 	 */
-	private final FFT fft;
+	private final SpectrumProcessor spectrum;
+
+	/**
+	 * Whether the spectrum is computed by a processor earlier in the chain,
+	 * otherwise this processor computes it itself.
+	 */
+	private final boolean sharedSpectrum;
 
 	/**
 	 * The pahse info of the current frame.
@@ -117,7 +122,26 @@ public class SpectralPeakProcessor implements AudioProcessor {
 	
 
 	public SpectralPeakProcessor(int bufferSize, int overlap, int sampleRate) {
-		fft = new FFT(bufferSize, new HammingWindow());
+		this(new SpectrumProcessor(bufferSize, new HammingWindow()), false, overlap, sampleRate);
+	}
+
+	/**
+	 * Create a spectral peak processor which reads the phase and magnitudes of
+	 * a shared {@link SpectrumProcessor} instead of transforming the buffer
+	 * itself. The spectrum processor should use a Hamming window and has to
+	 * process every buffer before this processor does.
+	 * @param spectrum The spectrum processor, added to the dispatcher before this processor.
+	 * @param overlap The overlap of the buffers in samples.
+	 * @param sampleRate The sample rate of the signal.
+	 */
+	public SpectralPeakProcessor(SpectrumProcessor spectrum, int overlap, int sampleRate) {
+		this(spectrum, true, overlap, sampleRate);
+	}
+
+	private SpectralPeakProcessor(SpectrumProcessor spectrum, boolean sharedSpectrum, int overlap, int sampleRate) {
+		this.spectrum = spectrum;
+		this.sharedSpectrum = sharedSpectrum;
+		final int bufferSize = spectrum.getSize();
 
 		magnitudes = new float[bufferSize / 2];
 		currentPhaseOffsets = new float[bufferSize / 2];
@@ -134,11 +158,13 @@ public class SpectralPeakProcessor implements AudioProcessor {
 		
 	}
 
-	private void calculateFFT(float[] audio) {
-		// Clone to prevent overwriting audio data
-		float[] fftData = audio.clone();
-		// Extract the power and phase data
-		fft.powerPhaseFFT(fftData, magnitudes, currentPhaseOffsets);
+	private void calculateFFT(AudioEvent audioEvent) {
+		if (!sharedSpectrum) {
+			spectrum.process(audioEvent);
+		}
+		// Copy the power and phase data, the magnitudes are normalized in place
+		System.arraycopy(spectrum.getMagnitudes(), 0, magnitudes, 0, magnitudes.length);
+		System.arraycopy(spectrum.getPhases(), 0, currentPhaseOffsets, 0, currentPhaseOffsets.length);
 	}
 	
 	private void normalizeMagintudes(){
@@ -156,10 +182,8 @@ public class SpectralPeakProcessor implements AudioProcessor {
 
 	@Override
 	public boolean process(AudioEvent audioEvent) {
-		float[] audio = audioEvent.getFloatBuffer();
-	
 		// 1. Extract magnitudes, and phase using an FFT.
-		calculateFFT(audio);
+		calculateFFT(audioEvent);
 		
 		// 2. Estimate a detailed frequency for each bin.
 		calculateFrequencyEstimates();
@@ -222,7 +246,7 @@ public class SpectralPeakProcessor implements AudioProcessor {
 			long k = Math.round(cbin * binIndex - inv_2pi * phaseDelta);
 			frequencyInHertz = (float) (inv_2pideltat * phaseDelta  + inv_deltat * k);
 		} else {
-			frequencyInHertz = (float) fft.binToHz(binIndex, sampleRate);
+			frequencyInHertz = (float) spectrum.binToHz(binIndex, sampleRate);
 		}
 		return frequencyInHertz;
 	}
@@ -0,0 +1,173 @@
+/*
+*      _______                       _____   _____ _____  
+*     |__   __|                     |  __ \ / ____|  __ \ 
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/ 
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |     
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|     
+*                                                         
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*  
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*  
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+
+package be.tarsos.dsp;
+
+import be.tarsos.dsp.util.fft.FFT;
+import be.tarsos.dsp.util.fft.HannWindow;
+import be.tarsos.dsp.util.fft.WindowFunction;
+
+/**
+ * Computes the windowed spectrum of every buffer once, so several spectral
+ * processors can share one FFT per hop. Add it to the dispatcher before the
+ * processors that read from it, e.g.:
+ * 
+ * <pre>
+ * SpectrumProcessor spectrum = new SpectrumProcessor(2048);
+ * dispatcher.addAudioProcessor(spectrum);
+ * dispatcher.addAudioProcessor(new ComplexOnsetDetector(spectrum));
+ * dispatcher.addAudioProcessor(new PercussionOnsetDetector(spectrum, sampleRate, handler, sensitivity, threshold));
+ * </pre>
+ * 
+ * The audio buffer itself is not modified. The magnitudes and phases are
+ * derived from the spectrum the first time they are requested for a buffer.
+ * The returned arrays are shared and reused for the next buffer: readers must
+ * not modify them.
+ */
+public class SpectrumProcessor implements AudioProcessor {
+
+	/**
+	 * To calculate the FFT, without a window: the window is applied while
+	 * copying the buffer.
+	 */
+	private final FFT fft;
+
+	/**
+	 * The window, precomputed.
+	 */
+	private final float[] window;
+
+	/**
+	 * The windowed buffer, transformed in place.
+	 */
+	private final float[] spectrum;
+
+	private final float[] magnitudes;
+	private final float[] phases;
+
+	/**
+	 * Whether the magnitudes and phases belong to the current spectrum.
+	 */
+	private boolean magnitudesValid;
+	private boolean phasesValid;
+
+	/**
+	 * @param fftSize The size of the fft, should be the size of the audio buffers.
+	 * @param windowFunction The window applied to the buffer before the transform.
+	 */
+	public SpectrumProcessor(int fftSize, WindowFunction windowFunction) {
+		fft = new FFT(fftSize);
+		window = windowFunction.generateCurve(fftSize);
+		spectrum = new float[fftSize];
+		magnitudes = new float[fftSize / 2];
+		phases = new float[fftSize / 2];
+	}
+
+	/**
+	 * Create a new spectrum processor with a Hann window.
+	 * @param fftSize The size of the fft, should be the size of the audio buffers.
+	 */
+	public SpectrumProcessor(int fftSize) {
+		this(fftSize, new HannWindow());
+	}
+
+	@Override
+	public boolean process(AudioEvent audioEvent) {
+		final float[] buffer = audioEvent.getFloatBuffer();
+		final int length = Math.min(buffer.length, spectrum.length);
+		for (int i = 0; i < length; i++) {
+			spectrum[i] = buffer[i] * window[i];
+		}
+		for (int i = length; i < spectrum.length; i++) {
+			spectrum[i] = 0;
+		}
+		fft.forwardTransform(spectrum);
+		magnitudesValid = false;
+		phasesValid = false;
+		return true;
+	}
+
+	/**
+	 * @return The spectrum of the current buffer, the real and imaginary parts
+	 *         interleaved as returned by {@link FFT#forwardTransform(float[])}.
+	 */
+	public float[] getSpectrum() {
+		return spectrum;
+	}
+
+	/**
+	 * @return The magnitudes of the current buffer, half the fft size. As in
+	 *         {@link FFT#powerAndPhaseFromFFT(float[], float[], float[])} the
+	 *         first element is the negated real part of the DC bin.
+	 */
+	public float[] getMagnitudes() {
+		if (!magnitudesValid) {
+			magnitudes[0] = -spectrum[0];
+			for (int i = 1; i < magnitudes.length; i++) {
+				final float re = spectrum[2 * i];
+				final float im = spectrum[2 * i + 1];
+				magnitudes[i] = (float) Math.sqrt(re * re + im * im);
+			}
+			magnitudesValid = true;
+		}
+		return magnitudes;
+	}
+
+	/**
+	 * @return The phases of the current buffer, half the fft size. As in
+	 *         {@link FFT#powerAndPhaseFromFFT(float[], float[], float[])} the
+	 *         phase of the DC bin is pi.
+	 */
+	public float[] getPhases() {
+		if (!phasesValid) {
+			phases[0] = (float) Math.PI;
+			for (int i = 1; i < phases.length; i++) {
+				phases[i] = (float) Math.atan2(spectrum[2 * i + 1], spectrum[2 * i]);
+			}
+			phasesValid = true;
+		}
+		return phases;
+	}
+
+	/**
+	 * @return The size of the fft.
+	 */
+	public int getSize() {
+		return spectrum.length;
+	}
+
+	/**
+	 * Calculate the frequency of the bin.
+	 * @param binIndex The index of the bin.
+	 * @param sampleRate The sample rate of the audio.
+	 * @return The frequency in Hz of the bin.
+	 */
+	public double binToHz(int binIndex, float sampleRate) {
+		return fft.binToHz(binIndex, sampleRate);
+	}
+
+	@Override
+	public void processingFinished() {
+	}
+}
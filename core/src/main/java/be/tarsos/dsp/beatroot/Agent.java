@@ -42,8 +42,6 @@
 
 package be.tarsos.dsp.beatroot;
 
-import java.util.ListIterator;
-
 
 /** Agent is the central class for beat tracking.
  *  Each Agent object has a tempo hypothesis, a history of tracked beats, and
@@ -135,6 +133,9 @@ public class Agent {
 	/** The list of Events (onsets) accepted by this Agent as beats, plus interpolated beats. */
 	public EventList events;
 
+	/** The Agent created by {@link #considerAsBeat(Event)}, until it is added to the list. */
+	Agent fork;
+
 	/** Constructor: the work is performed by init()
 	 *  @param ibi The beat period (inter-beat interval) of the Agent's tempo hypothesis.
 	 */
@@ -145,7 +146,14 @@ public class Agent {
 	/** Copy constructor.
 	 *  @param clone The Agent to duplicate. */
 	public Agent(Agent clone) {
-		idNumber = idCounter++;
+		this(clone, idCounter++);
+	} // copy constructor
+
+	/** Copy constructor with a given identity number.
+	 *  @param clone The Agent to duplicate.
+	 *  @param id The identity number of the copy. */
+	Agent(Agent clone, int id) {
+		idNumber = id;
 		phaseScore = clone.phaseScore;
 		tempoScore = clone.tempoScore;
 		topScoreTime = clone.topScoreTime;
@@ -250,20 +258,39 @@ public class Agent {
 	 * @return Indicate whether the given Event was accepted as a beat by this Agent.
 	 */
 	public boolean considerAsBeat(Event e, AgentList a) {
+		return considerAsBeat(e, a, false);
+	} // considerAsBeat()
+
+	/** Tests the given Event like {@link #considerAsBeat(Event, AgentList)}, but
+	 *  keeps a new Agent in {@link #fork} instead of adding it to a list, so the
+	 *  Agents can consider an Event in parallel. The new Agent has no identity
+	 *  number yet, the list assigns it when the fork is merged.
+	 * @param e The Event to be tested
+	 * @return Indicate whether the given Event was accepted as a beat by this Agent.
+	 */
+	boolean considerAsBeat(Event e) {
+		return considerAsBeat(e, null, true);
+	} // considerAsBeat()
+
+	private boolean considerAsBeat(Event e, AgentList a, boolean deferFork) {
 		double err;
 		if (beatTime < 0) {	// first event
 			accept(e, 0, 1);
 			return true;
 		} else {			// subsequent events
-			if (e.keyDown - events.l.getLast().keyDown > expiryTime) {
+			if (e.keyDown - events.getTime(events.size() - 1) > expiryTime) {
 				phaseScore = -1.0;	// flag agent to be deleted
 				return false;
 			}
 			double beats = Math.round((e.keyDown - beatTime) / beatInterval);
 			err = e.keyDown - beatTime - beats * beatInterval;
 			if ((beats > 0) && (-preMargin <= err) && (err <= postMargin)) {
-				if (Math.abs(err) > innerMargin)	// Create new agent that skips this
-					a.add(new Agent(this));	//  event (avoids large phase jump)
+				if (Math.abs(err) > innerMargin) {	// Create new agent that skips this
+					if (deferFork)					//  event (avoids large phase jump)
+						fork = new Agent(this, -1);
+					else
+						a.add(new Agent(this));
+				}
 				accept(e, err, (int)beats);
 				return true;
 			}
@@ -281,16 +308,14 @@ public class Agent {
 	 */
 	public void fillBeats(double start) {
 		double prevBeat = 0, nextBeat, currentInterval, beats;
-		ListIterator<Event> list = events.listIterator();
-		if (list.hasNext()) {
-			prevBeat = list.next().keyDown;
+		if (events.size() > 0) {
+			prevBeat = events.getTime(0);
 			// alt. to fill from 0:
-			// prevBeat = Math.mod(list.next().keyDown, beatInterval);
-			list.previous();
+			// prevBeat = Math.mod(events.getTime(0), beatInterval);
 		}
-		for ( ; list.hasNext(); list.next()) {
-			nextBeat = list.next().keyDown;
-			list.previous();
+		EventList filled = new EventList();
+		for (int i = 0; i < events.size(); i++) {
+			nextBeat = events.getTime(i);
 			beats = Math.round((nextBeat - prevBeat) / beatInterval - 0.01); //prefer slow
 			currentInterval = (nextBeat - prevBeat) / beats;
 			for ( ; (nextBeat > start) && (beats > 1.5); beats--) {
@@ -298,12 +323,14 @@ public class Agent {
 				if (debug)
 					System.out.printf("Insert beat at: %8.3f (n=%1.0f)\n",
 										prevBeat, beats - 1.0);
-				list.add(newBeat(prevBeat, 0));	// more than once OK??
+				filled.add(newBeat(prevBeat, 0));	// more than once OK??
 			}
+			filled.add(events.get(i));
 			prevBeat = nextBeat;
 		}
+		events = filled;
 	} // fillBeats()
-	
+
 	/** Creates a new Event object representing a beat.
 	 *  @param time The time of the beat in seconds
 	 *  @param beatNum The index of the beat
@@ -328,21 +355,20 @@ public class Agent {
 	public void showTracking(EventList allEvents, double level) {
 		int count = 1, gapCount;
 		double prevBeat, nextBeat, gap;
-		ListIterator<Event> beats = events.listIterator();	// point to 1st beat
-		ListIterator<Event> all = allEvents.listIterator();	// point to 1st event 
-		if (!beats.hasNext()) {
+		int beats = 0;	// point to 1st beat
+		if (events.size() == 0) {
 			System.err.println("No beats found");
 			return;
 		}
-		prevBeat = events.l.getFirst().keyDown;
-		// prevBeat = fmod(beats.next().keyDown, beatInterval);
+		prevBeat = events.getTime(0);
+		// prevBeat = fmod(events.getTime(0), beatInterval);
 		System.out.print("Beat  (IBI)   BeatTime   Other Events");
 		boolean first = true;
-		while (all.hasNext()) {	// print each real event
-			Event currentEvent = all.next();
+		for (int all = 0; all < allEvents.size(); all++) {	// print each real event
+			Event currentEvent = allEvents.get(all);
 			Event currentBeat = null;
-			while (beats.hasNext()) {	// if event was chosen as beat
-				currentBeat = beats.next();
+			while (beats < events.size()) {	// if event was chosen as beat
+				currentBeat = events.get(beats++);
 				if (currentBeat.keyDown > currentEvent.keyDown + Induction.clusterWidth)
 					break;
 				gap = currentBeat.keyDown - prevBeat;
@@ -42,20 +42,25 @@
 
 package be.tarsos.dsp.beatroot;
 
-import java.util.ListIterator;
+import java.util.Arrays;
+
+import be.tarsos.dsp.util.ConcurrencyUtils;
 
 
 /** Class for maintaining the set of all Agents involved in beat tracking a piece of music.
- *  Implements a simple linked list terminated by an AgentList with a null Agent (ag).
+ *  The Agents are kept in an array, in ascending order of beatInterval.
  */
 public class AgentList {
 
 	/** Flag for choice between sum and average beat salience values for Agent scores.
 	 *  The use of summed saliences favours faster tempi or lower metrical levels. */
 	public static boolean useAverageSalience = false;
-	
+
 	/** Flag for printing debugging output. */
 	public static boolean debug = false;
+
+	/** The minimum number of Agents per parallel task, smaller lists are processed sequentially. */
+	public static int parallelGrain = 32;
 	
 	/** For the purpose of removing duplicate agents, the default JND of IBI */
 	public static final double DEFAULT_BI = 0.02;
@@ -63,51 +68,47 @@ public class AgentList {
 	/** For the purpose of removing duplicate agents, the default JND of phase */
 	public static final double DEFAULT_BT = 0.04;
 
-	/** A beat tracking Agent */
-	public Agent ag;
+	/** The beat tracking Agents */
+	private Agent[] agents;
 	
-	/** The remainder of the linked list */
-	public AgentList next;
+	/** The number of beat tracking Agents in this list */
+	private int size;
 	
-	/** The length of the list (number of beat tracking Agents) */
+	/** The length of the most recently created list (number of beat tracking Agents) */
 	public static int count = 0;
 	
 	/** For the purpose of removing duplicate agents, the JND of IBI.
 	 *  Not changed in the current version. */
 	public static double thresholdBI = DEFAULT_BI;
-
+	
 	/** For the purpose of removing duplicate agents, the JND of phase.
 	 *  Not changed in the current version. */
 	public static double thresholdBT = DEFAULT_BT;
 
 	/** Default constructor */
 	public AgentList() {
-		this(null, null);
-	}
-	
-	/** Constructor for an AgentList: the Agent a is prepended to the list al.
-	 *  @param a The Agent at the head of the list
-	 *  @param al The tail of the list
-	 */
-	public AgentList(Agent a, AgentList al) {
-		ag = a;
-		next = al;
-		if (next == null) {
-			if (ag != null)
-				next = new AgentList();		// insert null-terminator if it was forgotten
-			else {
-				count = 0;
-				thresholdBI = DEFAULT_BI;
-				thresholdBT = DEFAULT_BT;
-			}
-		}
+		agents = new Agent[16];
+		count = 0;
+		thresholdBI = DEFAULT_BI;
+		thresholdBT = DEFAULT_BT;
 	} // constructor
 
+	/** @return The number of Agents in the list */
+	public int size() {
+		return size;
+	} // size()
+
+	/** @param index The index of the Agent, in ascending order of beatInterval.
+	 *  @return The Agent */
+	public Agent get(int index) {
+		return agents[index];
+	} // get()
+
 	/** Deep print of AgentList for debugging */
 	public void print() {
 		System.out.println("agentList.print: (size=" + count + ")");
-		for (AgentList ptr = this; ptr.ag != null; ptr = ptr.next)
-			ptr.ag.print(2);
+		for (int i = 0; i < size; i++)
+			agents[i].print(2);
 		System.out.println("End of agentList.print()");
 	} // print()
 
@@ -120,51 +121,46 @@ public class AgentList {
 	} // add()/1
 
 	/** Appends newAgent to list (sort==false), or inserts newAgent into the list
-	 *  in ascending order of beatInterval
+	 *  in ascending order of beatInterval, before the Agents with the same beatInterval
 	 *  @param newAgent The agent to be added to the list
 	 *  @param sort Flag indicating whether the list is sorted or not
 	 */
 	public void add(Agent newAgent, boolean sort){
 		if (newAgent == null)
 			return;
-		AgentList ptr;
 		count++;
-		for (ptr = this; ptr.ag != null; ptr = ptr.next)
-			if (sort && (newAgent.beatInterval <= ptr.ag.beatInterval)) {
-				ptr.next = new AgentList(ptr.ag, ptr.next);
-				ptr.ag = newAgent;
-				return;
-			}
-		ptr.next = new AgentList();
-		ptr.ag = newAgent;
+		int index = 0;
+		if (sort) {
+			while ((index < size) && !(newAgent.beatInterval <= agents[index].beatInterval))
+				index++;
+		} else
+			index = size;
+		if (size == agents.length)
+			agents = Arrays.copyOf(agents, size * 2);
+		System.arraycopy(agents, index, agents, index + 1, size - index);
+		agents[index] = newAgent;
+		size++;
 	} // add()/2
 
-	/** Sorts the AgentList by increasing beatInterval, using a bubble sort
+	/** Sorts the AgentList by increasing beatInterval, using a (stable) insertion sort
 	 *  since it is assumed that the list is almost sorted. */
 	public void sort() {
-		boolean sorted = false;
-		while (!sorted) {
-			sorted = true;
-			for (AgentList ptr = this; ptr.ag != null; ptr = ptr.next) {
-				if ((ptr.next.ag != null) &&
-						(ptr.ag.beatInterval > ptr.next.ag.beatInterval)) {
-					Agent temp = ptr.ag;
-					ptr.ag = ptr.next.ag;
-					ptr.next.ag = temp;
-					sorted = false;
-				}
-			} // for
-		} // while
+		for (int i = 1; i < size; i++) {
+			Agent agent = agents[i];
+			int j = i - 1;
+			for ( ; (j >= 0) && (agents[j].beatInterval > agent.beatInterval); j--)
+				agents[j + 1] = agents[j];
+			agents[j + 1] = agent;
+		}
 	} // sort()
 
-	/** Removes the current item from the list.
-	 *  The current item does not need to be the head of the whole list.
-	 *  @param ptr Points to the Agent which is removed from the list
+	/** Removes the Agent at the index from the list.
+	 *  @param index The index of the Agent which is removed from the list
 	 */
-	public void remove(AgentList ptr) {
+	public void remove(int index) {
 		count--;
-		ptr.ag = ptr.next.ag;	// null-terminated list always has next
-		ptr.next = ptr.next.next;
+		System.arraycopy(agents, index + 1, agents, index, size - index - 1);
+		agents[--size] = null;
 	} // remove()
 
 	/** Removes Agents from the list which are duplicates of other Agents.
@@ -173,32 +169,37 @@ public class AgentList {
 	 */
 	protected void removeDuplicates() {
 		sort();
-		for (AgentList ptr = this; ptr.ag != null; ptr = ptr.next) {
-			if (ptr.ag.phaseScore < 0.0)		// already flagged for deletion
+		for (int i = 0; i < size; i++) {
+			Agent agent = agents[i];
+			if (agent.phaseScore < 0.0)		// already flagged for deletion
 				continue;
-			for (AgentList ptr2 = ptr.next; ptr2.ag != null; ptr2 = ptr2.next) {
-				if (ptr2.ag.beatInterval - ptr.ag.beatInterval > thresholdBI)
+			for (int j = i + 1; j < size; j++) {
+				Agent other = agents[j];
+				if (other.beatInterval - agent.beatInterval > thresholdBI)
 					break;
-				if (Math.abs(ptr.ag.beatTime - ptr2.ag.beatTime) > thresholdBT)
+				if (Math.abs(agent.beatTime - other.beatTime) > thresholdBT)
 					continue;
-				if (ptr.ag.phaseScore < ptr2.ag.phaseScore) {
-					ptr.ag.phaseScore = -1.0;	// flag for deletion
-					if (ptr2.ag.topScoreTime < ptr.ag.topScoreTime)
-						ptr2.ag.topScoreTime = ptr.ag.topScoreTime;
+				if (agent.phaseScore < other.phaseScore) {
+					agent.phaseScore = -1.0;	// flag for deletion
+					if (other.topScoreTime < agent.topScoreTime)
+						other.topScoreTime = agent.topScoreTime;
 					break;
 				} else {
-					ptr2.ag.phaseScore = -1.0;	// flag for deletion
-					if (ptr.ag.topScoreTime < ptr2.ag.topScoreTime)
-						ptr.ag.topScoreTime = ptr2.ag.topScoreTime;
+					other.phaseScore = -1.0;	// flag for deletion
+					if (agent.topScoreTime < other.topScoreTime)
+						agent.topScoreTime = other.topScoreTime;
 				}
 			}
 		}
-		for (AgentList ptr = this; ptr.ag != null; ) {
-			if (ptr.ag.phaseScore < 0.0) {
-				remove(ptr);
-			} else
-				ptr = ptr.next;
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (agents[i].phaseScore < 0.0)
+				count--;
+			else
+				agents[kept++] = agents[i];
 		}
+		Arrays.fill(agents, kept, size, null);
+		size = kept;
 	} // removeDuplicates()
 
 	/** Perform beat tracking on a list of events (onsets).
@@ -207,25 +208,39 @@ public class AgentList {
 	public void beatTrack(EventList el) {
 		beatTrack(el, -1.0);
 	} // beatTrack()/1
-	
+
 	/** Perform beat tracking on a list of events (onsets).
 	 *  @param el The list of onsets (or events or peaks) to beat track.
 	 *  @param stop Do not find beats after <code>stop</code> seconds.
 	 */
 	public void beatTrack(EventList el, double stop) {
-		ListIterator<Event> ptr = el.listIterator();
-		boolean phaseGiven = (ag != null) &&
-							 (ag.beatTime >= 0); // if given for one, assume given for others
-		while (ptr.hasNext()) {
-			Event ev = ptr.next();
-			if ((stop > 0) && (ev.keyDown > stop))
+		beatTrack(el, stop, false);
+	} // beatTrack()/2
+
+	/** Perform beat tracking on a list of events (onsets).
+	 *  @param el The list of onsets (or events or peaks) to beat track.
+	 *  @param stop Do not find beats after <code>stop</code> seconds.
+	 *  @param parallel Whether every event is considered with the Agents partitioned
+	 *  across the shared executor of ConcurrencyUtils. The result is the same as the sequential one.
+	 */
+	public void beatTrack(EventList el, double stop, boolean parallel) {
+		boolean phaseGiven = (size > 0) &&
+							 (agents[0].beatTime >= 0); // if given for one, assume given for others
+		for (int e = 0; e < el.size(); e++) {
+			Event ev = el.get(e);
+			if ((stop > 0) && (el.getTime(e) > stop))
 				break;
+			if (parallel && (size >= 2 * parallelGrain)) {
+				considerInParallel(ev, el.getTime(e), phaseGiven);
+				removeDuplicates();
+				continue;
+			}
 			boolean created = phaseGiven;
 			double prevBeatInterval = -1.0;
-			for (AgentList ap = this; ap.ag != null; ap = ap.next) {
-				Agent currentAgent = ap.ag;
+			for (int i = 0; i < size; i++) {
+				Agent currentAgent = agents[i];
 				if (currentAgent.beatInterval != prevBeatInterval) {
-					if ((prevBeatInterval>=0) && !created && (ev.keyDown<5.0)) {
+					if ((prevBeatInterval>=0) && !created && (el.getTime(e)<5.0)) {
 						// Create new agent with different phase
 						Agent newAgent = new Agent(prevBeatInterval);
 						newAgent.considerAsBeat(ev, this);
@@ -236,29 +251,89 @@ public class AgentList {
 				}
 				if (currentAgent.considerAsBeat(ev, this))
 					created = true;
-				if (currentAgent != ap.ag)	// new one been inserted, skip it
-					ap = ap.next;
+				if (currentAgent != agents[i])	// new one been inserted, skip it
+					i++;
 			} // loop for each agent
 			removeDuplicates();
 		} // loop for each event
 	} // beatTrack()
 
+	/** Lets every Agent consider the event in parallel, then merges the new Agents
+	 *  in the order the sequential loop adds them. The sequential loop inserts a
+	 *  new Agent before the first Agent with an equal or greater beatInterval,
+	 *  where the Agents before the current one have already considered the
+	 *  event and the others have not, so the intervals from before the event
+	 *  are kept for the merge.
+	 *  @param ev The event
+	 *  @param time The event's onset time
+	 *  @param phaseGiven Whether the Agents' phases were given
+	 */
+	private void considerInParallel(final Event ev, double time, boolean phaseGiven) {
+		final Agent[] current = Arrays.copyOf(agents, size);
+		final int n = current.length;
+		final double[] intervals = new double[n];
+		final boolean[] accepted = new boolean[n];
+		for (int i = 0; i < n; i++)
+			intervals[i] = current[i].beatInterval;
+
+		final int tasks = Math.max(1, Math.min(ConcurrencyUtils.getParallelism(), n / parallelGrain));
+		ConcurrencyUtils.invokeForEach(tasks, new ConcurrencyUtils.IndexedTask() {
+			@Override
+			public void run(int t) {
+				final int from = (int) ((long) n * t / tasks);
+				final int to = (int) ((long) n * (t + 1) / tasks);
+				for (int i = from; i < to; i++)
+					accepted[i] = current[i].considerAsBeat(ev);
+			}
+		});
+
+		agents = new Agent[Math.max(16, n * 2)];
+		size = 0;
+		boolean created = phaseGiven;
+		double prevBeatInterval = -1.0;
+		for (int i = 0; i < n; i++) {
+			Agent currentAgent = current[i];
+			if (intervals[i] != prevBeatInterval) {
+				if ((prevBeatInterval>=0) && !created && (time<5.0)) {
+					// Create new agent with different phase
+					Agent newAgent = new Agent(prevBeatInterval);
+					newAgent.considerAsBeat(ev, this);
+					add(newAgent);
+				}
+				prevBeatInterval = intervals[i];
+				created = phaseGiven;
+			}
+			if (accepted[i])
+				created = true;
+			if (currentAgent.fork != null) {
+				Agent fork = currentAgent.fork;
+				currentAgent.fork = null;
+				fork.idNumber = Agent.idCounter++;
+				add(fork);
+			}
+			// Appended, the following Agents have not been merged yet.
+			add(currentAgent, false);
+		}
+		count -= n;
+	} // considerInParallel()
+
 	/** Finds the Agent with the highest score in the list.
 	 *  @return The Agent with the highest score
 	 */
 	public Agent bestAgent() {
 		double best = -1.0;
 		Agent bestAg = null;
-		for (AgentList ap = this; ap.ag != null; ap = ap.next) {
-			double startTime = ap.ag.events.l.getFirst().keyDown;
-			double conf = (ap.ag.phaseScore + ap.ag.tempoScore) /
-					(useAverageSalience? (double)ap.ag.beatCount: 1.0);
+		for (int i = 0; i < size; i++) {
+			Agent agent = agents[i];
+			double conf = (agent.phaseScore + agent.tempoScore) /
+					(useAverageSalience? (double)agent.beatCount: 1.0);
 			if (conf > best) {
-				bestAg = ap.ag;
+				bestAg = agent;
 				best = conf;
 			}
 			if (debug) {
-				ap.ag.print(0);
+				double startTime = agent.events.getTime(0);
+				agent.print(0);
 				System.out.printf(" +%5.3f    Av-salience = %3.1f\n",
 									startTime, conf);
 			}
@@ -38,7 +38,7 @@ import be.tarsos.dsp.onsets.OnsetHandler;
  */
 public class BeatRootOnsetEventHandler implements OnsetHandler {
 
-	private final EventList onsetList = new EventList();
+	protected final EventList onsetList = new EventList();
 	
 	@Override
 	public void handleOnset(double time, double salience) {
@@ -70,10 +70,25 @@ public class BeatRootOnsetEventHandler implements OnsetHandler {
 	 *            the beat is not calculated: -1 is returned.
 	 */
 	public void trackBeats(OnsetHandler beatHandler){
+		trackBeats(beatHandler, false);
+	}
+	
+	/**
+	 * Guess the beats using the populated list of onsets.
+	 * 
+	 * @param beatHandler
+	 *            Use this handler to get the time of the beats. The salience of
+	 *            the beat is not calculated: -1 is returned.
+	 * @param parallel
+	 *            Whether the tempo hypotheses are tracked in parallel, see
+	 *            {@link AgentList#beatTrack(EventList, double, boolean)}. The
+	 *            beats are the same.
+	 */
+	public void trackBeats(OnsetHandler beatHandler, boolean parallel){
 		AgentList agents = null;		
 		// tempo not given; use tempo induction
 		agents = Induction.beatInduction(onsetList);
-		agents.beatTrack(onsetList, -1);
+		agents.beatTrack(onsetList, -1, parallel);
 		Agent best = agents.bestAgent();
 		if (best != null) {
 			best.fillBeats(-1.0);
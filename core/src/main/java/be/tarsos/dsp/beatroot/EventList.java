@@ -48,9 +48,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
 
 
 
@@ -135,13 +134,19 @@ class Flags {
 
 /**
  *  A score/match/midi file is represented as an EventList object,
- *  which contains pointers to the head and tail links, and some
+ *  which contains the events in order, and some
  *   class-wide parameters. Parameters are class-wide, as it is
  *   assumed that the Worm has only one input file at a time.
+ *  The onset times and saliences are kept in primitive arrays next to the
+ *  events, so beat tracking scans and copies arrays instead of walking
+ *  linked lists. They are captured when an event is added.
  */
 public class EventList {
 
-	public LinkedList<Event> l;
+	private Event[] events;
+	private double[] times;
+	private double[] saliences;
+	private int size;
 
 	private static boolean timingCorrection = false;
 	private static double timingDisplacement = 0;
@@ -154,55 +159,98 @@ public class EventList {
 	private static Flags flags = new Flags();
 
 	public EventList() {
-		l = new LinkedList<Event>();
+		this(16);
+	} // constructor
+
+	private EventList(int capacity) {
+		events = new Event[capacity];
+		times = new double[capacity];
+		saliences = new double[capacity];
 	} // constructor
 
 	public EventList(EventList e) {
-		this();
-		ListIterator<Event> it = e.listIterator();
-		while (it.hasNext())
-			add(it.next());
+		this(Math.max(e.size, 16));
+		System.arraycopy(e.events, 0, events, 0, e.size);
+		System.arraycopy(e.times, 0, times, 0, e.size);
+		System.arraycopy(e.saliences, 0, saliences, 0, e.size);
+		size = e.size;
 	} // constructor
 
 	public EventList(Event[] e) {
-		this();
+		this(Math.max(e.length, 16));
 		for (int i=0; i < e.length; i++)
 			add(e[i]);
 	} // constructor
 
+	private void ensureCapacity(int capacity) {
+		if (capacity > events.length) {
+			int newCapacity = Math.max(capacity, events.length * 2);
+			events = Arrays.copyOf(events, newCapacity);
+			times = Arrays.copyOf(times, newCapacity);
+			saliences = Arrays.copyOf(saliences, newCapacity);
+		}
+	} // ensureCapacity()
+
 	public void add(Event e) {
-		l.add(e);
+		ensureCapacity(size + 1);
+		set(size++, e);
 	} // add()
 
 	public void add(EventList ev) {
-		l.addAll(ev.l);
+		ensureCapacity(size + ev.size);
+		System.arraycopy(ev.events, 0, events, size, ev.size);
+		System.arraycopy(ev.times, 0, times, size, ev.size);
+		System.arraycopy(ev.saliences, 0, saliences, size, ev.size);
+		size += ev.size;
 	} // add()
 
+	private void set(int index, Event e) {
+		events[index] = e;
+		times[index] = e.keyDown;
+		saliences[index] = e.salience;
+	} // set()
+
 	public void insert(Event newEvent, boolean uniqueTimes) {
-		ListIterator<Event> li = l.listIterator();
-		while (li.hasNext()) {
-			int sgn = newEvent.compareTo(li.next());
-			if (sgn < 0) {
-				li.previous();
-				break;
-			} else if (uniqueTimes && (sgn == 0)) {
-				li.remove();
+		int index = 0;
+		for ( ; index < size; index++) {
+			int sgn = newEvent.compareTo(events[index]);
+			if (sgn < 0)
 				break;
+			if (uniqueTimes && (sgn == 0)) {
+				set(index, newEvent);
+				return;
 			}
 		}
-		li.add(newEvent);
+		ensureCapacity(size + 1);
+		System.arraycopy(events, index, events, index + 1, size - index);
+		System.arraycopy(times, index, times, index + 1, size - index);
+		System.arraycopy(saliences, index, saliences, index + 1, size - index);
+		size++;
+		set(index, newEvent);
 	} // insert()
 
-	public ListIterator<Event> listIterator() {
-		return l.listIterator();
-	} // listIterator()
+	public Event get(int index) {
+		return events[index];
+	} // get()
+
+	/** @param index The index of the event.
+	 *  @return The onset time (keyDown) of the event. */
+	public double getTime(int index) {
+		return times[index];
+	} // getTime()
+
+	/** @param index The index of the event.
+	 *  @return The salience of the event. */
+	public double getSalience(int index) {
+		return saliences[index];
+	} // getSalience()
 
 	public Iterator<Event> iterator() {
-		return l.iterator();
+		return Arrays.asList(events).subList(0, size).iterator();
 	} // iterator()
 
 	public int size() {
-		return l.size();
+		return size;
 	} // size()
 
 	public Event[] toArray() {
@@ -210,23 +258,21 @@ public class EventList {
 	} // toArray()
 
 	public double[] toOnsetArray() {
-		double[] d = new double[l.size()];
-		int i = 0;
-		for (Iterator<Event> it = l.iterator(); it.hasNext(); i++)
-			d[i] = it.next().keyDown;
-		return d;
+		return Arrays.copyOf(times, size);
 	} // toOnsetArray()
 
 	public Event[] toArray(int match) {
+		if (match == 0)
+			return Arrays.copyOf(events, size);
 		int count = 0;
-		for (Event e : l)
-			if ((match == 0) || (e.midiCommand == match))
+		for (int i = 0; i < size; i++)
+			if (events[i].midiCommand == match)
 				count++;
 		Event[] a = new Event[count];
-		int i = 0;
-		for (Event e : l)
-			if ((match == 0) || (e.midiCommand == match))
-				a[i++] = e;
+		int j = 0;
+		for (int i = 0; i < size; i++)
+			if (events[i].midiCommand == match)
+				a[j++] = events[i];
 		return a;
 	} // toArray()
 
@@ -417,8 +463,8 @@ public class EventList {
 	} // readMidiFile()
 */
 	public void print() {
-		for (Iterator<Event> i = l.iterator(); i.hasNext(); )
-			i.next().print(flags);
+		for (int i = 0; i < size; i++)
+			events[i].print(flags);
 	} // print()
 
 	public static void setTimingCorrection(double corr) {
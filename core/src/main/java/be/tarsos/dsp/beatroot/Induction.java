@@ -42,7 +42,6 @@
 
 package be.tarsos.dsp.beatroot;
 
-import java.util.ListIterator;
 
 /** Performs tempo induction by finding clusters of similar
  *  inter-onset intervals (IOIs), ranking them according to the number
@@ -98,18 +97,24 @@ public class Induction {
 		int[] clusterSize = new int[maxClusterCount];
 		int[] clusterScore = new int[maxClusterCount];
 		
-		ListIterator<Event> ptr1, ptr2;
-		Event e1,e2;
-		ptr1 = events.listIterator();
-		while (ptr1.hasNext()) {
-			e1 = ptr1.next();
-			ptr2 = events.listIterator();
-			e2 = ptr2.next();
-			while (e2 != e1)
-				e2 = ptr2.next();
-			while (ptr2.hasNext()) {
-				e2 = ptr2.next();
-				double ioi = e2.keyDown - e1.keyDown;
+		int size = events.size();
+		boolean sorted = true;
+		for (i = 1; (i < size) && sorted; i++)
+			sorted = events.getTime(i - 1) <= events.getTime(i);
+		// The first event which is at least minIOI after e1. As the events are sorted,
+		// it only moves forward, the shorter intervals before it are not visited again.
+		int first = 1;
+		for (int e1 = 0; e1 < size; e1++) {
+			double t1 = events.getTime(e1);
+			if (sorted) {
+				if (first <= e1)
+					first = e1 + 1;
+				while ((first < size) && (events.getTime(first) - t1 < minIOI))
+					first++;
+			} else
+				first = e1 + 1;
+			for (int e2 = first; e2 < size; e2++) {
+				double ioi = events.getTime(e2) - t1;
 				if (ioi < minIOI)		// skip short intervals
 					continue;
 				if (ioi > maxIOI)		// ioi too long
@@ -290,18 +295,9 @@ public class Induction {
 		int[] count = new int[MAX_MS];
 		for (int i=0; i < MAX_MS; i++)
 			count[i] = 0;
-		ListIterator<Event> ptr1, ptr2;
-		Event e1,e2;
-		ptr1 = events.listIterator();
-		while (ptr1.hasNext()) {
-			e1 = ptr1.next();
-			ptr2 = events.listIterator();
-			e2 = ptr2.next();
-			while (e2 != e1)
-				e2 = ptr2.next();
-			while (ptr2.hasNext()) {
-				e2 = ptr2.next();
-				int diff = (int) Math.round((e1.keyDown - e2.keyDown) * 1000);
+		for (int e1 = 0; e1 < events.size(); e1++) {
+			for (int e2 = e1 + 1; e2 < events.size(); e2++) {
+				int diff = (int) Math.round((events.getTime(e1) - events.getTime(e2)) * 1000);
 				if (diff < MAX_MS)
 					count[diff]++;
 				else
@@ -0,0 +1,212 @@
+/*
+*      _______                       _____   _____ _____  
+*     |__   __|                     |  __ \ / ____|  __ \ 
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/ 
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |     
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|     
+*                                                         
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*  
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*  
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+
+package be.tarsos.dsp.beatroot;
+
+import be.tarsos.dsp.onsets.OnsetHandler;
+
+/**
+ * Tracks the beats while the onsets are still being detected. Every
+ * <code>updateInterval</code> seconds of audio, the tempo is induced again
+ * from the onsets of the last minute, the onsets of the last
+ * <code>windowLength</code> seconds are tracked and the beats of the best
+ * agent are reported as provisional beats, up to two beats before the last
+ * onset. Beats are reported once and in order, a later window only continues
+ * the grid after the last reported beat.
+ * 
+ * The provisional beats are an estimate: {@link #trackBeats(OnsetHandler)}
+ * still tracks all onsets at once once the audio has been processed, so the
+ * final beats are the same as those of a {@link BeatRootOnsetEventHandler}.
+ */
+public class OnlineBeatRootOnsetEventHandler extends BeatRootOnsetEventHandler {
+
+	public static final double DEFAULT_WINDOW_LENGTH = 10;
+
+	public static final double DEFAULT_UPDATE_INTERVAL = 2;
+
+	/**
+	 * The amount of seconds of onsets the tempo is induced from. A window of a
+	 * few seconds fits half or double the tempo about as well, the last minute
+	 * does not.
+	 */
+	public static final double INDUCTION_LENGTH = 60;
+
+	private final OnsetHandler provisionalBeatHandler;
+
+	/**
+	 * The amount of seconds of onsets tracked.
+	 */
+	private final double windowLength;
+
+	/**
+	 * The amount of seconds of audio between two inductions.
+	 */
+	private final double updateInterval;
+
+	/**
+	 * The index of the first onset in the window & in the induction window.
+	 */
+	private int windowStart, inductionStart;
+
+	private double lastUpdate;
+
+	private double lastBeat = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * The beat interval of the last reported beats, zero before the first.
+	 */
+	private double lastBeatInterval;
+
+	/**
+	 * @param provisionalBeatHandler
+	 *            Receives the provisional beats, the salience is -1.
+	 * @param windowLength
+	 *            The amount of seconds of onsets tracked.
+	 * @param updateInterval
+	 *            The amount of seconds of audio between two inductions.
+	 */
+	public OnlineBeatRootOnsetEventHandler(OnsetHandler provisionalBeatHandler, double windowLength, double updateInterval) {
+		this.provisionalBeatHandler = provisionalBeatHandler;
+		this.windowLength = windowLength;
+		this.updateInterval = updateInterval;
+	}
+
+	/**
+	 * Tracks the last ten seconds every two seconds.
+	 * @param provisionalBeatHandler
+	 *            Receives the provisional beats, the salience is -1.
+	 */
+	public OnlineBeatRootOnsetEventHandler(OnsetHandler provisionalBeatHandler) {
+		this(provisionalBeatHandler, DEFAULT_WINDOW_LENGTH, DEFAULT_UPDATE_INTERVAL);
+	}
+
+	@Override
+	public void handleOnset(double time, double salience) {
+		super.handleOnset(time, salience);
+
+		double now = onsetList.getTime(onsetList.size() - 1);
+		if (now - lastUpdate >= updateInterval) {
+			lastUpdate = now;
+			trackWindow(now);
+		}
+	}
+
+	/**
+	 * A window of a few seconds often fits half or double the tempo, or the
+	 * off-beats, about as well. The agents which continue the reported grid are
+	 * preferred: the ones with a beat interval within 10% of the last one and
+	 * beats in phase with the last reported beat.
+	 * @return The best agent continuing the grid, the best one with the tempo
+	 *         if none does, the best agent if none has the tempo.
+	 */
+	private Agent bestAgent(AgentList agents) {
+		if (lastBeatInterval > 0) {
+			Agent inPhase = null, inTempo = null;
+			double bestInPhase = -1.0, bestInTempo = -1.0;
+			for (int i = 0; i < agents.size(); i++) {
+				Agent agent = agents.get(i);
+				if (agent.events.size() == 0 || Math.abs(agent.beatInterval - lastBeatInterval) > 0.1 * lastBeatInterval)
+					continue;
+				double conf = (agent.phaseScore + agent.tempoScore) /
+						(AgentList.useAverageSalience? (double)agent.beatCount: 1.0);
+				if (conf > bestInTempo) {
+					inTempo = agent;
+					bestInTempo = conf;
+				}
+				// The distance of the agent's last beat to the reported grid, in beats.
+				double beats = (agent.events.getTime(agent.events.size() - 1) - lastBeat) / lastBeatInterval;
+				if (Math.abs(beats - Math.round(beats)) <= 0.2 && conf > bestInPhase) {
+					inPhase = agent;
+					bestInPhase = conf;
+				}
+			}
+			if (inPhase != null)
+				return inPhase;
+			if (inTempo != null)
+				return inTempo;
+		}
+		return agents.bestAgent();
+	}
+
+	/**
+	 * Tracks the onsets of the window ending at the last onset & reports the
+	 * beats after the last reported one.
+	 */
+	private void trackWindow(double now) {
+		while (windowStart < onsetList.size() && onsetList.getTime(windowStart) < now - windowLength) {
+			windowStart++;
+		}
+
+		while (inductionStart < onsetList.size() && onsetList.getTime(inductionStart) < now - Math.max(windowLength, INDUCTION_LENGTH)) {
+			inductionStart++;
+		}
+
+		EventList inductionWindow = new EventList();
+		for (int i = inductionStart; i < onsetList.size(); i++) {
+			inductionWindow.add(onsetList.get(i));
+		}
+		EventList window = new EventList();
+		for (int i = windowStart; i < onsetList.size(); i++) {
+			window.add(onsetList.get(i));
+		}
+		if (window.size() < 2)
+			return;
+
+		AgentList agents = Induction.beatInduction(inductionWindow);
+		agents.beatTrack(window, -1);
+		Agent best = bestAgent(agents);
+		if (best == null || best.events.size() == 0)
+			return;
+		lastBeatInterval = best.beatInterval;
+
+		best.fillBeats(-1.0);
+		EventList beats = best.events;
+		double interval = best.beatInterval;
+		// The last beats may still be replaced by a later onset, they are
+		// reported once the next two beats have been heard.
+		double latest = now - 2 * interval;
+
+		// The grid is continued from the last reported beat: every next beat is
+		// the agent's beat closest to the prediction, or the prediction if the
+		// agent has none within a quarter beat.
+		double next = lastBeat == Double.NEGATIVE_INFINITY ? beats.getTime(0) : lastBeat + interval;
+		int index = 0;
+		while (next <= latest) {
+			while (index + 1 < beats.size() && beats.getTime(index + 1) <= next) {
+				index++;
+			}
+			double beat = next;
+			double distance = interval / 4;
+			for (int i = index; i <= index + 1 && i < beats.size(); i++) {
+				if (Math.abs(beats.getTime(i) - next) <= distance) {
+					beat = beats.getTime(i);
+					distance = Math.abs(beat - next);
+				}
+			}
+			provisionalBeatHandler.handleOnset(beat, -1);
+			lastBeat = beat;
+			next = beat + interval;
+		}
+	}
+}
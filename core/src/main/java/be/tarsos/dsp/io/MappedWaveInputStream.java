@@ -0,0 +1,170 @@
+/*
+*      _______                       _____   _____ _____  
+*     |__   __|                     |  __ \ / ____|  __ \ 
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/ 
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |     
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|     
+*                                                         
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*  
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*  
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+
+package be.tarsos.dsp.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFormat.Encoding;
+import be.tarsos.dsp.writer.WaveHeader;
+
+/**
+ * Reads the samples of a PCM or float WAV file from a memory mapping of the
+ * file. Reading copies straight from the page cache, skipping only moves the
+ * position and analysing the same file again costs no system calls.
+ * 
+ * An {@link be.tarsos.dsp.AudioDispatcher} reading from this stream converts
+ * the samples straight from the mapping into its float buffer, see
+ * {@link #read(TarsosDSPAudioFloatConverter, float[], int, int)}.
+ * 
+ * The file is closed as soon as it is mapped, the mapping is released once
+ * the stream and all its duplicates are garbage collected. The samples of a
+ * file can be at most 2GB.
+ */
+public class MappedWaveInputStream implements TarsosDSPAudioInputStream {
+
+	private final ByteBuffer data;
+	private final TarsosDSPAudioFormat format;
+
+	/**
+	 * Maps the samples of a WAV file.
+	 * @param file the file to read.
+	 * @throws IOException if the file can not be read, is no PCM or float
+	 *             WAV file or has more than 2GB of samples.
+	 */
+	public MappedWaveInputStream(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			WaveHeader header = new WaveHeader();
+			// The header is read through the channel, which is left at the first sample.
+			long dataOffset = header.read(Channels.newInputStream(channel));
+
+			this.format = formatOf(header);
+
+			// Streaming writers leave the length at 0 or -1, the samples end with the file.
+			long available = channel.size() - dataOffset;
+			long dataLength = header.getNumBytes() <= 0 ? available : Math.min(available, header.getNumBytes() & 0xFFFFFFFFL);
+			dataLength -= dataLength % format.getFrameSize();
+
+			if (dataLength > Integer.MAX_VALUE)
+				throw new IOException("The samples of " + file + " are larger than 2GB.");
+
+			this.data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataLength);
+		}
+	}
+
+	private MappedWaveInputStream(ByteBuffer data, TarsosDSPAudioFormat format) {
+		this.data = data;
+		this.format = format;
+	}
+
+	private static TarsosDSPAudioFormat formatOf(WaveHeader header) throws IOException {
+		int bits = header.getBitsPerSample();
+		int channels = header.getNumChannels();
+		int frameSize = channels * ((bits + 7) / 8);
+
+		Encoding encoding;
+		if (header.getFormat() == WaveHeader.FORMAT_PCM) {
+			// 8 bit WAV samples are unsigned.
+			encoding = bits <= 8 ? Encoding.PCM_UNSIGNED : Encoding.PCM_SIGNED;
+		} else if (header.getFormat() == WaveHeader.FORMAT_FLOAT) {
+			encoding = TarsosDSPAudioFloatConverter.PCM_FLOAT;
+		} else {
+			throw new IOException("Unsupported WAV format: " + header.getFormat());
+		}
+		return new TarsosDSPAudioFormat(encoding, header.getSampleRate(), bits, channels, frameSize, header.getSampleRate(), false);
+	}
+
+	/**
+	 * @return a new stream of the same mapping, at the first sample. The
+	 *         file is neither opened nor mapped again.
+	 */
+	public MappedWaveInputStream duplicate() {
+		ByteBuffer copy = data.duplicate();
+		copy.position(0);
+		return new MappedWaveInputStream(copy, format);
+	}
+
+	@Override
+	public long skip(long bytesToSkip) {
+		int skipped = (int) Math.max(0, Math.min(bytesToSkip, data.remaining()));
+		data.position(data.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (!data.hasRemaining())
+			return -1;
+		int read = Math.min(len, data.remaining());
+		data.get(b, off, read);
+		return read;
+	}
+
+	/**
+	 * Converts samples straight from the mapping, without copying them to a
+	 * byte array first.
+	 * @param converter the converter for the stream's format.
+	 * @param samples the array to write to.
+	 * @param offset the index of the first sample in the array.
+	 * @param length the maximum amount of samples to convert.
+	 * @return the amount of samples converted, -1 if the end of the stream is reached.
+	 */
+	public int read(TarsosDSPAudioFloatConverter converter, float[] samples, int offset, int length) {
+		if (!data.hasRemaining())
+			return -1;
+		int read = (int) Math.min(length, getFramesRemaining());
+		converter.toFloatArray(data, data.position(), samples, offset, read);
+		data.position(data.position() + read * format.getFrameSize());
+		return read;
+	}
+
+	/**
+	 * @return the amount of frames left to read.
+	 */
+	public long getFramesRemaining() {
+		return data.remaining() / format.getFrameSize();
+	}
+
+	/**
+	 * Nothing to release, the file is closed already & the mapping is released by the garbage collector.
+	 */
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public TarsosDSPAudioFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public long getFrameLength() {
+		return data.capacity() / format.getFrameSize();
+	}
+}
@@ -48,10 +48,13 @@
  */
 package be.tarsos.dsp.io;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
+import java.util.Optional;
 
 import be.tarsos.dsp.io.TarsosDSPAudioFormat.Encoding;
 
@@ -66,6 +69,64 @@ public abstract class TarsosDSPAudioFloatConverter {
 
     public static final Encoding PCM_FLOAT = new Encoding("PCM_FLOAT");
 
+    /***************************************************************************
+     * 
+     * Vector backend, used to convert 16 & 24 bit signed little-endian samples
+     * a vector at a time.
+     * 
+     * The backend uses the incubating Vector API, it is compiled for Java 17
+     * (src/main/java17) into the versioned part of the multi-release jar & only
+     * loaded when the jdk.incubator.vector module is present, e.g. with
+     * --add-modules jdk.incubator.vector. Otherwise, on older runtimes or with
+     * -Dtarsos.dsp.vectors=false, every sample is converted by the scalar loops.
+     * 
+     **************************************************************************/
+
+    interface VectorConversion {
+
+        /**
+         * @return the amount of samples converted, the caller converts the rest.
+         */
+        int toFloat16SL(byte[] in_buff, int in_offset, float[] out_buff,
+                int out_offset, int out_len);
+
+        /**
+         * @return the amount of samples converted, the caller converts the rest.
+         */
+        int toFloat24SL(byte[] in_buff, int in_offset, float[] out_buff,
+                int out_offset, int out_len);
+    }
+
+    private static final VectorConversion VECTORS = loadVectorConversion();
+
+    private static VectorConversion loadVectorConversion() {
+        if (!Boolean.parseBoolean(System.getProperty("tarsos.dsp.vectors", "true")))
+            return null;
+        Optional<Module> vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector");
+        if (!vectorModule.isPresent())
+            return null;
+        try {
+            // The module descriptor targets Java 9 & can not require the
+            // incubator module, a named module has to read it explicitly.
+            TarsosDSPAudioFloatConverter.class.getModule().addReads(vectorModule.get());
+            return (VectorConversion) Class
+                    .forName("be.tarsos.dsp.io.VectorAudioFloatConversion")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Not built (older jdk), a newer runtime's api or a platform the
+            // vectors convert differently on: the scalar loops convert everything.
+            return null;
+        }
+    }
+
+    /**
+     * @return whether 16 & 24 bit signed little-endian samples are converted
+     *         with the Vector API.
+     */
+    public static boolean isVectorized() {
+        return VECTORS != null;
+    }
+
     /***************************************************************************
      * 
      * LSB Filter, used filter least significant byte in samples arrays.
@@ -281,6 +342,14 @@ public abstract class TarsosDSPAudioFloatConverter {
             return out_buff;
         }
 
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            in.position(in_offset);
+            in.asFloatBuffer().get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
+
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
             int out_len = in_len * 4;
@@ -318,6 +387,14 @@ public abstract class TarsosDSPAudioFloatConverter {
             return out_buff;
         }
 
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.BIG_ENDIAN);
+            in.position(in_offset);
+            in.asFloatBuffer().get(out_buff, out_offset, out_len);
+            return out_buff;
+        }
+
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
             int out_len = in_len * 4;
@@ -389,28 +466,43 @@ public abstract class TarsosDSPAudioFloatConverter {
      * 
      **************************************************************************/
 
+    // The signed conversions read & write whole samples through byte array
+    // views in the format's byte order (see
+    // MethodHandles.byteArrayViewVarHandle), which compile to single loads &
+    // stores (with a byte swap), instead of shifting & masking every byte.
+    // The results are bit for bit the same.
+
     // PCM 16 bit, signed, little-endian
     private static class AudioFloatConversion16SL extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle SHORT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int len = out_offset + out_len;
-            for (int ox = out_offset; ox < len; ox++) {
-                out_buff[ox] = ((short) ((in_buff[ix++] & 0xFF) | 
-                           (in_buff[ix++] << 8))) * (1.0f / 32767.0f);
+            int i = VECTORS == null ? 0 : VECTORS.toFloat16SL(in_buff,
+                    in_offset, out_buff, out_offset, out_len);
+            for (; i < out_len; i++) {
+                out_buff[out_offset + i] = ((short) SHORT_VIEW.get(in_buff,
+                        in_offset + 2 * i)) * (1.0f / 32767.0f);
             }
+            return out_buff;
+        }
 
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < out_len; i++) {
+                out_buff[out_offset + i] = in.getShort(in_offset + 2 * i)
+                        * (1.0f / 32767.0f);
+            }
             return out_buff;
         }
 
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
-            int ox = out_offset;
-            int len = in_offset + in_len;
-            for (int ix = in_offset; ix < len; ix++) {
-                int x = (int) (in_buff[ix] * 32767.0);
-                out_buff[ox++] = (byte) x;
-                out_buff[ox++] = (byte) (x >>> 8);
+            for (int i = 0; i < in_len; i++) {
+                int x = (int) (in_buff[in_offset + i] * 32767.0);
+                SHORT_VIEW.set(out_buff, out_offset + 2 * i, (short) x);
             }
             return out_buff;
         }
@@ -418,25 +510,33 @@ public abstract class TarsosDSPAudioFloatConverter {
 
     // PCM 16 bit, signed, big-endian
     private static class AudioFloatConversion16SB extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle SHORT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < out_len; i++) {
-                out_buff[ox++] = ((short) ((in_buff[ix++] << 8) | 
-                        (in_buff[ix++] & 0xFF))) * (1.0f / 32767.0f);
+                out_buff[out_offset + i] = ((short) SHORT_VIEW.get(in_buff,
+                        in_offset + 2 * i)) * (1.0f / 32767.0f);
+            }
+            return out_buff;
+        }
+
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < out_len; i++) {
+                out_buff[out_offset + i] = in.getShort(in_offset + 2 * i)
+                        * (1.0f / 32767.0f);
             }
             return out_buff;
         }
 
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < in_len; i++) {
-                int x = (int) (in_buff[ix++] * 32767.0);
-                out_buff[ox++] = (byte) (x >>> 8);
-                out_buff[ox++] = (byte) x;
+                int x = (int) (in_buff[in_offset + i] * 32767.0);
+                SHORT_VIEW.set(out_buff, out_offset + 2 * i, (short) x);
             }
             return out_buff;
         }
@@ -501,12 +601,33 @@ public abstract class TarsosDSPAudioFloatConverter {
      **************************************************************************/
 
     // PCM 24 bit, signed, little-endian
+    //
+    // There is no 24 bit view, four samples (twelve bytes) are read as a long
+    // & an int, & split with shifts. The shifts to the right extend the sign.
     private static class AudioFloatConversion24SL extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle LONG_VIEW = MethodHandles
+                .byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+        private static final VarHandle INT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int ox = out_offset;
-            for (int i = 0; i < out_len; i++) {
+            int i = VECTORS == null ? 0 : VECTORS.toFloat24SL(in_buff,
+                    in_offset, out_buff, out_offset, out_len);
+            for (; i + 4 <= out_len; i += 4) {
+                int ix = in_offset + 3 * i;
+                int ox = out_offset + i;
+                long l = (long) LONG_VIEW.get(in_buff, ix);
+                int m = (int) INT_VIEW.get(in_buff, ix + 8);
+                out_buff[ox] = ((int) (l << 40 >> 40)) * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 1] = ((int) (l << 16 >> 40)) * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 2] = (((int) (l >>> 48) | (m << 16)) << 8 >> 8)
+                        * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 3] = (m >> 8) * (1.0f / (float)0x7FFFFF);
+            }
+            int ix = in_offset + 3 * i;
+            int ox = out_offset + i;
+            for (; i < out_len; i++) {
                 int x = (in_buff[ix++] & 0xFF) | ((in_buff[ix++] & 0xFF) << 8)
                         | ((in_buff[ix++] & 0xFF) << 16);
                 if (x > 0x7FFFFF)
@@ -516,6 +637,27 @@ public abstract class TarsosDSPAudioFloatConverter {
             return out_buff;
         }
 
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            // Every sample is read as an int with the first byte of the next
+            // sample, except for the last sample of the buffer.
+            int viewed = Math.max(0, Math.min(out_len,
+                    (in.limit() - in_offset - 1) / 3));
+            for (int i = 0; i < viewed; i++) {
+                int x = in.getInt(in_offset + 3 * i) << 8 >> 8;
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFF);
+            }
+            if (viewed < out_len) {
+                byte[] rest = new byte[(out_len - viewed) * 3];
+                in.position(in_offset + 3 * viewed);
+                in.get(rest);
+                toFloatArray(rest, 0, out_buff, out_offset + viewed,
+                        out_len - viewed);
+            }
+            return out_buff;
+        }
+
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
             int ix = in_offset;
@@ -534,11 +676,28 @@ public abstract class TarsosDSPAudioFloatConverter {
 
     // PCM 24 bit, signed, big-endian
     private static class AudioFloatConversion24SB extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle LONG_VIEW = MethodHandles
+                .byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+        private static final VarHandle INT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int ox = out_offset;
-            for (int i = 0; i < out_len; i++) {
+            int i = 0;
+            for (; i + 4 <= out_len; i += 4) {
+                int ix = in_offset + 3 * i;
+                int ox = out_offset + i;
+                long l = (long) LONG_VIEW.get(in_buff, ix);
+                int m = (int) INT_VIEW.get(in_buff, ix + 8);
+                out_buff[ox] = ((int) (l >> 40)) * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 1] = ((int) (l << 24 >> 40)) * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 2] = (((int) l << 16 | (m >>> 16)) >> 8)
+                        * (1.0f / (float)0x7FFFFF);
+                out_buff[ox + 3] = (m << 8 >> 8) * (1.0f / (float)0x7FFFFF);
+            }
+            int ix = in_offset + 3 * i;
+            int ox = out_offset + i;
+            for (; i < out_len; i++) {
                 int x = ((in_buff[ix++] & 0xFF) << 16)
                         | ((in_buff[ix++] & 0xFF) << 8) | (in_buff[ix++] & 0xFF);
                 if (x > 0x7FFFFF)
@@ -548,6 +707,27 @@ public abstract class TarsosDSPAudioFloatConverter {
             return out_buff;
         }
 
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.BIG_ENDIAN);
+            // Every sample is read as an int with the first byte of the next
+            // sample, except for the last sample of the buffer.
+            int viewed = Math.max(0, Math.min(out_len,
+                    (in.limit() - in_offset - 1) / 3));
+            for (int i = 0; i < viewed; i++) {
+                int x = in.getInt(in_offset + 3 * i) >> 8;
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFF);
+            }
+            if (viewed < out_len) {
+                byte[] rest = new byte[(out_len - viewed) * 3];
+                in.position(in_offset + 3 * viewed);
+                in.get(rest);
+                toFloatArray(rest, 0, out_buff, out_offset + viewed,
+                        out_len - viewed);
+            }
+            return out_buff;
+        }
+
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
             int ix = in_offset;
@@ -632,29 +812,33 @@ public abstract class TarsosDSPAudioFloatConverter {
 
     // PCM 32 bit, signed, little-endian
     private static class AudioFloatConversion32SL extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle INT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < out_len; i++) {
-                int x = (in_buff[ix++] & 0xFF) | ((in_buff[ix++] & 0xFF) << 8) |
-                        ((in_buff[ix++] & 0xFF) << 16) |
-                        ((in_buff[ix++] & 0xFF) << 24);
-                out_buff[ox++] = x * (1.0f / (float)0x7FFFFFFF);
+                int x = (int) INT_VIEW.get(in_buff, in_offset + 4 * i);
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFFFF);
+            }
+            return out_buff;
+        }
+
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < out_len; i++) {
+                int x = in.getInt(in_offset + 4 * i);
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFFFF);
             }
             return out_buff;
         }
 
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < in_len; i++) {
-                int x = (int) (in_buff[ix++] * (float)0x7FFFFFFF);
-                out_buff[ox++] = (byte) x;
-                out_buff[ox++] = (byte) (x >>> 8);
-                out_buff[ox++] = (byte) (x >>> 16);
-                out_buff[ox++] = (byte) (x >>> 24);
+                int x = (int) (in_buff[in_offset + i] * (float)0x7FFFFFFF);
+                INT_VIEW.set(out_buff, out_offset + 4 * i, x);
             }
             return out_buff;
         }
@@ -662,29 +846,33 @@ public abstract class TarsosDSPAudioFloatConverter {
 
     // PCM 32 bit, signed, big-endian
     private static class AudioFloatConversion32SB extends TarsosDSPAudioFloatConverter {
+        private static final VarHandle INT_VIEW = MethodHandles
+                .byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                 float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < out_len; i++) {
-                int x = ((in_buff[ix++] & 0xFF) << 24) |
-                        ((in_buff[ix++] & 0xFF) << 16) |
-                        ((in_buff[ix++] & 0xFF) << 8) | (in_buff[ix++] & 0xFF);
-                out_buff[ox++] = x * (1.0f / (float)0x7FFFFFFF);
+                int x = (int) INT_VIEW.get(in_buff, in_offset + 4 * i);
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFFFF);
+            }
+            return out_buff;
+        }
+
+        public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+                float[] out_buff, int out_offset, int out_len) {
+            ByteBuffer in = in_buff.duplicate().order(ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < out_len; i++) {
+                int x = in.getInt(in_offset + 4 * i);
+                out_buff[out_offset + i] = x * (1.0f / (float)0x7FFFFFFF);
             }
             return out_buff;
         }
 
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                 byte[] out_buff, int out_offset) {
-            int ix = in_offset;
-            int ox = out_offset;
             for (int i = 0; i < in_len; i++) {
-                int x = (int) (in_buff[ix++] * (float)0x7FFFFFFF);
-                out_buff[ox++] = (byte) (x >>> 24);
-                out_buff[ox++] = (byte) (x >>> 16);
-                out_buff[ox++] = (byte) (x >>> 8);
-                out_buff[ox++] = (byte) x;
+                int x = (int) (in_buff[in_offset + i] * (float)0x7FFFFFFF);
+                INT_VIEW.set(out_buff, out_offset + 4 * i, x);
             }
             return out_buff;
         }
@@ -1059,6 +1247,29 @@ public abstract class TarsosDSPAudioFloatConverter {
         return toFloatArray(in_buff, 0, out_buff, 0, out_buff.length);
     }
 
+    /**
+     * Converts samples straight out of a buffer, e.g. a memory mapped file,
+     * without copying them into a byte array first (except for the formats
+     * which are not read through views). The buffer's position and byte order
+     * are left unchanged.
+     * 
+     * @param in_buff the buffer to read from.
+     * @param in_offset the index of the first byte of the first sample.
+     * @param out_buff the array to write the samples to.
+     * @param out_offset the index of the first sample in the array.
+     * @param out_len the amount of samples to convert.
+     * @return the array the samples are written to.
+     */
+    public float[] toFloatArray(ByteBuffer in_buff, int in_offset,
+            float[] out_buff, int out_offset, int out_len) {
+        int in_len = out_len * ((format.getSampleSizeInBits() + 7) / 8);
+        byte[] bytes = new byte[in_len];
+        ByteBuffer in = in_buff.duplicate();
+        in.position(in_offset);
+        in.get(bytes);
+        return toFloatArray(bytes, 0, out_buff, out_offset, out_len);
+    }
+
     public abstract byte[] toByteArray(float[] in_buff, int in_offset,
             int in_len, byte[] out_buff, int out_offset);
 
@@ -25,6 +25,7 @@ package be.tarsos.dsp.mfcc;
 
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.SpectrumProcessor;
 import be.tarsos.dsp.util.fft.FFT;
 import be.tarsos.dsp.util.fft.HammingWindow;
 
@@ -44,6 +45,10 @@ public class MFCC implements AudioProcessor {
     int centerFrequencies[];
 
     private FFT fft;
+    /**
+     * The shared spectrum the magnitudes are read from, null if the buffers are transformed here.
+     */
+    private SpectrumProcessor spectrum;
     private int samplesPerFrame; 
     private float sampleRate;
     
@@ -63,12 +68,29 @@ public class MFCC implements AudioProcessor {
         calculateFilterBanks();       
     }
 
+    /**
+     * Creates an MFCC processor which reads the spectrum of a shared {@link SpectrumProcessor} instead of
+     * transforming the buffer itself. The spectrum processor should use a Hamming window and has to process
+     * every buffer before this processor does.
+     * @param spectrum The spectrum processor, added to the dispatcher before this processor.
+     * @see #MFCC(int, float, int, int, float, float)
+     */
+    public MFCC(SpectrumProcessor spectrum, float sampleRate, int amountOfCepstrumCoef, int amountOfMelFilters, float lowerFilterFreq, float upperFilterFreq) {
+        this(spectrum.getSize(), sampleRate, amountOfCepstrumCoef, amountOfMelFilters, lowerFilterFreq, upperFilterFreq);
+        this.spectrum = spectrum;
+    }
+
 	@Override
 	public boolean process(AudioEvent audioEvent) {
-		audioFloatBuffer = audioEvent.getFloatBuffer().clone();
-
         // Magnitude Spectrum
-        float bin[] = magnitudeSpectrum(audioFloatBuffer);
+        final float bin[];
+        if (spectrum == null) {
+            audioFloatBuffer = audioEvent.getFloatBuffer().clone();
+            bin = magnitudeSpectrum(audioFloatBuffer);
+        } else {
+            audioFloatBuffer = spectrum.getSpectrum();
+            bin = magnitudeSpectrumFromFFT(audioFloatBuffer);
+        }
         // get Mel Filterbank
         float fbank[] = melFilter(bin, centerFrequencies);
         // Non-linear transformation
@@ -106,6 +128,27 @@ public class MFCC implements AudioProcessor {
 
         return magSpectrum;
     }
+
+    /**
+     * computes the magnitude spectrum of an already transformed frame, like {@link #magnitudeSpectrum(float[])}<br>
+     * calls: none<br>
+     * called by: featureExtraction
+     * @param data The FFT transformed frame, it is not modified.
+     * @return Magnitude Spectrum array
+     */
+    public float[] magnitudeSpectrumFromFFT(float data[]){
+        float magSpectrum[] = new float[data.length];
+        
+        for (int k = 0; k < data.length/2; k++){
+        	final int index = data.length/2-1-k;
+        	final float re = data[2 * index];
+        	final float im = data[2 * index + 1];
+        	magSpectrum[data.length/2+k] = (float) Math.sqrt(re * re + im * im);
+        	magSpectrum[index] = magSpectrum[data.length/2+k];
+        }
+
+        return magSpectrum;
+    }
 	
     /**
      * calculates the FFT bin indices<br> calls: none<br> called by:
@@ -30,6 +30,7 @@ import java.util.LinkedList;
 import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.SpectrumProcessor;
 import be.tarsos.dsp.beatroot.Peaks;
 import be.tarsos.dsp.util.fft.FFT;
 import be.tarsos.dsp.util.fft.ScaledHammingWindow;
@@ -131,6 +132,11 @@ public class BeatRootSpectralFluxOnsetDetector implements AudioProcessor, OnsetD
 	
 	private final FFT fft;
 
+	/**
+	 * The shared spectrum, null if the detector transforms the buffers itself.
+	 */
+	private final SpectrumProcessor spectrum;
+
 	/**
 	 * Create anew onset detector
 	 * @param d the dispatcher
@@ -138,7 +144,25 @@ public class BeatRootSpectralFluxOnsetDetector implements AudioProcessor, OnsetD
 	 * @param hopSize the hop size of audio blocks.
 	 */
 	public BeatRootSpectralFluxOnsetDetector(AudioDispatcher d,int fftSize, int hopSize){
+		this(d, fftSize, hopSize, null);
+	}
+
+	/**
+	 * Create a new onset detector which reads the spectrum of a shared
+	 * {@link SpectrumProcessor} instead of transforming the buffer itself. The
+	 * spectrum processor should use a {@link ScaledHammingWindow} and has to
+	 * process every buffer before this detector does.
+	 * @param d the dispatcher
+	 * @param spectrum the spectrum processor, added to the dispatcher before this detector.
+	 * @param hopSize the hop size of audio blocks.
+	 */
+	public BeatRootSpectralFluxOnsetDetector(AudioDispatcher d,SpectrumProcessor spectrum, int hopSize){
+		this(d, spectrum.getSize(), hopSize, spectrum);
+	}
+
+	private BeatRootSpectralFluxOnsetDetector(AudioDispatcher d,int fftSize, int hopSize, SpectrumProcessor spectrum){
 		
+		this.spectrum = spectrum;
 		this.hopSize = hopSize; 
 		this.hopTime = hopSize/d.getFormat().getSampleRate();
 		this.fftSize = fftSize;
@@ -160,17 +184,24 @@ public class BeatRootSpectralFluxOnsetDetector implements AudioProcessor, OnsetD
 		newFrame = new double[freqMapSize];
 		frames = new double[totalFrames][freqMapSize];
 		handler = new PrintOnsetHandler();
-		fft = new FFT(fftSize,new ScaledHammingWindow());
+		fft = spectrum == null ? new FFT(fftSize,new ScaledHammingWindow()) : null;
 	}
 
 	@Override
 	public boolean process(AudioEvent audioEvent) {
 		frameRMS = audioEvent.getRMS()/2.0;
 		
-		float[] audioBuffer = audioEvent.getFloatBuffer().clone();
-	
-		Arrays.fill(imBuffer, 0);
-		fft.powerPhaseFFTBeatRootOnset(audioBuffer, reBuffer, imBuffer);
+		final float[] audioBuffer;
+		if (spectrum == null) {
+			audioBuffer = audioEvent.getFloatBuffer().clone();
+			Arrays.fill(imBuffer, 0);
+			fft.powerPhaseFFTBeatRootOnset(audioBuffer, reBuffer, imBuffer);
+		} else {
+			// The phases are not used, only the magnitudes are copied.
+			audioBuffer = spectrum.getSpectrum();
+			System.arraycopy(spectrum.getMagnitudes(), 0, reBuffer, 0, reBuffer.length);
+			reBuffer[0] = (float) Math.sqrt(audioBuffer[0] * audioBuffer[0] + audioBuffer[1] * audioBuffer[1]);
+		}
 		Arrays.fill(newFrame, 0);
 		
 		double flux = 0;
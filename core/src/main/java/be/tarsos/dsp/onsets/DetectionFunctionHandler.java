@@ -0,0 +1,38 @@
+/*
+*      _______                       _____   _____ _____  
+*     |__   __|                     |  __ \ / ____|  __ \ 
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/ 
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |     
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|     
+*                                                         
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*  
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*  
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.tarsos.dsp.onsets;
+
+/**
+ * A handler to receive the raw values of an onset detection function, one per
+ * processed buffer, before any peak picking is done.
+ */
+public interface DetectionFunctionHandler {
+	/**
+	 * Handle a new detection function value.
+	 * @param time the time (s) an onset in this buffer would be reported at.
+	 * @param value the value of the detection function.
+	 * @param silent whether the buffer is silent, silent buffers never report an onset.
+	 */
+	void handleDetectionFunction(double time, float value, boolean silent);
+}
@@ -0,0 +1,181 @@
+/*
+*      _______                       _____   _____ _____  
+*     |__   __|                     |  __ \ / ____|  __ \ 
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/ 
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |     
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|     
+*                                                         
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*  
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*  
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+* 
+*/
+
+package be.tarsos.dsp.onsets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import be.tarsos.dsp.util.PeakPicker;
+
+/**
+ * Records the raw values of an onset detection function, so the onsets can be
+ * picked again with other thresholds without processing the audio again.
+ * 
+ * Attach it to a detector through
+ * {@link ComplexOnsetDetector#setDetectionFunctionHandler(DetectionFunctionHandler)}.
+ * {@link #pickOnsets(double, double, OnsetHandler)} replays the detector's peak
+ * picking, silence check and minimum inter-onset interval, so it reports the
+ * same onsets the detector would have reported with those thresholds.
+ * 
+ * The values are kept in primitive arrays and can be stored in and read from
+ * a file.
+ */
+public class OnsetDetectionFunction implements DetectionFunctionHandler {
+
+	private float[] values;
+	private double[] times;
+	private boolean[] silent;
+	private int size;
+
+	public OnsetDetectionFunction() {
+		this(1024);
+	}
+
+	private OnsetDetectionFunction(int capacity) {
+		values = new float[capacity];
+		times = new double[capacity];
+		silent = new boolean[capacity];
+	}
+
+	@Override
+	public void handleDetectionFunction(double time, float value, boolean isSilent) {
+		if (size == values.length) {
+			int capacity = size * 2;
+			values = Arrays.copyOf(values, capacity);
+			times = Arrays.copyOf(times, capacity);
+			silent = Arrays.copyOf(silent, capacity);
+		}
+		values[size] = value;
+		times[size] = time;
+		silent[size] = isSilent;
+		size++;
+	}
+
+	/**
+	 * @return the amount of recorded values, one per processed buffer.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index the index of the buffer.
+	 * @return the recorded value.
+	 */
+	public float getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @param index the index of the buffer.
+	 * @return the time of the value, in seconds.
+	 */
+	public double getTime(int index) {
+		return times[index];
+	}
+
+	/**
+	 * @param index the index of the buffer.
+	 * @return whether the buffer was silent.
+	 */
+	public boolean isSilent(int index) {
+		return silent[index];
+	}
+
+	/**
+	 * Appends all values of another detection function, e.g. one computed for
+	 * the next part of the same audio.
+	 * @param other the values to append.
+	 */
+	public void addAll(OnsetDetectionFunction other) {
+		for (int i = 0; i < other.size; i++) {
+			handleDetectionFunction(other.times[i], other.values[i], other.silent[i]);
+		}
+	}
+
+	/**
+	 * Picks the onsets from the recorded values.
+	 * @param peakThreshold the threshold when a peak is accepted.
+	 * @param minimumInterOnsetInterval The minimum interval between onsets in seconds.
+	 * @param handler receives the onsets.
+	 */
+	public void pickOnsets(double peakThreshold, double minimumInterOnsetInterval, OnsetHandler handler) {
+		PeakPicker peakPicker = new PeakPicker(peakThreshold);
+		double lastOnset = 0;
+
+		for (int i = 0; i < size; i++) {
+			boolean isOnset = peakPicker.pickPeak(values[i]);
+			if (isOnset && !silent[i]) {
+				double onsetTime = times[i];
+				if (onsetTime - lastOnset > minimumInterOnsetInterval) {
+					handler.handleOnset(onsetTime, peakPicker.getLastPeekValue());
+					lastOnset = onsetTime;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the recorded values to a file.
+	 * @param file the file to write to.
+	 * @throws IOException if the file can not be written.
+	 */
+	public void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeDouble(times[i]);
+				out.writeFloat(values[i]);
+				out.writeBoolean(silent[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads values written by {@link #write(File)}.
+	 * @param file the file to read from.
+	 * @return the detection function.
+	 * @throws IOException if the file can not be read.
+	 */
+	public static OnsetDetectionFunction read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int size = in.readInt();
+			OnsetDetectionFunction function = new OnsetDetectionFunction(Math.max(size, 1));
+			for (int i = 0; i < size; i++) {
+				double time = in.readDouble();
+				float value = in.readFloat();
+				boolean isSilent = in.readBoolean();
+				function.handleDetectionFunction(time, value, isSilent);
+			}
+			return function;
+		}
+	}
+}
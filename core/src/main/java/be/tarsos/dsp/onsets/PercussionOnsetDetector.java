@@ -26,6 +26,7 @@ package be.tarsos.dsp.onsets;
 
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.SpectrumProcessor;
 import be.tarsos.dsp.util.fft.FFT;
 
 /**
@@ -84,6 +85,12 @@ public class PercussionOnsetDetector implements AudioProcessor, OnsetDetector {
 
 	private final FFT fft;
 
+	/**
+	 * The shared spectrum the magnitudes are read from, null if the detector
+	 * transforms the buffers itself.
+	 */
+	private final SpectrumProcessor spectrum;
+
 	private final float[] priorMagnitudes;
 	private final float[] currentMagnitudes;
 
@@ -143,6 +150,7 @@ public class PercussionOnsetDetector implements AudioProcessor, OnsetDetector {
 	 */
 	public PercussionOnsetDetector(float sampleRate, int bufferSize, OnsetHandler handler, double sensitivity, double threshold) {
 		fft = new FFT(bufferSize / 2);
+		spectrum = null;
 		this.threshold = threshold;
 		this.sensitivity = sensitivity;
 		priorMagnitudes = new float[bufferSize / 2];
@@ -151,6 +159,38 @@ public class PercussionOnsetDetector implements AudioProcessor, OnsetDetector {
 		this.sampleRate = sampleRate;
 		
 	}
+
+	/**
+	 * Create a new percussion onset detector which reads the magnitudes of a
+	 * shared {@link SpectrumProcessor} instead of transforming the buffer
+	 * itself. The magnitudes are those of the windowed buffer over its full
+	 * length, so the detector reacts slightly differently than one that
+	 * transforms the buffers itself: the thresholds may need tuning.
+	 * 
+	 * @param spectrum
+	 *            The spectrum processor, added to the dispatcher before this
+	 *            detector.
+	 * @param sampleRate
+	 *            The sample rate in Hz (used to calculate timestamps)
+	 * @param handler
+	 *            An interface implementor to handle percussion onset events.
+	 * @param sensitivity
+	 *            Sensitivity of the peak detector applied to broadband
+	 *            detection function (%). In [0-100].
+	 * @param threshold
+	 *            Energy rise within a frequency bin necessary to count toward
+	 *            broadband total (dB). In [0-20].
+	 */
+	public PercussionOnsetDetector(SpectrumProcessor spectrum, float sampleRate, OnsetHandler handler, double sensitivity, double threshold) {
+		fft = null;
+		this.spectrum = spectrum;
+		this.threshold = threshold;
+		this.sensitivity = sensitivity;
+		priorMagnitudes = new float[spectrum.getSize() / 2];
+		currentMagnitudes = null;
+		this.handler = handler;
+		this.sampleRate = sampleRate;
+	}
 	
 	@Override
 	public boolean process(AudioEvent audioEvent) {
@@ -158,8 +198,14 @@ public class PercussionOnsetDetector implements AudioProcessor, OnsetDetector {
 		this.processedSamples += audioFloatBuffer.length;
 		this.processedSamples -= audioEvent.getOverlap();
 
-		fft.forwardTransform(audioFloatBuffer);
-		fft.modulus(audioFloatBuffer, currentMagnitudes);
+		final float[] currentMagnitudes;
+		if (spectrum == null) {
+			fft.forwardTransform(audioFloatBuffer);
+			fft.modulus(audioFloatBuffer, this.currentMagnitudes);
+			currentMagnitudes = this.currentMagnitudes;
+		} else {
+			currentMagnitudes = spectrum.getMagnitudes();
+		}
 		int binsOverThreshold = 0;
 		for (int i = 0; i < currentMagnitudes.length; i++) {
 			if (priorMagnitudes[i] > 0.f) {
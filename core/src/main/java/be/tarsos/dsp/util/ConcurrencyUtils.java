@@ -59,9 +59,9 @@ package be.tarsos.dsp.util;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Concurrency utilities.
@@ -70,9 +70,15 @@ import java.util.concurrent.ThreadFactory;
  */
 public class ConcurrencyUtils {
     /**
-     * Thread pool.
+     * The executor the transforms run their threads on, see
+     * {@link #setExecutor(ExecutorService)}.
      */
-    private static final ExecutorService THREAD_POOL = Executors.newCachedThreadPool(new CustomThreadFactory(new CustomExceptionHandler()));
+    private static volatile ExecutorService executor = ForkJoinPool.commonPool();
+
+    /**
+     * Whether the current thread runs a task submitted through this class.
+     */
+    private static final ThreadLocal<Boolean> IN_TASK = new ThreadLocal<Boolean>();
 
     private static int THREADS_BEGIN_N_1D_FFT_2THREADS = 8192;
 
@@ -88,29 +94,6 @@ public class ConcurrencyUtils {
 
     }
 
-    private static class CustomExceptionHandler implements Thread.UncaughtExceptionHandler {
-        public void uncaughtException(Thread t, Throwable e) {
-            e.printStackTrace();
-        }
-
-    }
-
-    private static class CustomThreadFactory implements ThreadFactory {
-        private static final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-
-        private final Thread.UncaughtExceptionHandler handler;
-
-        CustomThreadFactory(Thread.UncaughtExceptionHandler handler) {
-            this.handler = handler;
-        }
-
-        public Thread newThread(Runnable r) {
-            Thread t = defaultFactory.newThread(r);
-            t.setUncaughtExceptionHandler(handler);
-            return t;
-        }
-    };
-
     /**
      * Returns the number of available processors.
      * 
@@ -126,7 +109,9 @@ public class ConcurrencyUtils {
      * @return the current number of threads.
      */
     public static int getNumberOfThreads() {
-        return NTHREADS;
+        // A task on the executor does not fan out again: its siblings already
+        // use the cores, and a bounded executor could wait on itself.
+        return IN_TASK.get() == null ? NTHREADS : 1;
     }
 
     /**
@@ -307,8 +292,143 @@ public class ConcurrencyUtils {
      * @param task a Runnable task for execution
      * @return a Future representing the task
      */
-    public static Future<?> submit(Runnable task) {
-        return THREAD_POOL.submit(task);
+    public static Future<?> submit(final Runnable task) {
+        return executor.submit(new Runnable() {
+            public void run() {
+                final Boolean inTask = IN_TASK.get();
+                IN_TASK.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    if (inTask == null) {
+                        IN_TASK.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the executor the tasks run on.
+     * 
+     * @return the executor the tasks run on
+     */
+    public static ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor the tasks run on, e.g. the application's fork-join
+     * pool or a virtual thread per task executor. The previous executor is not
+     * shut down. By default the tasks run on the common fork-join pool.
+     * 
+     * @param newExecutor the executor, null for the common fork-join pool
+     */
+    public static void setExecutor(ExecutorService newExecutor) {
+        executor = newExecutor == null ? ForkJoinPool.commonPool() : newExecutor;
+    }
+
+    /**
+     * Returns the amount of tasks the executor runs at the same time: the
+     * parallelism of a fork-join pool, the core size of a thread pool, the
+     * number of processors otherwise.
+     * 
+     * @return the amount of tasks the executor runs at the same time
+     */
+    public static int getParallelism() {
+        final ExecutorService current = executor;
+        if (current instanceof ForkJoinPool) {
+            return ((ForkJoinPool) current).getParallelism();
+        }
+        if (current instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) current).getCorePoolSize() > 0) {
+            return ((ThreadPoolExecutor) current).getCorePoolSize();
+        }
+        return getNumberOfProcessors();
+    }
+
+    /**
+     * Runs <code>task.run(i)</code> for every i in [0, count) on the
+     * executor, split into at most {@link #getParallelism()} tasks, and waits
+     * for them. The calling thread runs the first part itself.
+     * 
+     * @param count the amount of indices
+     * @param task the task, run concurrently for different indices
+     */
+    public static void invokeForEach(final int count, final IndexedTask task) {
+        final int parts = IN_TASK.get() == null ? Math.min(count, getParallelism()) : 1;
+        if (parts <= 1) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+
+        final Future<?>[] futures = new Future<?>[parts - 1];
+        for (int p = 1; p < parts; p++) {
+            final int from = (int) ((long) count * p / parts);
+            final int to = (int) ((long) count * (p + 1) / parts);
+            futures[p - 1] = submit(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        task.run(i);
+                    }
+                }
+            });
+        }
+
+        final int firstEnd = count / parts;
+        final Boolean inTask = IN_TASK.get();
+        IN_TASK.set(Boolean.TRUE);
+        try {
+            for (int i = 0; i < firstEnd; i++) {
+                task.run(i);
+            }
+        } catch (RuntimeException | Error e) {
+            cancel(futures);
+            throw e;
+        } finally {
+            if (inTask == null) {
+                IN_TASK.remove();
+            }
+        }
+
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the parts which are still queued or running, once the result
+     * can not be used anymore.
+     */
+    private static void cancel(final Future<?>[] futures) {
+        for (final Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A task run for a range of indices by
+     * {@link ConcurrencyUtils#invokeForEach(int, IndexedTask)}.
+     */
+    public interface IndexedTask {
+
+        /**
+         * @param index the index to run the task for
+         */
+        void run(int index);
     }
 
     /**
@@ -24,6 +24,8 @@
 
 package be.tarsos.dsp.util.fft;
 
+import be.tarsos.dsp.util.ConcurrencyUtils;
+
 
 /**
  * Wrapper for calling a hopefully Fast Fourier transform. Makes it easy to
@@ -83,6 +85,26 @@ public class FFT {
 		fft.realForward(data);
 	}
 
+	/**
+	 * Computes the forward DFT of many frames of the fft's size at once, spread
+	 * over the cores. The result is the same as that of
+	 * {@link #forwardTransform(float[])} on every frame.
+	 * 
+	 * @param frames
+	 *            the frames to transform, e.g. all buffers of a track.
+	 */
+	public void forwardTransform(final float[][] frames) {
+		if(windowFunction==null){
+			fft.realForward(frames);
+			return;
+		}
+		ConcurrencyUtils.invokeForEach(frames.length, new ConcurrencyUtils.IndexedTask() {
+			public void run(int index) {
+				forwardTransform(frames[index]);
+			}
+		});
+	}
+
 	/**
 	 * do a complex forward transform
 	 * @param data do a complex forward transform on these complex numbers
@@ -374,6 +374,59 @@ public class FloatFFT {
         }
     }
 
+    /**
+     * Computes the 1D forward DFT of many frames of real data of size n, like
+     * <code>realForward</code> does for each frame. The frames are transformed
+     * at the same time on the executor of {@link ConcurrencyUtils}, every
+     * single frame on one thread.
+     * 
+     * @param frames
+     *            the frames to transform, each of at least n elements
+     */
+    public void realForward(final float[][] frames) {
+        ConcurrencyUtils.invokeForEach(frames.length, new ConcurrencyUtils.IndexedTask() {
+            public void run(int index) {
+                realForward(frames[index], 0);
+            }
+        });
+    }
+
+    /**
+     * Computes the 1D forward DFT of many frames of complex data of size n,
+     * like <code>complexForward</code> does for each frame. The frames are
+     * transformed at the same time on the executor of
+     * {@link ConcurrencyUtils}, every single frame on one thread.
+     * 
+     * @param frames
+     *            the frames to transform, each of at least 2*n elements
+     */
+    public void complexForward(final float[][] frames) {
+        ConcurrencyUtils.invokeForEach(frames.length, new ConcurrencyUtils.IndexedTask() {
+            public void run(int index) {
+                complexForward(frames[index], 0);
+            }
+        });
+    }
+
+    /**
+     * Computes the 1D inverse DFT of many frames of real data of size n, like
+     * <code>realInverse</code> does for each frame. The frames are
+     * transformed at the same time on the executor of
+     * {@link ConcurrencyUtils}, every single frame on one thread.
+     * 
+     * @param frames
+     *            the frames to transform, each of at least n elements
+     * @param scale
+     *            if true then scaling is performed
+     */
+    public void realInverse(final float[][] frames, final boolean scale) {
+        ConcurrencyUtils.invokeForEach(frames.length, new ConcurrencyUtils.IndexedTask() {
+            public void run(int index) {
+                realInverse(frames[index], 0, scale);
+            }
+        });
+    }
+
     /**
      * Computes 1D forward DFT of real data leaving the result in <code>a</code>
      * . This method computes the full real forward transform, i.e. you will get
@@ -28,6 +28,8 @@ public class WaveHeader {
 
     /** Indicates PCM format. */
     public static final short FORMAT_PCM = 1;
+    /** Indicates IEEE float format. */
+    public static final short FORMAT_FLOAT = 3;
     /** Indicates ALAW format. */
     public static final short FORMAT_ALAW = 6;
     /** Indicates ULAW format. */
@@ -158,19 +160,44 @@ public class WaveHeader {
 
     /**
      * Read and initialize a WaveHeader.
+     * Chunks other than fmt and data (e.g. LIST) are skipped, the stream is left at the first sample.
      * @param in {@link java.io.InputStream} to read from.
-     * @return number of bytes consumed.
+     * @return number of bytes consumed, i.e. the offset of the samples in the file.
      * @throws IOException
      */
     public int read(InputStream in) throws IOException {
         /* RIFF header */
         readId(in, "RIFF");
-        
+        readInt(in);    // riff chunk length
         readId(in, "WAVE");
+        int consumed = 12;
+
+        boolean fmtRead = false;
+        while (true) {
+            String id = readId(in);
+            int length = readInt(in);
+            consumed += 8;
+
+            if (id.equals("data")) {
+                if (!fmtRead) throw new IOException("data chunk before fmt chunk");
+                mNumBytes = length;
+                return consumed;
+            }
+
+            // Chunks are padded to an even length.
+            int skip = length + (length & 1);
+            if (id.equals("fmt ")) {
+                if (length < 16) throw new IOException("fmt chunk length less than 16");
+                readFmt(in);
+                fmtRead = true;
+                skip -= 16;
+            }
+            skipFully(in, skip);
+            consumed += length + (length & 1);
+        }
+    }
 
-        /* fmt chunk */
-        readId(in, "fmt ");
-        if (16 != readInt(in)) throw new IOException("fmt chunk length not 16");
+    private void readFmt(InputStream in) throws IOException {
         mFormat = readShort(in);
         mNumChannels = readShort(in);
         mSampleRate = readInt(in);
@@ -183,12 +210,28 @@ public class WaveHeader {
         if (blockAlign != mNumChannels * mBitsPerSample / 8) {
             throw new IOException("fmt.BlockAlign field inconsistent");
         }
+    }
 
-        /* data chunk */
-        readId(in, "data");
-        mNumBytes = readInt(in);
+    private static String readId(InputStream in) throws IOException {
+        char[] id = new char[4];
+        for (int i = 0; i < id.length; i++) {
+            int c = in.read();
+            if (c < 0) throw new IOException("data chunk not present");
+            id[i] = (char) c;
+        }
+        return new String(id);
+    }
 
-        return HEADER_LENGTH;
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                // skip may return 0 before the end, read tells them apart.
+                if (in.read() < 0) throw new IOException("unexpected end of file");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
     }
 
     private static void readId(InputStream in, String id) throws IOException {
@@ -2,24 +2,59 @@ package de.yugata.easy.edits.audio;
 
 
 import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.beatroot.BeatRootOnsetEventHandler;
-import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+import be.tarsos.dsp.beatroot.OnlineBeatRootOnsetEventHandler;
 import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
 import be.tarsos.dsp.onsets.OnsetHandler;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 public class AudioAnalyser {
 
+    /**
+     * The buffer's size and overlap between buffers. Just hardcoded.
+     */
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    /**
+     * Analyses the tracks which are longer than one of its chunks on all cores.
+     */
+    private static final ParallelOnsetDetector PARALLEL_DETECTOR = new ParallelOnsetDetector(BUFFER_SIZE, BUFFER_OVERLAP);
+
+    private static final long PARALLEL_MIN_SAMPLES = 1024L * (BUFFER_SIZE - BUFFER_OVERLAP);
+
+    /**
+     * Whether the beats are tracked in parallel. Only lists with many tempo hypotheses are, the beats are the same.
+     */
+    private static final boolean PARALLEL_BEAT_TRACKING = true;
+
+    /**
+     * The computed detection functions, keyed by the file's path, size & modification time. In access order,
+     * the least recently used ones are dropped once they hold more than {@link #MAX_CACHED_BUFFERS} values.
+     * Dropped ones are read from the working directory again, if there is one.
+     */
+    private static final LinkedHashMap<String, OnsetDetectionFunction> DETECTION_FUNCTIONS = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The maximum amount of buffers (a float, a double & a boolean each) kept in memory, about 6 hours of audio at 44.1kHz.
+     */
+    private static final long MAX_CACHED_BUFFERS = 1L << 20;
+
+    private static long cachedBuffers;
+
+    /**
+     * The directory the detection functions are stored in, may be null.
+     */
+    private static File workingDirectory;
+
     public static List<Double> analyseBeats(final String audioInput, final double peakThreshold, final double msThreshold) {
         final List<Double> timeBetweenBeats = new ArrayList<>();
 
@@ -48,41 +83,245 @@ public class AudioAnalyser {
         return stamps;
     }
 
+    /**
+     * @param audioInput    path to the audio file.
+     * @param peakThreshold the threshold when a peak is accepted.
+     * @param msThreshold   the minimum interval between onsets in ms.
+     * @return the file's beats, null if the file could not be read.
+     */
+    public static BeatGrid analyseBeatGrid(final String audioInput, final double peakThreshold, final double msThreshold) {
+        validatePath(audioInput);
+        final OnsetDetectionFunction detectionFunction = getDetectionFunction(audioInput);
+        if (detectionFunction == null)
+            return null;
+
+        final double[][] beats = {new double[256]};
+        final int[] size = {0};
+
+        trackBeats(detectionFunction, peakThreshold, msThreshold, (timeStamp, salience) -> {
+            if (size[0] == beats[0].length) {
+                beats[0] = Arrays.copyOf(beats[0], size[0] * 2);
+            }
+            beats[0][size[0]++] = timeStamp;
+        });
+        return new BeatGrid(Arrays.copyOf(beats[0], size[0]));
+    }
+
+    /**
+     * @return a key for everything the beats depend on besides the audio itself.
+     */
+    static String parameterKey(final double peakThreshold, final double msThreshold) {
+        return peakThreshold + ":" + msThreshold + ":" + BUFFER_SIZE + ":" + BUFFER_OVERLAP;
+    }
+
     public static void analyseBeats(final String audioInput, final double peakThreshold, final double msThreshold, final OnsetHandler tracker) {
         validatePath(audioInput);
 
+        final OnsetDetectionFunction detectionFunction = getDetectionFunction(audioInput);
+        if (detectionFunction == null)
+            return;
 
-        // This limits us to AIFF, AU and WAV files only, however, it eliminates the need for the ffmpeg grabber, which reduces code complexity.
-        try (final AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new File(audioInput))) {
-            final AudioFormat audioFormat = audioInputStream.getFormat();
+        trackBeats(detectionFunction, peakThreshold, msThreshold, tracker);
+    }
 
+    private static void trackBeats(final OnsetDetectionFunction detectionFunction, final double peakThreshold, final double msThreshold, final OnsetHandler tracker) {
+        // Only the peak picking & the beat tracking depend on the thresholds, the detection function is reused.
+        final BeatRootOnsetEventHandler handler = new BeatRootOnsetEventHandler();
+        detectionFunction.pickOnsets(peakThreshold, msThreshold / 1000, handler);
+        handler.trackBeats(tracker, PARALLEL_BEAT_TRACKING);
+    }
 
-            // Sample rate, the buffer's size and overlap between buffers
-            final float sampleRate = audioFormat.getSampleRate(); //We get the sample rate from the file
-            final int bufferSize = 2048, // Just hardcoded
-                    bufferOverlap = 1024;
+    /**
+     * Sets the directory the detection functions are stored in, so later sessions do not have to analyse the same file again.
+     *
+     * @param workingDirectory the directory, null to keep the detection functions in memory only.
+     */
+    public static void setWorkingDirectory(final File workingDirectory) {
+        AudioAnalyser.workingDirectory = workingDirectory;
+    }
 
-            // Don't continue from here, just abort.
-            if (sampleRate == -1)
-                throw new RuntimeException("Samplerate cannot be negative.");
+    /**
+     * Returns the onset detection function of the audio file. The function is computed once per file (keyed by the path, size & modification time),
+     * kept in memory & stored in the working directory if there is one.
+     *
+     * @param audioInput path to the audio file.
+     * @return the file's detection function, null if the file could not be read.
+     */
+    public static OnsetDetectionFunction getDetectionFunction(final String audioInput) {
+        final OnsetDetectionFunction loaded = loadDetectionFunction(audioInput);
+        if (loaded != null)
+            return loaded;
 
+        final OnsetDetectionFunction detectionFunction = computeDetectionFunction(audioInput);
+        if (detectionFunction != null) {
+            storeDetectionFunction(audioInput, detectionFunction);
+        }
+        return detectionFunction;
+    }
 
-            //
-            final JVMAudioInputStream audioStream = new JVMAudioInputStream(audioInputStream);
-            final AudioDispatcher dispatcher = new AudioDispatcher(audioStream, bufferSize, bufferOverlap);
+    /**
+     * Tracks the beats while the file is decoded: the provisional beats are reported as soon as a few seconds of the file have been analysed,
+     * the final beats once the whole file has been. The final beats are the same as the ones of {@link #analyseBeats(String, double, double, OnsetHandler)}.
+     * <br>
+     * If the file's detection function has been computed before, there is nothing to wait for & only the final beats are reported.
+     * <br>
+     * Interrupting the calling thread stops the analysis: the decoding stops, the partial detection function is not stored & no more beats are reported.
+     *
+     * @param audioInput       path to the audio file.
+     * @param peakThreshold    the threshold when a peak is accepted.
+     * @param msThreshold      the minimum interval between onsets in ms.
+     * @param provisionalBeats receives the provisional beats, in order.
+     * @param tracker          receives the final beats.
+     */
+    public static void analyseBeatsOnline(final String audioInput, final double peakThreshold, final double msThreshold,
+                                          final OnsetHandler provisionalBeats, final OnsetHandler tracker) {
+        validatePath(audioInput);
 
+        final OnsetDetectionFunction loaded = loadDetectionFunction(audioInput);
+        if (loaded != null) {
+            if (!Thread.currentThread().isInterrupted()) {
+                trackBeats(loaded, peakThreshold, msThreshold, tracker);
+            }
+            return;
+        }
 
-            //TODO: Setting
-            final ComplexOnsetDetector detector = new ComplexOnsetDetector(bufferSize, peakThreshold, msThreshold / 1000);
-            final BeatRootOnsetEventHandler handler = new BeatRootOnsetEventHandler();
+        final OnlineBeatRootOnsetEventHandler handler = new OnlineBeatRootOnsetEventHandler(provisionalBeats);
+
+        try (final FFmpegAudioInputStream audioStream = new FFmpegAudioInputStream(audioInput)) {
+            final AudioDispatcher dispatcher = new AudioDispatcher(audioStream, BUFFER_SIZE, BUFFER_OVERLAP);
+
+            // The detector picks the onsets with the thresholds while it goes, the same ones the detection function replays later.
+            final ComplexOnsetDetector detector = new ComplexOnsetDetector(BUFFER_SIZE, peakThreshold, msThreshold / 1000);
+            final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
             detector.setHandler(handler);
+            detector.setDetectionFunctionHandler(detectionFunction);
+            // Stops decoding once the thread is interrupted, before the detector sees the buffer.
+            dispatcher.addAudioProcessor(new AudioProcessor() {
+                @Override
+                public boolean process(AudioEvent audioEvent) {
+                    if (!Thread.currentThread().isInterrupted())
+                        return true;
+                    dispatcher.stop();
+                    return false;
+                }
+
+                @Override
+                public void processingFinished() {
+                }
+            });
             dispatcher.addAudioProcessor(detector);
             dispatcher.run();
 
-            handler.trackBeats(tracker);
+            if (Thread.currentThread().isInterrupted())
+                return;
+            storeDetectionFunction(audioInput, detectionFunction);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        handler.trackBeats(tracker, PARALLEL_BEAT_TRACKING);
+    }
+
+    private static String detectionFunctionKey(final String audioInput) {
+        final File inputFile = new File(audioInput);
+        return inputFile.getAbsolutePath() + ":" + inputFile.length() + ":" + inputFile.lastModified() + ":" + BUFFER_SIZE + ":" + BUFFER_OVERLAP;
+    }
+
+    private static File storedFile(final String key) {
+        return workingDirectory == null ? null : new File(workingDirectory, "odf_" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".bin");
+    }
+
+    /**
+     * @return the detection function kept in memory or stored in the working directory, null if it has not been computed yet.
+     */
+    private static OnsetDetectionFunction loadDetectionFunction(final String audioInput) {
+        final String key = detectionFunctionKey(audioInput);
+
+        synchronized (DETECTION_FUNCTIONS) {
+            final OnsetDetectionFunction cached = DETECTION_FUNCTIONS.get(key);
+            if (cached != null)
+                return cached;
+        }
+
+        final File storedFile = storedFile(key);
+        if (storedFile != null && storedFile.exists()) {
+            try {
+                final OnsetDetectionFunction detectionFunction = OnsetDetectionFunction.read(storedFile);
+                cacheDetectionFunction(key, detectionFunction);
+                return detectionFunction;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private static void storeDetectionFunction(final String audioInput, final OnsetDetectionFunction detectionFunction) {
+        final String key = detectionFunctionKey(audioInput);
+        final File storedFile = storedFile(key);
+
+        if (storedFile != null) {
+            // Written next to the stored file & moved, so a concurrent analysis never reads half a detection function.
+            final File temporary = new File(storedFile.getParentFile(), storedFile.getName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                detectionFunction.write(temporary);
+                Files.move(temporary.toPath(), storedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                temporary.delete();
+                e.printStackTrace();
+            }
+        }
+        cacheDetectionFunction(key, detectionFunction);
+    }
+
+    /**
+     * Keeps the detection function in memory & drops the least recently used ones beyond the cap.
+     * A detection function larger than the cap on its own is not kept.
+     */
+    private static void cacheDetectionFunction(final String key, final OnsetDetectionFunction detectionFunction) {
+        synchronized (DETECTION_FUNCTIONS) {
+            final OnsetDetectionFunction previous = DETECTION_FUNCTIONS.remove(key);
+            if (previous != null) {
+                cachedBuffers -= previous.size();
+            }
+            if (detectionFunction.size() > MAX_CACHED_BUFFERS)
+                return;
+
+            DETECTION_FUNCTIONS.put(key, detectionFunction);
+            cachedBuffers += detectionFunction.size();
+
+            final Iterator<OnsetDetectionFunction> iterator = DETECTION_FUNCTIONS.values().iterator();
+            while (cachedBuffers > MAX_CACHED_BUFFERS && iterator.hasNext()) {
+                cachedBuffers -= iterator.next().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static OnsetDetectionFunction computeDetectionFunction(final String audioInput) {
+        // Any container ffmpeg can read is decoded straight into the dispatcher, at the file's own sample rate.
+        try (final FFmpegAudioInputStream audioStream = new FFmpegAudioInputStream(audioInput)) {
+            // Long tracks (or ones of unknown length) are split into chunks, the result is the same as the sequential one.
+            final long frameLength = audioStream.getFrameLength();
+            if (frameLength < 0 || frameLength > PARALLEL_MIN_SAMPLES)
+                return PARALLEL_DETECTOR.detect(audioStream);
+
+            final AudioDispatcher dispatcher = new AudioDispatcher(audioStream, BUFFER_SIZE, BUFFER_OVERLAP);
+
+            // The detector's own peak picking is not needed, the onsets are picked from the detection function.
+            final ComplexOnsetDetector detector = new ComplexOnsetDetector(BUFFER_SIZE);
+            final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
+            detector.setHandler((time, salience) -> {
+            });
+            detector.setDetectionFunctionHandler(detectionFunction);
+            dispatcher.addAudioProcessor(detector);
+            dispatcher.run();
 
-        } catch (UnsupportedAudioFileException | IOException e) {
+            return detectionFunction;
+        } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
     }
 
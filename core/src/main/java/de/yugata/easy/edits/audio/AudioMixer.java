@@ -0,0 +1,381 @@
+package de.yugata.easy.edits.audio;
+
+import org.bytedeco.javacv.FFmpegFrameFilter;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Mixes any number of timed audio sources into one planar float stream.
+ * <br>
+ * The tracks are sorted by their start once & swept block by block: a track is opened once the sweep reaches its start
+ * and closed once the sweep passes its end, so only the tracks overlapping the current block are read.
+ * Every block is summed into a slot of a preallocated ring buffer, with the track's gain & fades applied, and handed to the {@link Sink}.
+ * Neither the sweep nor the mixing allocate per block.
+ */
+public class AudioMixer {
+
+    /**
+     * Reads the samples of a track, sequentially from the track's start.
+     */
+    public interface Source {
+
+        /**
+         * Reads up to length samples per channel into the planes.
+         *
+         * @param planes one array per output channel.
+         * @param offset the position in the planes to write to.
+         * @param length the maximum amount of samples to read.
+         * @return the amount of samples read, -1 if the source is exhausted.
+         */
+        int read(final float[][] planes, final int offset, final int length) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Opens a track's source, called once the sweep reaches the track.
+     */
+    public interface SourceFactory {
+        Source open() throws IOException;
+    }
+
+    /**
+     * Receives the mixed blocks. The buffers are reused for later blocks, they must be consumed before returning.
+     */
+    public interface Sink {
+        void write(final FloatBuffer[] planes, final int samples) throws IOException;
+    }
+
+    /**
+     * Amount of ring buffer slots, one slot holds one block per channel.
+     */
+    private static final int RING_SLOTS = 4;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int blockSize;
+
+    private final List<Track> tracks = new ArrayList<>();
+
+    public AudioMixer(final int sampleRate, final int channels, final int blockSize) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.blockSize = blockSize;
+    }
+
+    public AudioMixer(final int sampleRate, final int channels) {
+        this(sampleRate, channels, 1024);
+    }
+
+    private long toSamples(final long micros) {
+        return micros * sampleRate / 1000000L;
+    }
+
+    /**
+     * Adds a track to the mix.
+     *
+     * @param start   the track's start in the mix, in microseconds.
+     * @param length  the track's length, in microseconds.
+     * @param gain    the track's linear gain.
+     * @param fadeIn  the length of the linear fade in, in microseconds.
+     * @param fadeOut the length of the linear fade out, in microseconds.
+     * @param factory opens the track's source.
+     */
+    public void addTrack(final long start, final long length, final float gain, final long fadeIn, final long fadeOut, final SourceFactory factory) {
+        if (length <= 0)
+            return;
+
+        final long startSample = toSamples(start);
+        tracks.add(new Track(startSample, startSample + toSamples(length), gain, toSamples(fadeIn), toSamples(fadeOut), factory));
+    }
+
+    /**
+     * Adds an audio clip to the mix, the clip is placed at its start in the edit.
+     *
+     * @see #addTrack(long, long, float, long, long, SourceFactory)
+     */
+    public void addClip(final AudioClip clip, final float gain, final long fadeIn, final long fadeOut, final SourceFactory factory) {
+        addTrack(clip.getStart() * 1000L, clip.getLength(), gain, fadeIn, fadeOut, factory);
+    }
+
+    /**
+     * @return the end of the last track, in microseconds.
+     */
+    public long getLength() {
+        long end = 0;
+        for (final Track track : tracks) {
+            end = Math.max(end, track.end);
+        }
+        return end * 1000000L / sampleRate;
+    }
+
+    /**
+     * Mixes all tracks from the start of the mix up to the end of the last track. Gaps between the tracks are written as silence.
+     *
+     * @param sink receives the mixed blocks.
+     */
+    public void mix(final Sink sink) throws IOException {
+        tracks.sort(Comparator.comparingLong(track -> track.start));
+
+        long end = 0;
+        for (final Track track : tracks) {
+            end = Math.max(end, track.end);
+        }
+
+        final float[][] ring = new float[channels][RING_SLOTS * blockSize];
+        final float[][] scratch = new float[channels][blockSize];
+        final float[] envelope = new float[blockSize];
+
+        // One view per slot & channel, the position & limit select the block.
+        final FloatBuffer[][] views = new FloatBuffer[RING_SLOTS][channels];
+        for (int slot = 0; slot < RING_SLOTS; slot++) {
+            for (int c = 0; c < channels; c++) {
+                views[slot][c] = FloatBuffer.wrap(ring[c]);
+            }
+        }
+
+        final Track[] active = new Track[tracks.size()];
+        int activeCount = 0;
+        int next = 0;
+        int slot = 0;
+
+        try {
+            for (long blockStart = 0; blockStart < end; blockStart += blockSize) {
+                final int length = (int) Math.min(blockSize, end - blockStart);
+                final long blockEnd = blockStart + length;
+                final int offset = slot * blockSize;
+
+                for (int c = 0; c < channels; c++) {
+                    Arrays.fill(ring[c], offset, offset + length, 0f);
+                }
+
+                // Open the tracks which start in this block.
+                while (next < tracks.size() && tracks.get(next).start < blockEnd) {
+                    final Track track = tracks.get(next++);
+                    track.open();
+                    active[activeCount++] = track;
+                }
+
+                for (int i = 0; i < activeCount; ) {
+                    final Track track = active[i];
+                    mixTrack(track, blockStart, blockEnd, ring, offset, scratch, envelope);
+
+                    // Close the tracks which end in this block.
+                    if (track.exhausted || track.end <= blockEnd) {
+                        track.close();
+                        active[i] = active[--activeCount];
+                        active[activeCount] = null;
+                    } else {
+                        i++;
+                    }
+                }
+
+                for (int c = 0; c < channels; c++) {
+                    final float[] plane = ring[c];
+                    for (int i = offset; i < offset + length; i++) {
+                        plane[i] = Math.max(-1f, Math.min(1f, plane[i]));
+                    }
+                    views[slot][c].limit(offset + length).position(offset);
+                }
+
+                sink.write(views[slot], length);
+                slot = (slot + 1) % RING_SLOTS;
+            }
+        } finally {
+            for (int i = 0; i < activeCount; i++) {
+                active[i].close();
+            }
+        }
+    }
+
+    private void mixTrack(final Track track, final long blockStart, final long blockEnd, final float[][] ring, final int offset, final float[][] scratch, final float[] envelope) throws IOException {
+        final long from = Math.max(blockStart, track.start);
+        final long to = Math.min(blockEnd, track.end);
+
+        int target = offset + (int) (from - blockStart);
+        int remaining = (int) (to - from);
+
+        while (remaining > 0) {
+            final int read = track.source.read(scratch, 0, remaining);
+            if (read < 0) {
+                track.exhausted = true;
+                return;
+            }
+
+            track.envelope(envelope, read);
+
+            for (int c = 0; c < channels; c++) {
+                final float[] plane = ring[c];
+                final float[] samples = scratch[c];
+                for (int i = 0; i < read; i++) {
+                    plane[target + i] += samples[i] * envelope[i];
+                }
+            }
+
+            track.position += read;
+            target += read;
+            remaining -= read;
+        }
+    }
+
+    /**
+     * @param recorder the started recorder, with a planar float sample format.
+     * @return a sink recording the mixed blocks, the recorder copies the blocks into its own buffers.
+     */
+    public Sink recorderSink(final FFmpegFrameRecorder recorder) {
+        return (planes, samples) -> recorder.recordSamples(sampleRate, channels, planes);
+    }
+
+    private static class Track {
+
+        private final long start, end;
+        private final float gain;
+        private final long fadeIn, fadeOut;
+        private final SourceFactory factory;
+
+        private Source source;
+
+        /**
+         * The amount of samples read from the source.
+         */
+        private long position;
+
+        private boolean exhausted;
+
+        private Track(final long start, final long end, final float gain, final long fadeIn, final long fadeOut, final SourceFactory factory) {
+            this.start = start;
+            this.end = end;
+            this.gain = gain;
+            this.fadeIn = fadeIn;
+            this.fadeOut = fadeOut;
+            this.factory = factory;
+        }
+
+        private void open() throws IOException {
+            this.source = factory.open();
+        }
+
+        private void close() throws IOException {
+            if (source != null) {
+                source.close();
+                this.source = null;
+            }
+        }
+
+        /**
+         * Fills the envelope with the gain & fades of the next samples.
+         */
+        private void envelope(final float[] envelope, final int length) {
+            final long trackLength = end - start;
+
+            for (int i = 0; i < length; i++) {
+                final long sample = position + i;
+                float factor = gain;
+
+                if (sample < fadeIn) {
+                    factor *= (float) sample / fadeIn;
+                }
+
+                final long remaining = trackLength - sample;
+                if (remaining < fadeOut) {
+                    factor *= (float) remaining / fadeOut;
+                }
+                envelope[i] = factor;
+            }
+        }
+    }
+
+    /**
+     * Reads the audio frames of a grabber, optionally through a filter.
+     * The grabber & the filter have to produce planar float samples at the mixer's sample rate.
+     */
+    public static class GrabberSource implements Source {
+
+        private final FFmpegFrameGrabber grabber;
+        private final FFmpegFrameFilter filter;
+        private final AutoCloseable release;
+
+        private Frame frame;
+        private int frameOffset, frameSamples;
+
+        /**
+         * @param grabber the started grabber, positioned at the track's first sample.
+         * @param filter  optional: the filter the frames are pushed through, may be null.
+         * @param release called once the track has been mixed, e.g. returns the grabber. May be null.
+         */
+        public GrabberSource(final FFmpegFrameGrabber grabber, final FFmpegFrameFilter filter, final AutoCloseable release) {
+            this.grabber = grabber;
+            this.filter = filter;
+            this.release = release;
+        }
+
+        private Frame nextFrame() throws IOException {
+            if (filter == null)
+                return grabber.grabSamples();
+
+            Frame filtered;
+            while ((filtered = filter.pull()) == null) {
+                final Frame grabbed = grabber.grabSamples();
+                if (grabbed == null)
+                    return null;
+
+                filter.push(grabbed);
+            }
+            return filtered;
+        }
+
+        @Override
+        public int read(final float[][] planes, final int offset, final int length) throws IOException {
+            int read = 0;
+
+            while (read < length) {
+                if (frame == null || frameOffset >= frameSamples) {
+                    this.frame = nextFrame();
+                    if (frame == null)
+                        return read == 0 ? -1 : read;
+
+                    this.frameOffset = 0;
+                    this.frameSamples = frame.samples == null ? 0 : frame.samples[0].limit();
+                    continue;
+                }
+
+                final int count = Math.min(length - read, frameSamples - frameOffset);
+
+                for (int c = 0; c < planes.length; c++) {
+                    // Mono sources are spread over all channels.
+                    final FloatBuffer samples = (FloatBuffer) frame.samples[Math.min(c, frame.samples.length - 1)];
+                    final float[] plane = planes[c];
+                    for (int i = 0; i < count; i++) {
+                        plane[offset + read + i] = samples.get(frameOffset + i);
+                    }
+                }
+
+                frameOffset += count;
+                read += count;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.frame = null;
+            if (release != null) {
+                try {
+                    release.close();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package de.yugata.easy.edits.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The beats of an audio file, in seconds & in order, kept in a primitive array.
+ * <br>
+ * Stored as a small binary file: a header & one double per beat.
+ */
+public class BeatGrid {
+
+    private static final int MAGIC = 0x42454154; // "BEAT"
+    private static final int VERSION = 1;
+
+    private final double[] beats;
+
+    /**
+     * @param beats the beat times in seconds, in order. The array is not copied.
+     */
+    public BeatGrid(final double[] beats) {
+        this.beats = beats;
+    }
+
+    /**
+     * @return the amount of beats.
+     */
+    public int size() {
+        return beats.length;
+    }
+
+    /**
+     * @param index the index of the beat.
+     * @return the time of the beat, in seconds.
+     */
+    public double getTime(final int index) {
+        return beats[index];
+    }
+
+    /**
+     * @return a copy of the beat times, in seconds.
+     */
+    public double[] toArray() {
+        return beats.clone();
+    }
+
+    /**
+     * @return the beat times in milliseconds, like {@link AudioAnalyser#analyseStamps(String, double, double)} returns them.
+     */
+    public List<Double> toStamps() {
+        final List<Double> stamps = new ArrayList<>(beats.length);
+        for (final double beat : beats) {
+            stamps.add(beat * 1000);
+        }
+        return stamps;
+    }
+
+    /**
+     * @return the time passed since the last beat in milliseconds, like {@link AudioAnalyser#analyseBeats(String, double, double)} returns them.
+     */
+    public List<Double> toTimeBetweenBeats() {
+        final List<Double> timeBetweenBeats = new ArrayList<>(beats.length);
+        double last = 0;
+        for (final double beat : beats) {
+            final double time = beat * 1000;
+            timeBetweenBeats.add(time - last);
+            last = time;
+        }
+        return timeBetweenBeats;
+    }
+
+    /**
+     * Writes the grid to a file.
+     *
+     * @param file the file to write to.
+     */
+    public void write(final File file) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(beats.length);
+            for (final double beat : beats) {
+                out.writeDouble(beat);
+            }
+        }
+    }
+
+    /**
+     * Reads a grid written by {@link #write(File)}.
+     *
+     * @param file the file to read from.
+     * @return the grid.
+     */
+    public static BeatGrid read(final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a beat grid of version " + VERSION + ": " + file);
+
+            final double[] beats = new double[in.readInt()];
+            for (int i = 0; i < beats.length; i++) {
+                beats[i] = in.readDouble();
+            }
+            return new BeatGrid(beats);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof BeatGrid))
+            return false;
+        return Arrays.equals(beats, ((BeatGrid) o).beats);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(beats);
+    }
+}
@@ -0,0 +1,264 @@
+package de.yugata.easy.edits.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyses the beats of many audio files ahead of time, e.g. a whole music library before an editing session.
+ * <br>
+ * The files are analysed on a bounded pool of workers. Every grid is stored in the store directory under the sha-256 hash of the file's content
+ * & a key of the analysis parameters, so a renamed or copied file is not analysed again, an edited one is. Repeated runs read the grids from the store.
+ */
+public class BeatGridService implements AutoCloseable {
+
+    /**
+     * The suffix of the stored grids.
+     */
+    public static final String FILE_SUFFIX = ".beats";
+
+    private final File storeDirectory;
+    private final ExecutorService workers;
+
+    /**
+     * The content hashes of the files seen so far, keyed by the file's path, size & modification time, so unchanged files are not hashed again.
+     */
+    private final Map<String, String> contentHashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param storeDirectory the directory the grids are stored in, created if it does not exist.
+     * @param workers        the amount of files analysed at the same time.
+     */
+    public BeatGridService(final File storeDirectory, final int workers) throws IOException {
+        this.storeDirectory = storeDirectory;
+        Files.createDirectories(storeDirectory.toPath());
+
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "beat-grid-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Analyses as many files at the same time as there are cores.
+     *
+     * @see #BeatGridService(File, int)
+     */
+    public BeatGridService(final File storeDirectory) throws IOException {
+        this(storeDirectory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the beat grids of the files, from the store or analysed, & waits until all of them are done.
+     * A file which cannot be read does not fail the others, its result carries the error.
+     *
+     * @param files         the audio files.
+     * @param peakThreshold the threshold when a peak is accepted.
+     * @param msThreshold   the minimum interval between onsets in ms.
+     * @param listener      notified on the worker threads whenever a file is done, may be null.
+     * @return the results in the order of the files.
+     */
+    public List<Result> analyse(final Collection<File> files, final double peakThreshold, final double msThreshold, final ProgressListener listener) throws IOException {
+        final String parameterKey = UUID.nameUUIDFromBytes(AudioAnalyser.parameterKey(peakThreshold, msThreshold).getBytes(StandardCharsets.UTF_8)).toString();
+        final AtomicInteger completed = new AtomicInteger();
+        final int total = files.size();
+
+        final List<Future<Result>> futures = new ArrayList<>();
+        for (final File file : files) {
+            futures.add(workers.submit(() -> {
+                final Result result = analyse(file, parameterKey, peakThreshold, msThreshold);
+                if (listener != null) {
+                    listener.fileDone(result, completed.incrementAndGet(), total);
+                }
+                return result;
+            }));
+        }
+
+        final List<Result> results = new ArrayList<>(total);
+        try {
+            for (final Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IOException("Analysing a file failed.", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * @param file          the audio file.
+     * @param peakThreshold the threshold when a peak is accepted.
+     * @param msThreshold   the minimum interval between onsets in ms.
+     * @return the file's grid from the store, null if it has not been analysed with the parameters.
+     */
+    public BeatGrid getStored(final File file, final double peakThreshold, final double msThreshold) throws IOException {
+        final String parameterKey = UUID.nameUUIDFromBytes(AudioAnalyser.parameterKey(peakThreshold, msThreshold).getBytes(StandardCharsets.UTF_8)).toString();
+        final File stored = storedFile(contentHash(file), parameterKey);
+        return stored.isFile() ? BeatGrid.read(stored) : null;
+    }
+
+    private Result analyse(final File file, final String parameterKey, final double peakThreshold, final double msThreshold) {
+        final long start = System.nanoTime();
+
+        try {
+            final File stored = storedFile(contentHash(file), parameterKey);
+
+            if (stored.isFile()) {
+                try {
+                    return new Result(file, BeatGrid.read(stored), true, System.nanoTime() - start, null);
+                } catch (IOException e) {
+                    // Damaged, analysed again.
+                    e.printStackTrace();
+                }
+            }
+
+            final BeatGrid grid = AudioAnalyser.analyseBeatGrid(file.getAbsolutePath(), peakThreshold, msThreshold);
+            if (grid == null)
+                throw new IOException("The file could not be decoded: " + file);
+
+            // Written next to the grid & moved, so a concurrent reader never sees half a grid.
+            final File temporary = new File(storeDirectory, stored.getName() + "." + UUID.randomUUID() + ".tmp");
+            grid.write(temporary);
+            Files.move(temporary.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return new Result(file, grid, false, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file, null, false, System.nanoTime() - start, e);
+        }
+    }
+
+    private File storedFile(final String contentHash, final String parameterKey) {
+        return new File(storeDirectory, contentHash + "_" + parameterKey + FILE_SUFFIX);
+    }
+
+    /**
+     * @return the hex encoded sha-256 hash of the file's content.
+     */
+    private String contentHash(final File file) throws IOException {
+        final String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        final String cached = contentHashes.get(key);
+        if (cached != null)
+            return cached;
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (final InputStream in = Files.newInputStream(file.toPath())) {
+            final byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        final StringBuilder hash = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        contentHashes.put(key, hash.toString());
+        return hash.toString();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Notified whenever a file is done.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param result    the file's result.
+         * @param completed the amount of files done so far, including this one.
+         * @param total     the amount of files.
+         */
+        void fileDone(Result result, int completed, int total);
+    }
+
+    /**
+     * The outcome of a single file.
+     */
+    public static class Result {
+
+        private final File file;
+        private final BeatGrid grid;
+        private final boolean stored;
+        private final long nanos;
+        private final Exception error;
+
+        private Result(final File file, final BeatGrid grid, final boolean stored, final long nanos, final Exception error) {
+            this.file = file;
+            this.grid = grid;
+            this.stored = stored;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the grid, null if the file could not be analysed.
+         */
+        public BeatGrid getGrid() {
+            return grid;
+        }
+
+        /**
+         * @return whether the grid was read from the store instead of being analysed.
+         */
+        public boolean isStored() {
+            return stored;
+        }
+
+        /**
+         * @return the time the file took, in milliseconds.
+         */
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        /**
+         * @return why the file could not be analysed, null if it was.
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + ": " + (error != null ? "failed (" + error + ")"
+                    : grid.size() + " beats, " + (stored ? "stored" : "analysed") + String.format(" in %.1fms", getMillis()));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.yugata.easy.edits.audio;
+
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_SAMPLE_FMT_FLT;
+
+/**
+ * Decodes any container ffmpeg can read (mp3, flac, m4a, the audio of a video...) into a mono stream of 32 bit float samples,
+ * which can be fed straight into an {@link be.tarsos.dsp.AudioDispatcher}.
+ * <br>
+ * The samples are decoded, down-mixed & resampled by the grabber while the dispatcher reads, there is no temporary wav file & no external process.
+ */
+public class FFmpegAudioInputStream implements TarsosDSPAudioInputStream, AutoCloseable {
+
+    private static final int BYTES_PER_SAMPLE = Float.BYTES;
+
+    private final FFmpegFrameGrabber grabber;
+    private final TarsosDSPAudioFormat format;
+    private final long frameLength;
+
+    /**
+     * The samples of the last grabbed frame which have not been read yet.
+     */
+    private FloatBuffer pending;
+
+    /**
+     * @param source     path to the file.
+     * @param sampleRate the sample rate to resample to, zero or less to keep the source's sample rate.
+     * @throws FrameGrabber.Exception if the source cannot be opened or has no audio stream.
+     */
+    public FFmpegAudioInputStream(final String source, final int sampleRate) throws FrameGrabber.Exception {
+        this.grabber = new FFmpegFrameGrabber(source);
+        grabber.setAudioChannels(1);
+        grabber.setSampleMode(FrameGrabber.SampleMode.FLOAT);
+        grabber.setSampleFormat(AV_SAMPLE_FMT_FLT);
+
+        if (sampleRate > 0) {
+            grabber.setSampleRate(sampleRate);
+        }
+        grabber.start();
+
+        if (!grabber.hasAudio()) {
+            grabber.close();
+            throw new FrameGrabber.Exception("The source does not contain an audio stream: " + source);
+        }
+
+        final int rate = grabber.getSampleRate();
+        this.format = new TarsosDSPAudioFormat(TarsosDSPAudioFloatConverter.PCM_FLOAT, rate, BYTES_PER_SAMPLE * 8, 1, BYTES_PER_SAMPLE, rate, false);
+        this.frameLength = grabber.getLengthInTime() <= 0 ? -1 : grabber.getLengthInTime() * rate / 1000000L;
+    }
+
+    /**
+     * Decodes the source at its own sample rate.
+     *
+     * @see #FFmpegAudioInputStream(String, int)
+     */
+    public FFmpegAudioInputStream(final String source) throws FrameGrabber.Exception {
+        this(source, 0);
+    }
+
+    /**
+     * @return whether there are samples to read, grabs the next frame if the last one has been read.
+     */
+    private boolean fill() throws IOException {
+        while (pending == null || !pending.hasRemaining()) {
+            final Frame frame = grabber.grabSamples();
+            if (frame == null) {
+                this.pending = null;
+                return false;
+            }
+
+            if (frame.samples != null) {
+                this.pending = (FloatBuffer) frame.samples[0];
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int samples = len / BYTES_PER_SAMPLE;
+        if (samples == 0)
+            return 0;
+
+        final FloatBuffer target = ByteBuffer.wrap(b, off, samples * BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        while (target.hasRemaining() && fill()) {
+            final int count = Math.min(target.remaining(), pending.remaining());
+            final int limit = pending.limit();
+
+            pending.limit(pending.position() + count);
+            target.put(pending);
+            pending.limit(limit);
+        }
+
+        final int read = target.position() * BYTES_PER_SAMPLE;
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Reads the samples without the round trip through bytes, the values are the same the byte stream encodes.
+     *
+     * @param samples the array to read into.
+     * @param offset  the position in the array to write to.
+     * @param length  the maximum amount of samples to read.
+     * @return the amount of samples read, -1 if the end of the stream is reached.
+     */
+    public int read(final float[] samples, final int offset, final int length) throws IOException {
+        int read = 0;
+
+        while (read < length && fill()) {
+            final int count = Math.min(length - read, pending.remaining());
+            pending.get(samples, offset + read, count);
+            read += count;
+        }
+        return read == 0 && length > 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(final long bytesToSkip) throws IOException {
+        long remaining = bytesToSkip / BYTES_PER_SAMPLE;
+
+        while (remaining > 0 && fill()) {
+            final int count = (int) Math.min(remaining, pending.remaining());
+            pending.position(pending.position() + count);
+            remaining -= count;
+        }
+        return bytesToSkip - remaining * BYTES_PER_SAMPLE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.pending = null;
+        grabber.close();
+    }
+
+    @Override
+    public TarsosDSPAudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the approximate amount of samples, from the container's duration. -1 if the duration is unknown.
+     */
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+}
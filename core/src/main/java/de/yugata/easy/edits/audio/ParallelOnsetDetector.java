@@ -0,0 +1,190 @@
+package de.yugata.easy.edits.audio;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
+import be.tarsos.dsp.util.ConcurrencyUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Computes the complex onset detection function of a stream on all cores.
+ * <br>
+ * The decoded samples are split into chunks of consecutive buffers, which are framed exactly like the {@link be.tarsos.dsp.AudioDispatcher} frames them
+ * (first buffer read in full, zero padded last buffer, same timestamps & overlaps). Every chunk is analysed by a detector of its own, by default on the shared executor of {@link ConcurrencyUtils}.
+ * <br>
+ * A buffer's value depends on the phases of the two buffers before it, so every chunk first runs these two buffers through its detector & discards their values.
+ * The peaks are picked from the stitched function later on, so the chunks do not need to overlap by the peak picker's window:
+ * the stitched function is identical to the one a sequential {@link ComplexOnsetDetector} records.
+ */
+public class ParallelOnsetDetector {
+
+    /**
+     * The amount of buffers the detector keeps state of: the phases of the last two buffers.
+     */
+    private static final int WARM_UP_BUFFERS = 2;
+
+    private final int bufferSize, bufferOverlap, stepSize;
+    private final int buffersPerChunk;
+
+    /**
+     * The executor the chunks are analysed on, null for the shared one of {@link ConcurrencyUtils}.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * @param bufferSize      the buffer's (& the fft's) size.
+     * @param bufferOverlap   the overlap between consecutive buffers.
+     * @param buffersPerChunk the amount of buffers analysed per task.
+     * @param pool            the executor the chunks are analysed on, null for the shared executor of {@link ConcurrencyUtils}.
+     */
+    public ParallelOnsetDetector(final int bufferSize, final int bufferOverlap, final int buffersPerChunk, final ExecutorService pool) {
+        this.bufferSize = bufferSize;
+        this.bufferOverlap = bufferOverlap;
+        this.stepSize = bufferSize - bufferOverlap;
+        this.buffersPerChunk = buffersPerChunk;
+        this.pool = pool;
+    }
+
+    /**
+     * Analyses 1024 buffers per task on the shared executor of {@link ConcurrencyUtils}.
+     */
+    public ParallelOnsetDetector(final int bufferSize, final int bufferOverlap) {
+        this(bufferSize, bufferOverlap, 1024, null);
+    }
+
+    /**
+     * Reads the stream to its end & returns its detection function.
+     * The stream is decoded on the calling thread, at most two chunks per worker are held in memory.
+     *
+     * @param stream the stream to analyse.
+     * @return the detection function.
+     */
+    public OnsetDetectionFunction detect(final FFmpegAudioInputStream stream) throws IOException {
+        final TarsosDSPAudioFormat format = stream.getFormat();
+        final List<Future<OnsetDetectionFunction>> chunks = new ArrayList<>();
+        final ExecutorService pool = this.pool != null ? this.pool : ConcurrencyUtils.getExecutor();
+        final int parallelism = pool instanceof ForkJoinPool ? ((ForkJoinPool) pool).getParallelism() : ConcurrencyUtils.getParallelism();
+        final Semaphore inFlight = new Semaphore(parallelism * 2);
+
+        float[] previous = null;
+        long previousStart = 0;
+
+        boolean endOfStream = false;
+
+        try {
+            for (int firstBuffer = 0; !endOfStream; firstBuffer += buffersPerChunk) {
+                final int lastBuffer = firstBuffer + buffersPerChunk;
+
+                // The chunk's samples, including the ones of the warm up buffers.
+                final long start = (long) Math.max(0, firstBuffer - WARM_UP_BUFFERS) * stepSize;
+                final long end = (long) (lastBuffer - 1) * stepSize + bufferSize;
+                final float[] samples = new float[(int) (end - start)];
+
+                int length = 0;
+                if (previous != null) {
+                    // The samples shared with the last chunk have been read already.
+                    length = (int) (previousStart + previous.length - start);
+                    System.arraycopy(previous, (int) (start - previousStart), samples, 0, length);
+                }
+
+                while (length < samples.length) {
+                    final int read = stream.read(samples, length, samples.length - length);
+                    if (read < 0) {
+                        endOfStream = true;
+                        break;
+                    }
+                    length += read;
+                }
+
+                final int chunkFirstBuffer = firstBuffer;
+                final int chunkLength = length;
+                final boolean lastChunk = endOfStream;
+
+                inFlight.acquire();
+                chunks.add(pool.submit(() -> {
+                    try {
+                        return detectChunk(format, samples, start, chunkLength, lastChunk, chunkFirstBuffer, lastBuffer);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+
+                previous = samples;
+                previousStart = start;
+            }
+
+            final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
+            for (final Future<OnsetDetectionFunction> chunk : chunks) {
+                detectionFunction.addAll(chunk.get());
+            }
+            return detectionFunction;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+    }
+
+    /**
+     * @param totalSamples the amount of samples in the stream.
+     * @return whether the dispatcher processes the buffer, i.e. whether the stream has at least one sample for it.
+     */
+    private boolean isDispatched(final int buffer, final long totalSamples) {
+        if (buffer == 0)
+            return totalSamples > 0;
+
+        return totalSamples > (long) (buffer - 1) * stepSize + bufferSize;
+    }
+
+    private OnsetDetectionFunction detectChunk(final TarsosDSPAudioFormat format, final float[] samples, final long start, final int length,
+                                               final boolean lastChunk, final int firstBuffer, final int lastBuffer) {
+        final ComplexOnsetDetector detector = new ComplexOnsetDetector(bufferSize);
+        detector.setHandler((time, salience) -> {
+        });
+
+        final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
+        final AudioEvent audioEvent = new AudioEvent(format);
+        final float[] buffer = new float[bufferSize];
+        final long available = start + length;
+
+        for (int i = Math.max(0, firstBuffer - WARM_UP_BUFFERS); i < lastBuffer; i++) {
+            if (lastChunk && !isDispatched(i, available))
+                break;
+
+            final long from = (long) i * stepSize;
+            int count = (int) Math.min(bufferSize, available - from);
+
+            // The dispatcher only converts a step's worth of samples if the stream is shorter than the first buffer.
+            if (i == 0 && lastChunk && available < bufferSize) {
+                count = Math.min(count, stepSize);
+            }
+
+            System.arraycopy(samples, (int) (from - start), buffer, 0, count);
+            Arrays.fill(buffer, count, bufferSize, 0f);
+
+            // The first buffer is read in full, every later one is a step past the last.
+            final long samplesProcessed = i == 0 ? 0 : bufferSize + (long) (i - 1) * stepSize;
+            audioEvent.setFloatBuffer(buffer);
+            audioEvent.setOverlap(i == 0 ? 0 : bufferOverlap);
+            audioEvent.setBytesProcessed(samplesProcessed * format.getFrameSize());
+
+            // The warm up buffers only restore the detector's state.
+            detector.setDetectionFunctionHandler(i < firstBuffer ? null : detectionFunction);
+            detector.process(audioEvent);
+        }
+        return detectionFunction;
+    }
+}
@@ -0,0 +1,384 @@
+package de.yugata.easy.edits.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The minimum, maximum & rms of an audio file's samples in buckets of {@value #BASE_BUCKET_SIZE} samples,
+ * and in every coarser power of two of that (512, 1024, ... samples) up to a single bucket for the whole file.
+ * <br>
+ * The pyramid is built in one pass over the decoded samples & is small (about 1/40th of the 16 bit audio), so it is stored next to the audio file.
+ * A waveform of any width & any zoom level is rendered from the level whose buckets are just smaller than a pixel,
+ * so drawing costs O(pixels) & every pixel shows the real peaks of its samples.
+ */
+public class PeakPyramid {
+
+    /**
+     * The amount of samples summarised by a bucket of the finest level.
+     */
+    public static final int BASE_BUCKET_SIZE = 256;
+
+    /**
+     * The suffix of the file the pyramid is cached in, next to the audio file.
+     */
+    public static final String FILE_SUFFIX = ".peaks";
+
+    private static final int MAGIC = 0x5045414B; // "PEAK"
+    private static final int VERSION = 1;
+
+    private final float sampleRate;
+    private final long totalSamples;
+
+    /**
+     * Per level, from finest to coarsest.
+     */
+    private final float[][] min, max, rms;
+
+    private PeakPyramid(final float sampleRate, final long totalSamples, final float[][] min, final float[][] max, final float[][] rms) {
+        this.sampleRate = sampleRate;
+        this.totalSamples = totalSamples;
+        this.min = min;
+        this.max = max;
+        this.rms = rms;
+    }
+
+    /**
+     * Returns the cached pyramid of the audio file if there is an up to date one for the sample rate,
+     * otherwise decodes the file, builds the pyramid & caches it.
+     *
+     * @param audioFile  the audio file.
+     * @param sampleRate the sample rate to decode at, zero or less for the file's own sample rate.
+     * @return the pyramid.
+     */
+    public static PeakPyramid load(final File audioFile, final int sampleRate) throws IOException {
+        final File cache = new File(audioFile.getAbsolutePath() + FILE_SUFFIX);
+
+        if (cache.isFile() && cache.lastModified() >= audioFile.lastModified()) {
+            try {
+                final PeakPyramid cached = read(cache);
+                if (sampleRate <= 0 || cached.sampleRate == sampleRate)
+                    return cached;
+            } catch (IOException e) {
+                // Outdated or damaged, built again.
+                e.printStackTrace();
+            }
+        }
+
+        final PeakPyramid pyramid;
+        try (final FFmpegAudioInputStream stream = new FFmpegAudioInputStream(audioFile.getAbsolutePath(), sampleRate)) {
+            pyramid = build(stream);
+        }
+
+        try {
+            pyramid.write(cache);
+        } catch (IOException e) {
+            // The pyramid is still usable, it is built again next time.
+            e.printStackTrace();
+        }
+        return pyramid;
+    }
+
+    /**
+     * Reads the stream to its end & builds its pyramid.
+     *
+     * @param stream the stream to read.
+     * @return the pyramid.
+     */
+    public static PeakPyramid build(final FFmpegAudioInputStream stream) throws IOException {
+        final Builder builder = new Builder(stream.getFormat().getSampleRate(), stream.getFrameLength());
+        final float[] samples = new float[BASE_BUCKET_SIZE * 64];
+
+        int read;
+        while ((read = stream.read(samples, 0, samples.length)) > 0) {
+            builder.add(samples, 0, read);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Summarises the samples of a time span in one value per pixel.
+     * The level used has buckets of at most the pixel's width, so a pixel combines fewer than two buckets on average.
+     * Zoomed in further than {@value #BASE_BUCKET_SIZE} samples per pixel, neighbouring pixels repeat the finest buckets.
+     *
+     * @param startSeconds the time of the left edge.
+     * @param endSeconds   the time of the right edge.
+     * @param min          receives the minimum per pixel, its length is the amount of pixels.
+     * @param max          receives the maximum per pixel.
+     * @param rms          receives the rms per pixel, may be null.
+     */
+    public void render(final double startSeconds, final double endSeconds, final float[] min, final float[] max, final float[] rms) {
+        final int pixels = min.length;
+        final double samplesPerPixel = (endSeconds - startSeconds) * sampleRate / pixels;
+
+        int level = 0;
+        while (level + 1 < levels() && bucketSize(level + 1) <= samplesPerPixel) {
+            level++;
+        }
+
+        final float[] levelMin = this.min[level], levelMax = this.max[level], levelRms = this.rms[level];
+        final int size = bucketSize(level);
+        final double startSample = startSeconds * sampleRate;
+
+        for (int x = 0; x < pixels; x++) {
+            final double from = startSample + x * samplesPerPixel;
+            final double to = from + samplesPerPixel;
+
+            final long first = Math.max(0, (long) Math.floor(from / size));
+            final long last = Math.min(Math.max((long) Math.ceil(to / size) - 1, first), levelMin.length - 1);
+
+            if (to <= 0 || first > last) {
+                // Before the start or past the end of the audio.
+                min[x] = 0;
+                max[x] = 0;
+                if (rms != null)
+                    rms[x] = 0;
+                continue;
+            }
+
+            float pixelMin = levelMin[(int) first], pixelMax = levelMax[(int) first];
+            double squares = 0;
+            for (int bucket = (int) first; bucket <= last; bucket++) {
+                pixelMin = Math.min(pixelMin, levelMin[bucket]);
+                pixelMax = Math.max(pixelMax, levelMax[bucket]);
+                squares += levelRms[bucket] * levelRms[bucket];
+            }
+            min[x] = pixelMin;
+            max[x] = pixelMax;
+            if (rms != null)
+                rms[x] = (float) Math.sqrt(squares / (last - first + 1));
+        }
+    }
+
+    /**
+     * @return the amount of levels, the last one has a single bucket.
+     */
+    public int levels() {
+        return min.length;
+    }
+
+    /**
+     * @param level the level, zero is the finest.
+     * @return the amount of samples per bucket of the level.
+     */
+    public static int bucketSize(final int level) {
+        return BASE_BUCKET_SIZE << level;
+    }
+
+    /**
+     * @param level the level, zero is the finest.
+     * @return the minimum per bucket, the array is not copied.
+     */
+    public float[] getMin(final int level) {
+        return min[level];
+    }
+
+    /**
+     * @param level the level, zero is the finest.
+     * @return the maximum per bucket, the array is not copied.
+     */
+    public float[] getMax(final int level) {
+        return max[level];
+    }
+
+    /**
+     * @param level the level, zero is the finest.
+     * @return the rms per bucket, the array is not copied.
+     */
+    public float[] getRms(final int level) {
+        return rms[level];
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * @return the duration of the audio, in seconds.
+     */
+    public double getDuration() {
+        return totalSamples / (double) sampleRate;
+    }
+
+    /**
+     * Writes the pyramid to a file. Only the finest level is stored, the coarser ones are derived when reading.
+     *
+     * @param file the file to write to.
+     */
+    public void write(final File file) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeFloat(sampleRate);
+            out.writeLong(totalSamples);
+            out.writeInt(min[0].length);
+            for (int i = 0; i < min[0].length; i++) {
+                out.writeFloat(min[0][i]);
+                out.writeFloat(max[0][i]);
+                out.writeFloat(rms[0][i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a pyramid written by {@link #write(File)}.
+     *
+     * @param file the file to read from.
+     * @return the pyramid.
+     */
+    public static PeakPyramid read(final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a peak pyramid of version " + VERSION + ": " + file);
+
+            final float sampleRate = in.readFloat();
+            final long totalSamples = in.readLong();
+            final int buckets = in.readInt();
+
+            final float[] min = new float[buckets], max = new float[buckets], rms = new float[buckets];
+            for (int i = 0; i < buckets; i++) {
+                min[i] = in.readFloat();
+                max[i] = in.readFloat();
+                rms[i] = in.readFloat();
+            }
+            return pyramid(sampleRate, totalSamples, min, max, rms);
+        }
+    }
+
+    /**
+     * Derives the coarser levels from the finest one, every bucket of a level combines two of the level below.
+     */
+    private static PeakPyramid pyramid(final float sampleRate, final long totalSamples, final float[] baseMin, final float[] baseMax, final float[] baseRms) {
+        final List<float[]> min = new ArrayList<>(), max = new ArrayList<>(), rms = new ArrayList<>();
+        min.add(baseMin);
+        max.add(baseMax);
+        rms.add(baseRms);
+
+        for (int level = 1; min.get(level - 1).length > 1; level++) {
+            final float[] childMin = min.get(level - 1), childMax = max.get(level - 1), childRms = rms.get(level - 1);
+            final int childSize = bucketSize(level - 1);
+            final int buckets = (childMin.length + 1) / 2;
+
+            final float[] levelMin = new float[buckets], levelMax = new float[buckets], levelRms = new float[buckets];
+            for (int i = 0; i < buckets; i++) {
+                final int left = 2 * i, right = left + 1;
+                if (right == childMin.length) {
+                    levelMin[i] = childMin[left];
+                    levelMax[i] = childMax[left];
+                    levelRms[i] = childRms[left];
+                    continue;
+                }
+
+                // The last bucket of the audio may be shorter, the squares are weighted by the amount of samples.
+                final long rightSamples = Math.min(childSize, totalSamples - (long) right * childSize);
+                final double squares = (double) childRms[left] * childRms[left] * childSize + (double) childRms[right] * childRms[right] * rightSamples;
+
+                levelMin[i] = Math.min(childMin[left], childMin[right]);
+                levelMax[i] = Math.max(childMax[left], childMax[right]);
+                levelRms[i] = (float) Math.sqrt(squares / (childSize + rightSamples));
+            }
+            min.add(levelMin);
+            max.add(levelMax);
+            rms.add(levelRms);
+        }
+        return new PeakPyramid(sampleRate, totalSamples, min.toArray(new float[0][]), max.toArray(new float[0][]), rms.toArray(new float[0][]));
+    }
+
+    /**
+     * Summarises samples as they are decoded, e.g. from an {@link be.tarsos.dsp.AudioProcessor} which already reads the audio.
+     */
+    public static class Builder {
+
+        private final float sampleRate;
+
+        private float[] min, max, rms;
+        private int buckets;
+
+        /**
+         * The current, incomplete bucket.
+         */
+        private float bucketMin = Float.POSITIVE_INFINITY, bucketMax = Float.NEGATIVE_INFINITY;
+        private double bucketSquares;
+        private int bucketSamples;
+
+        private long totalSamples;
+
+        /**
+         * @param sampleRate      the sample rate of the samples.
+         * @param expectedSamples the approximate amount of samples, -1 if unknown.
+         */
+        public Builder(final float sampleRate, final long expectedSamples) {
+            this.sampleRate = sampleRate;
+            final int capacity = expectedSamples > 0 ? (int) Math.min(Integer.MAX_VALUE - 8, expectedSamples / BASE_BUCKET_SIZE + 1) : 1024;
+            this.min = new float[capacity];
+            this.max = new float[capacity];
+            this.rms = new float[capacity];
+        }
+
+        /**
+         * @param samples the samples, in order.
+         * @param offset  the first sample to add.
+         * @param length  the amount of samples to add.
+         */
+        public void add(final float[] samples, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float sample = samples[i];
+                if (sample < bucketMin)
+                    bucketMin = sample;
+                if (sample > bucketMax)
+                    bucketMax = sample;
+                bucketSquares += sample * sample;
+
+                if (++bucketSamples == BASE_BUCKET_SIZE) {
+                    finishBucket();
+                }
+            }
+            totalSamples += length;
+        }
+
+        private void finishBucket() {
+            if (buckets == min.length) {
+                final int capacity = buckets * 2;
+                this.min = Arrays.copyOf(min, capacity);
+                this.max = Arrays.copyOf(max, capacity);
+                this.rms = Arrays.copyOf(rms, capacity);
+            }
+            min[buckets] = bucketMin;
+            max[buckets] = bucketMax;
+            rms[buckets] = (float) Math.sqrt(bucketSquares / bucketSamples);
+            buckets++;
+
+            this.bucketMin = Float.POSITIVE_INFINITY;
+            this.bucketMax = Float.NEGATIVE_INFINITY;
+            this.bucketSquares = 0;
+            this.bucketSamples = 0;
+        }
+
+        /**
+         * @return the pyramid of the samples added so far.
+         */
+        public PeakPyramid build() {
+            if (bucketSamples > 0 || buckets == 0) {
+                if (bucketSamples == 0) {
+                    // No samples at all, a single silent bucket.
+                    bucketMin = bucketMax = 0;
+                    bucketSamples = 1;
+                }
+                finishBucket();
+            }
+            return pyramid(sampleRate, totalSamples, Arrays.copyOf(min, buckets), Arrays.copyOf(max, buckets), Arrays.copyOf(rms, buckets));
+        }
+    }
+}
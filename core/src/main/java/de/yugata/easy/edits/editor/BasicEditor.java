@@ -9,11 +9,15 @@ import de.yugata.easy.edits.util.FFmpegUtil;
 import org.bytedeco.javacv.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.bytedeco.ffmpeg.global.avutil.AV_LOG_VERBOSE;
-import static org.bytedeco.ffmpeg.global.avutil.av_log_set_level;
+import static de.yugata.easy.edits.util.FramePool.FRAME_POOL;
+import static org.bytedeco.ffmpeg.global.avutil.*;
 
 public class BasicEditor implements Editor {
 
@@ -24,12 +28,30 @@ public class BasicEditor implements Editor {
 
     private final long editLength;
 
+    private final boolean printDebug;
+
+    /**
+     * The amount of frames buffered between two stages of the pipeline.
+     */
+    private static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * Marks the end of the decoded frames.
+     */
+    private static final Frame END_OF_STREAM = new Frame();
+
+    /**
+     * The seconds the stages of a failed segment are given to stop.
+     */
+    private static final int STAGE_STOP_TIMEOUT = 10;
+
     public BasicEditor(FFmpegFrameGrabber videoGrabber, String audioPath, FFmpegFrameRecorder recorder, List<FilterWrapper> filters, EnumSet<EditingFlag> editingFlags, long editLength) {
         this.videoGrabber = videoGrabber;
         this.audioPath = audioPath;
         this.recorder = recorder;
         this.filters = filters;
         this.editLength = editLength;
+        this.printDebug = editingFlags.contains(EditingFlag.PRINT_DEBUG);
 
         if (editingFlags.contains(EditingFlag.PRINT_DEBUG)) {
             FFmpegLogCallback.set();
@@ -85,113 +107,332 @@ public class BasicEditor implements Editor {
         final FFmpegFrameFilter simpleVideoFiler = FFmpegUtil.populateVideoFilters(editInfo);
 
 
-        for (final String inputPath : paths) {
-            // grabber for the individual clip segment
-            final FFmpegFrameGrabber segmentGrabber = baseSegmentGrabber(new File(inputPath), recorder, segmentGrabberVideoCodec);
+        // Pool counters before the render, the difference is printed in debug mode.
+        final Map<String, Long> poolStats = FRAME_POOL.getStats();
 
-            // Safety mechanism.
-            if (!segmentGrabber.hasAudio() && !segmentGrabber.hasVideo()) {
-                continue;
+        // Decode, filter & audio lane run on their own threads, the calling thread encodes.
+        final ExecutorService stages = Executors.newFixedThreadPool(3);
+
+        try {
+            for (final String inputPath : paths) {
+                // grabber for the individual clip segment
+                final FFmpegFrameGrabber segmentGrabber = baseSegmentGrabber(new File(inputPath), recorder, segmentGrabberVideoCodec);
+
+                // Safety mechanism.
+                if (!segmentGrabber.hasAudio() && !segmentGrabber.hasVideo()) {
+                    segmentGrabber.close();
+                    continue;
+                }
+
+                // Optional: Populate the transition filters, we have to reconfigure them every time, as the offsets depend on it.
+                final FFmpegFrameFilter transitionFilter = FFmpegUtil.populateTransitionFilters(editInfo);
+
+                // Add the filters to a chain.
+                final FFmpegFrameFilter[] filters = simpleVideoFiler == null ? new FFmpegFrameFilter[0] : transitionFilter == null ? new FFmpegFrameFilter[]{simpleVideoFiler} : new FFmpegFrameFilter[]{transitionFilter, simpleVideoFiler};
+
+                /* Workflow */
+                //  1. Decode the segment's video frames
+                //  2. Push them through the filters
+                //  3. Mix the segment's audio with the background music
+                //  4. Record whatever the filters & the audio lane hand over
+
+                final BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                final BlockingQueue<PipelineFrame> encodable = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                final int pixelFormat = segmentGrabber.getPixelFormat();
+
+                // Set before the stages are cancelled, a cancelled stage does not wait to hand over its end of stream.
+                final AtomicBoolean aborted = new AtomicBoolean();
+                final CountDownLatch stopped = new CountDownLatch(3);
+
+                final CompletionService<Void> completion = new ExecutorCompletionService<>(stages);
+                final List<Future<Void>> futures = new ArrayList<>();
+                futures.add(completion.submit(counted(stopped, () -> decodeStage(segmentGrabber, decoded, aborted))));
+                futures.add(completion.submit(counted(stopped, () -> filterStage(decoded, encodable, pixelFormat, aborted, filters))));
+                futures.add(completion.submit(counted(stopped, () -> audioLane(inputPath, audioGrabber, convertAudioFilter, simpleAudioFiler, overlayFilter, encodable, aborted))));
+
+                boolean done = false;
+                try {
+                    encodeStage(encodable, 2);
+                    // In order of completion: a failed stage cancels the others before they block on a queue nobody takes from anymore.
+                    for (int i = 0; i < futures.size(); i++) {
+                        completion.take().get();
+                    }
+                    done = true;
+                } catch (ExecutionException e) {
+                    rethrow(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } finally {
+                    if (!done) {
+                        abort(aborted, futures, stopped, decoded, encodable, pixelFormat);
+                    }
+
+                    // Close the transition filter, free the resources
+                    if (transitionFilter != null)
+                        transitionFilter.close();
+
+                    segmentGrabber.close();
+                }
             }
+        } finally {
+            stages.shutdownNow();
+            // The idle frames are only reused within a render.
+            FRAME_POOL.clear();
+        }
+
 
+        if (simpleVideoFiler != null)
+            simpleVideoFiler.close();
 
-            // Optional: Populate the transition filters, we have to reconfigure them every time, as the offsets depend on it.
-            final FFmpegFrameFilter transitionFilter = FFmpegUtil.populateTransitionFilters(editInfo);
+        if (simpleAudioFiler != null)
+            simpleAudioFiler.close();
 
-            // Add the filters to a chain.
-            final FFmpegFrameFilter[] filters = simpleVideoFiler == null ? new FFmpegFrameFilter[0] : transitionFilter == null ? new FFmpegFrameFilter[]{simpleVideoFiler} : new FFmpegFrameFilter[]{transitionFilter, simpleVideoFiler};
 
-            /* Workflow */
-            //  1. Record the segments video frames.
-            //  2. Record the audio frames in a separate loop
+        overlayFilter.close();
+        audioGrabber.close();
 
-            // Take note of the recorder timestamp, so we can adjust the audio timestamps accordingly later
-            final int recorderFrameNumber = recorder.getFrameNumber();
+        if (printDebug) {
+            final Map<String, Long> renderStats = FRAME_POOL.getStats();
+            renderStats.replaceAll((key, value) -> value - poolStats.get(key));
+            System.out.println("Frame pool during render: " + renderStats);
+        }
+    }
 
-            // grab the video frames & send them to the filters
+    /**
+     * Decodes the segment's video frames. The grabber reuses its frame, so every frame is copied into a pooled frame before it is handed over.
+     */
+    private Void decodeStage(final FFmpegFrameGrabber segmentGrabber, final BlockingQueue<Frame> decoded, final AtomicBoolean aborted) throws FrameGrabber.Exception, InterruptedException {
+        final int pixelFormat = segmentGrabber.getPixelFormat();
+        try {
             Frame frame;
             while ((frame = segmentGrabber.grabImage()) != null) {
-                FFmpegUtil.pushToFilters(frame, recorder, filters);
+                final Frame copy = FRAME_POOL.copyOf(frame, pixelFormat);
+                try {
+                    decoded.put(copy);
+                } catch (InterruptedException e) {
+                    FRAME_POOL.release(copy, pixelFormat);
+                    throw e;
+                }
             }
+        } finally {
+            if (!aborted.get())
+                decoded.put(END_OF_STREAM);
+        }
+        return null;
+    }
 
-            final int postVideoFrameNumber = recorder.getFrameNumber();
-
+    /**
+     * Pushes the decoded frames through the filters. The filters own the frames they return, so they are copied into pooled frames before they are handed over.
+     * Without any filters, the decoded frames are handed over as they are.
+     */
+    private Void filterStage(final BlockingQueue<Frame> decoded, final BlockingQueue<PipelineFrame> encodable, final int pixelFormat, final AtomicBoolean aborted, final FFmpegFrameFilter... filters) throws FrameFilter.Exception, InterruptedException {
+        try {
+            Frame frame;
+            while ((frame = decoded.take()) != END_OF_STREAM) {
+                if (filters.length == 0) {
+                    handOver(encodable, new PipelineFrame(frame, pixelFormat));
+                    continue;
+                }
 
-            // Close the transition filter, free the resources
-            if (transitionFilter != null)
-                transitionFilter.close();
+                try {
+                    FFmpegUtil.pushToFilters(frame, pixelFormat, (processed, format) -> handOver(encodable, new PipelineFrame(FRAME_POOL.copyOf(processed, format), format)), filters);
+                } finally {
+                    // The filters have copied the frame.
+                    FRAME_POOL.release(frame, pixelFormat);
+                }
+            }
+        } finally {
+            if (!aborted.get())
+                encodable.put(PipelineFrame.END_OF_STREAM);
+        }
+        return null;
+    }
 
-            // Seek back
-            recorder.setFrameNumber(recorderFrameNumber);
+    /**
+     * Grabs the segment's audio through a second grabber & overlays the background music,
+     * the same amount of background music as the segment is long is consumed.
+     */
+    private Void audioLane(final String inputPath, final FFmpegFrameGrabber audioGrabber, final FFmpegFrameFilter convertAudioFilter, final FFmpegFrameFilter simpleAudioFiler, final FFmpegFrameFilter overlayFilter, final BlockingQueue<PipelineFrame> encodable, final AtomicBoolean aborted) throws FrameGrabber.Exception, FrameFilter.Exception, InterruptedException {
+        final FFmpegFrameGrabber segmentAudioGrabber = new FFmpegFrameGrabber(inputPath);
 
-            /* Audio frame processing */
-            if (segmentGrabber.hasAudio()) { // The segment has audio, we have to overlay the background music.
-                segmentGrabber.setTimestamp(0); // Seek back
+        try {
+            segmentAudioGrabber.setSampleFormat(recorder.getSampleFormat());
+            segmentAudioGrabber.setSampleRate(recorder.getSampleRate());
+            segmentAudioGrabber.start();
 
-                // Grab all the segment audio samples, as well as the audio grabber samples.
-                // We terminate if either segment audio == null (no more items in the stream) or the audio grabber has no audio left.
-                // In either case, we don't record audio anymore.
+            // Add as many audio frames as are needed for the segment.
+            final long startTime = audioGrabber.getTimestamp(); // take note of our starting time, so that we know how many microseconds have passed
 
+            if (segmentAudioGrabber.hasAudio()) { // The segment has audio, we have to overlay the background music.
                 Frame segmentAudio;
-                while ((segmentAudio = segmentGrabber.grabSamples()) != null) {
-
+                while ((segmentAudio = segmentAudioGrabber.grabSamples()) != null) {
                     // Push the background audio to [0], no volume decrease
                     overlayFilter.push(0, segmentAudio);
                 }
 
-                // Add as many audio frames as are needed for the segment.
-                final long startTime = audioGrabber.getTimestamp(); // take note of our starting time, so that we know how many microseconds have passed
-
                 Frame audioFrame;
-                while (audioGrabber.getTimestamp() - startTime <= segmentGrabber.getLengthInTime() && (audioFrame = audioGrabber.grabSamples()) != null) {
+                while (audioGrabber.getTimestamp() - startTime <= segmentAudioGrabber.getLengthInTime() && (audioFrame = audioGrabber.grabSamples()) != null) {
                     // process the audio frame, convert the audio frame to our sample-rate, sample-format
                     convertAudioFilter.push(audioFrame);
 
                     Frame convertAudioFrame;
                     if ((convertAudioFrame = convertAudioFilter.pull()) != null) {
-
-                        FFmpegUtil.pushToFilterOrElse(convertAudioFrame, simpleAudioFiler, f -> {
-                            try {
-                                overlayFilter.push(1, f);
-                            } catch (FFmpegFrameFilter.Exception e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
+                        if (simpleAudioFiler == null) {
+                            overlayFilter.push(1, convertAudioFrame);
+                            continue;
+                        }
+
+                        simpleAudioFiler.push(convertAudioFrame);
+                        Frame filtered;
+                        while ((filtered = simpleAudioFiler.pull()) != null) {
+                            overlayFilter.push(1, filtered);
+                        }
                     }
                 }
-                
-                // Pull from the overlay filter & record.
+
+                // Pull from the overlay filter & hand the mixed audio over.
                 Frame overlayFrame;
                 while ((overlayFrame = overlayFilter.pull()) != null) {
-                    // Set the timestamp in the recorder.
-                    recorder.record(overlayFrame);
+                    handOver(encodable, new PipelineFrame(overlayFrame.clone(), AV_PIX_FMT_NONE));
                 }
             } else { // no audio stream, just record the background music
-
-                // Add as many audio frames as are needed for the segment.
-                final long startTime = audioGrabber.getTimestamp(); // take note of our starting time, so that we know how many microseconds have passed
-
                 Frame audioFrame;
-                while (audioGrabber.getTimestamp() - startTime <= segmentGrabber.getLengthInTime() && (audioFrame = audioGrabber.grabSamples()) != null) {
-                    recorder.record(audioFrame);
+                while (audioGrabber.getTimestamp() - startTime <= segmentAudioGrabber.getLengthInTime() && (audioFrame = audioGrabber.grabSamples()) != null) {
+                    handOver(encodable, new PipelineFrame(audioFrame.clone(), AV_PIX_FMT_NONE));
                 }
             }
+        } finally {
+            segmentAudioGrabber.close();
+            if (!aborted.get())
+                encodable.put(PipelineFrame.END_OF_STREAM);
+        }
+        return null;
+    }
 
-            // Safety mechanism, in the case that no audio has been recorded.
-            recorder.setFrameNumber(postVideoFrameNumber);
+    /**
+     * Records the handed over frames until all producers have finished.
+     *
+     * @param encodable the frames to record.
+     * @param producers the amount of producers, each one ends its stream with {@link PipelineFrame#END_OF_STREAM}.
+     */
+    private void encodeStage(final BlockingQueue<PipelineFrame> encodable, int producers) throws FrameRecorder.Exception, InterruptedException {
+        while (producers > 0) {
+            final PipelineFrame pipelineFrame = encodable.take();
+
+            if (pipelineFrame == PipelineFrame.END_OF_STREAM) {
+                producers--;
+                continue;
+            }
 
-            segmentGrabber.close();
+            try {
+                recorder.record(pipelineFrame.frame, pipelineFrame.pixelFormat);
+            } finally {
+                pipelineFrame.release();
+            }
         }
+    }
 
+    /**
+     * Hands the frame over to the encoder, the frame is released if the stage is cancelled while it waits.
+     */
+    private static void handOver(final BlockingQueue<PipelineFrame> encodable, final PipelineFrame pipelineFrame) throws InterruptedException {
+        try {
+            encodable.put(pipelineFrame);
+        } catch (InterruptedException e) {
+            pipelineFrame.release();
+            throw e;
+        }
+    }
 
-        if (simpleVideoFiler != null)
-            simpleVideoFiler.close();
+    /**
+     * Counts the latch down once the stage has stopped, whether it has finished or failed.
+     */
+    private static Callable<Void> counted(final CountDownLatch stopped, final Callable<Void> stage) {
+        return () -> {
+            try {
+                return stage.call();
+            } finally {
+                stopped.countDown();
+            }
+        };
+    }
 
-        if (simpleAudioFiler != null)
-            simpleAudioFiler.close();
+    /**
+     * Cancels the segment's stages after one of them or the encoder has failed, waits for them to stop
+     * & releases the frames left in the queues.
+     */
+    private static void abort(final AtomicBoolean aborted, final List<Future<Void>> futures, final CountDownLatch stopped,
+                              final BlockingQueue<Frame> decoded, final BlockingQueue<PipelineFrame> encodable, final int pixelFormat) {
+        aborted.set(true);
+        futures.forEach(future -> future.cancel(true));
+
+        try {
+            if (!stopped.await(STAGE_STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                // A stage is stuck in a native call, its queues cannot be drained safely.
+                System.err.println("The pipeline's stages did not stop, the frames in flight are not released.");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
+        final List<Frame> frames = new ArrayList<>();
+        decoded.drainTo(frames);
+        for (final Frame frame : frames) {
+            if (frame != END_OF_STREAM)
+                FRAME_POOL.release(frame, pixelFormat);
+        }
 
-        overlayFilter.close();
-        audioGrabber.close();
+        final List<PipelineFrame> pipelineFrames = new ArrayList<>();
+        encodable.drainTo(pipelineFrames);
+        for (final PipelineFrame pipelineFrame : pipelineFrames) {
+            if (pipelineFrame != PipelineFrame.END_OF_STREAM)
+                pipelineFrame.release();
+        }
+    }
+
+    private static void rethrow(final Throwable cause) throws FrameGrabber.Exception, FrameRecorder.Exception, FrameFilter.Exception {
+        if (cause instanceof FrameGrabber.Exception)
+            throw (FrameGrabber.Exception) cause;
+        if (cause instanceof FrameRecorder.Exception)
+            throw (FrameRecorder.Exception) cause;
+        if (cause instanceof FrameFilter.Exception)
+            throw (FrameFilter.Exception) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+
+        throw new RuntimeException(cause);
+    }
+
+    /**
+     * A frame handed to the encoder, with the pixel format of its image.
+     */
+    private static class PipelineFrame {
+
+        /**
+         * Marks the end of a producer's frames.
+         */
+        private static final PipelineFrame END_OF_STREAM = new PipelineFrame(null, AV_PIX_FMT_NONE);
+
+        private final Frame frame;
+        private final int pixelFormat;
+
+        private PipelineFrame(final Frame frame, final int pixelFormat) {
+            this.frame = frame;
+            this.pixelFormat = pixelFormat;
+        }
+
+        /**
+         * Images are pooled, the audio frames are cloned.
+         */
+        private void release() {
+            if (frame.image != null) {
+                FRAME_POOL.release(frame, pixelFormat);
+            } else {
+                frame.close();
+            }
+        }
     }
 }
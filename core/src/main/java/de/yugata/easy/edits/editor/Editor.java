@@ -1,6 +1,7 @@
 package de.yugata.easy.edits.editor;
 
 import de.yugata.easy.edits.util.FFmpegUtil;
+import de.yugata.easy.edits.util.MediaProbe;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacv.FFmpegFrameFilter;
@@ -16,11 +17,13 @@ public interface Editor {
 
     default FFmpegFrameGrabber baseSegmentGrabber(final File input, final FFmpegFrameRecorder recorder, final String videoCodec) throws FFmpegFrameGrabber.Exception {
         final FFmpegFrameGrabber segmentGrabber = new FFmpegFrameGrabber(input);
-        FFmpegUtil.configureDecoder(segmentGrabber);
+        FFmpegUtil.configureDecoder(segmentGrabber, input.getPath());
         segmentGrabber.setSampleFormat(recorder.getSampleFormat());
         segmentGrabber.setSampleRate(recorder.getSampleRate());
         segmentGrabber.setPixelFormat(recorder.getPixelFormat());
-        segmentGrabber.setVideoCodecName(videoCodec);
+        // Overrides the decoder picked through the codec selector.
+        if (videoCodec != null)
+            segmentGrabber.setVideoCodecName(videoCodec);
         segmentGrabber.start();
 
         return segmentGrabber;
@@ -61,8 +64,6 @@ public interface Editor {
 
         builder.append("amerge,pan=stereo|c0<c0+c2|c1<c1+c3[a]");
 
-        System.out.println(builder);
-
         final FFmpegFrameFilter overlayFilter = FFmpegUtil.configureAudioFilter(builder.toString(), recorder.getSampleRate(), recorder.getSampleFormat());
         overlayFilter.setAudioInputs(2);
         overlayFilter.start();
@@ -81,15 +82,11 @@ public interface Editor {
         return convertAudioFilter;
     }
 
-    //TODO: Rework this.
     default long getEditLength(final List<String> videoPaths) throws FrameGrabber.Exception {
         long time = 0;
 
         for (String videoPath : videoPaths) {
-            final FFmpegFrameGrabber segmentGrabber = new FFmpegFrameGrabber(videoPath);
-            segmentGrabber.start();
-            time += segmentGrabber.getLengthInTime();
-            segmentGrabber.close();
+            time += MediaProbe.of(videoPath).getLengthInTime();
         }
 
         return time;
@@ -7,7 +7,8 @@ public enum EditingFlag {
     SHUFFLE_SEQUENCES("Shuffles the video timestamps, which may lead to more variety in the end product. If you selected your scenes with care and they follow a particular order, this should be disabled."),
     PRINT_DEBUG("Prints the ffmpeg debug information. Useful when submitting / tracing bugs"),
     OFFSET_AUDIO_FOR_INTRO("Will offset the audio for the entire intro time if an intro is given."),
-    PROCESS_SEGMENTS("WIP");
+    PROCESS_SEGMENTS("WIP"),
+    SNAP_TO_KEYFRAMES("Snaps the start of the exported clips to the keyframe before them. Exporting is faster, the clips may however start slightly earlier.");
 
     private final String description;
     private int setting;
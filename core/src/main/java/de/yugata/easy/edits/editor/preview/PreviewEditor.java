@@ -6,9 +6,12 @@ import de.yugata.easy.edits.editor.BasicEditor;
 import de.yugata.easy.edits.editor.BasicEditorBuilder;
 import de.yugata.easy.edits.editor.Editor;
 import de.yugata.easy.edits.editor.edit.EditingFlag;
+import de.yugata.easy.edits.editor.video.KeyframeIndex;
 import de.yugata.easy.edits.editor.video.VideoClip;
 import de.yugata.easy.edits.filter.FilterWrapper;
+import de.yugata.easy.edits.util.DecoderPool;
 import de.yugata.easy.edits.util.FFmpegUtil;
+import de.yugata.easy.edits.util.MediaProbe;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.*;
@@ -19,6 +22,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
 
+import static de.yugata.easy.edits.util.DecoderPool.DECODER_POOL;
 import static org.bytedeco.ffmpeg.global.avutil.*;
 
 public class PreviewEditor implements Editor {
@@ -36,6 +40,8 @@ public class PreviewEditor implements Editor {
         this.editingFlags = flags;
         this.filters = filters;
 
+        MediaProbe.persistTo(workingDirectory);
+
         if (flags.contains(EditingFlag.PRINT_DEBUG)) {
             FFmpegLogCallback.set();
             av_log_set_level(AV_LOG_VERBOSE);
@@ -88,31 +94,41 @@ public class PreviewEditor implements Editor {
         recorder.setFrameRate(grabber.getFrameRate());
 
         recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC); // Standard
-        recorder.setVideoCodecName("h264_nvenc");
+        FFmpegUtil.configureVideoCodec(recorder, avcodec.AV_CODEC_ID_H264);
+    }
+
+    private FFmpegFrameGrabber configureFrameGrabber(final String source) throws FrameGrabber.Exception {
+        final MediaProbe probe = MediaProbe.of(source);
+        final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source);
+        FFmpegUtil.configureDecoder(grabber, probe.getVideoCodec());
+        grabber.setImageWidth(probe.getImageWidth() / 8);
+        grabber.setImageHeight(probe.getImageHeight() / 8);
+        return grabber;
     }
 
-    private void configureFrameGrabber(final FFmpegFrameGrabber grabber) throws FFmpegFrameGrabber.Exception {
-        FFmpegUtil.configureDecoder(grabber);
-        grabber.setImageWidth(grabber.getImageWidth() / 8);
-        grabber.setImageHeight(grabber.getImageHeight() / 8);
-        grabber.setVideoCodecName("hevc_cuvid");
+    private FFmpegFrameGrabber configureMutedFrameGrabber(final String source) throws FrameGrabber.Exception {
+        final FFmpegFrameGrabber grabber = configureFrameGrabber(source);
+        // idk why this is needed, it works in the editor, the code is almost the same, but hey, at least it works now.
+        // hours_wasted=2
+        grabber.setAudioStream(Integer.MAX_VALUE);
+        return grabber;
     }
 
 
     public String generatePreview(final VideoClip videoClip) {
+        // Muted & unmuted previews are configured differently, the pool keeps them apart.
+        final DecoderPool.DecoderFactory factory = videoClip.isMuteAudio() ? this::configureMutedFrameGrabber : this::configureFrameGrabber;
+        final String profile = videoClip.isMuteAudio() ? "preview_muted" : "preview";
 
-        try (final FFmpegFrameGrabber videoGrabber = new FFmpegFrameGrabber(videoPath)) {
-            this.configureFrameGrabber(videoGrabber);
+        try (final DecoderPool.Lease lease = DECODER_POOL.acquire(videoPath, profile, factory, videoClip.getTimeStamp())) {
+            final FFmpegFrameGrabber videoGrabber = lease.getGrabber();
 
-            // idk why this is needed, it works in the editor, the code is almost the same, but hey, at least it works now.
-            // hours_wasted=2
-            if (videoClip.isMuteAudio()) {
-                videoGrabber.setAudioStream(Integer.MAX_VALUE);
-            }
+            // The preview starts at the clip's timestamp, or at the keyframe before it if the clips are snapped.
+            final KeyframeIndex keyframeIndex = KeyframeIndex.of(videoPath, workingDirectory);
+            final long previewStart = editingFlags.contains(EditingFlag.SNAP_TO_KEYFRAMES) ? keyframeIndex.floor(videoClip.getTimeStamp()) : videoClip.getTimeStamp();
 
-            videoGrabber.start();
-
-            videoGrabber.setTimestamp(videoClip.getTimeStamp());
+            // Seek to the keyframe before the start, the frames up to the start are decoded & dropped below.
+            videoGrabber.setTimestamp(keyframeIndex.floor(previewStart));
 
             final File previewFile = new File(workingDirectory, "clip_" + UUID.randomUUID() + ".mkv");
 
@@ -121,7 +137,13 @@ public class PreviewEditor implements Editor {
             recorder.start();
 
             Frame frame;
-            while (videoGrabber.getTimestamp() - videoClip.getTimeStamp() < videoClip.getLength() && (frame = videoGrabber.grab()) != null) {
+            while ((frame = videoGrabber.grab()) != null) {
+                if (frame.timestamp < previewStart)
+                    continue;
+
+                if (frame.timestamp - previewStart >= videoClip.getLength())
+                    break;
+
                 recorder.record(frame);
             }
 
@@ -130,6 +152,8 @@ public class PreviewEditor implements Editor {
         } catch (FrameGrabber.Exception | FrameRecorder.Exception e) {
             e.printStackTrace();
             return "";
+        } finally {
+            MediaProbe.store(workingDirectory);
         }
     }
 
@@ -139,10 +163,8 @@ public class PreviewEditor implements Editor {
 
         // get image width & height
 
-        try {
-            final FFmpegFrameGrabber videoGrabber = new FFmpegFrameGrabber(videoPath);
-            this.configureFrameGrabber(videoGrabber);
-            videoGrabber.start();
+        try (final DecoderPool.Lease lease = DECODER_POOL.acquire(videoPath, "preview", this::configureFrameGrabber, 0)) {
+            final FFmpegFrameGrabber videoGrabber = lease.getGrabber();
 
             // Configure the recorder
             final FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(editOutput, videoGrabber.getImageWidth(), videoGrabber.getImageHeight(), 2);
@@ -159,13 +181,14 @@ public class PreviewEditor implements Editor {
                     .setEditLength(getEditLength(previewPaths))
                     .createBasicEditor();
 
-            basicEditor.editFootage(previewPaths, "h264_nvenc");
+            basicEditor.editFootage(previewPaths, null);
 
             recorder.close();
-            videoGrabber.close();
         } catch (FrameRecorder.Exception | FrameGrabber.Exception | FrameFilter.Exception e) {
             e.printStackTrace();
             return "";
+        } finally {
+            MediaProbe.store(workingDirectory);
         }
         return editOutput.getAbsolutePath();
     }
@@ -11,14 +11,19 @@ import de.yugata.easy.edits.filter.FilterManager;
 import de.yugata.easy.edits.filter.FilterRange;
 import de.yugata.easy.edits.filter.FilterType;
 import de.yugata.easy.edits.util.FFmpegUtil;
+import de.yugata.easy.edits.util.MediaProbe;
 import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVRational;
 import org.bytedeco.javacv.*;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.EnumSet;
-import java.util.List;
+import java.util.*;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avformat.AVSEEK_FLAG_BACKWARD;
+import static org.bytedeco.ffmpeg.global.avformat.av_seek_frame;
+import static org.bytedeco.ffmpeg.global.avutil.*;
 
 /**
  * Encapsulates the clip exporting process.
@@ -26,6 +31,11 @@ import java.util.List;
  */
 public class ClipExporter {
 
+    /**
+     * Gaps between two clips that are longer than this (in microseconds) are skipped with a seek, rather than read through.
+     */
+    private static final long GAP_SEEK_MICROS = 10_000_000L;
+
     /**
      * The exporter's output directory.
      */
@@ -44,11 +54,17 @@ public class ClipExporter {
      */
     private final EnumSet<EditingFlag> editingFlags;
 
-    public ClipExporter(final String inputPath, final File outputDirectory, final List<VideoClip> videoClips, final EnumSet<EditingFlag> editingFlags) {
+    /**
+     * The input's keyframes, used to seek & to snap the clips if {@link EditingFlag#SNAP_TO_KEYFRAMES} is set.
+     */
+    private final KeyframeIndex keyframeIndex;
+
+    public ClipExporter(final String inputPath, final File outputDirectory, final File workingDirectory, final List<VideoClip> videoClips, final EnumSet<EditingFlag> editingFlags) {
         this.outputDirectory = outputDirectory;
         this.videoClips = videoClips;
         this.inputPath = inputPath;
         this.editingFlags = editingFlags;
+        this.keyframeIndex = KeyframeIndex.of(inputPath, workingDirectory);
     }
 
     /**
@@ -63,6 +79,8 @@ public class ClipExporter {
         final String inputPath = root.get("source_video").getAsString();
 
         final String outputDirPath = root.get("output_path").getAsString();
+        // The keyframe index is stored in the working directory, falls back to the output directory.
+        final String workingPath = root.has("working_path") ? root.get("working_path").getAsString() : outputDirPath;
 
         final JsonArray videoClips = root.getAsJsonArray("video_clips");
         final List<VideoClip> mappedVideoClips = new ArrayList<>();
@@ -78,7 +96,7 @@ public class ClipExporter {
                 mappedEditingFlags.add(EditingFlag.valueOf(key));
         });
 
-        return new ClipExporter(inputPath, new File(outputDirPath), mappedVideoClips, mappedEditingFlags);
+        return new ClipExporter(inputPath, new File(outputDirPath), new File(workingPath), mappedVideoClips, mappedEditingFlags);
     }
 
 
@@ -116,59 +134,210 @@ public class ClipExporter {
     }
 
     public void exportClips(final ExportResolution resolution) {
+        FFmpegFrameGrabber decoder = null;
+        // The windows which currently receive packets.
+        final List<ExportWindow> activeWindows = new ArrayList<>();
+        // Copies of all packets since the last video keyframe. A window that opens replays these, so every segment starts on a keyframe.
+        final List<AVPacket> groupOfPictures = new ArrayList<>();
+
         try {
             // Frame grabber to navigate & grab the selected clips.
-            final FFmpegFrameGrabber decoder = new FFmpegFrameGrabber(inputPath);
-            FFmpegUtil.configureDecoder(decoder); // base configuration of all encoder / decoder classes.
+            final MediaProbe probe = MediaProbe.of(inputPath);
+            decoder = new FFmpegFrameGrabber(inputPath);
+            FFmpegUtil.configureDecoder(decoder, probe.getVideoCodec()); // base configuration of all encoder / decoder classes.
             decoder.setAudioStream(1);
-            decoder.setImageWidth((int) (decoder.getImageWidth() * resolution.getRatio()));
-            decoder.setImageHeight((int) (decoder.getImageHeight() * resolution.getRatio()));
+            decoder.setImageWidth((int) (probe.getImageWidth() * resolution.getRatio()));
+            decoder.setImageHeight((int) (probe.getImageHeight() * resolution.getRatio()));
             decoder.start();
 
+            final AVFormatContext formatContext = decoder.getFormatContext();
+            final long startTime = formatContext.start_time() == AV_NOPTS_VALUE ? 0 : formatContext.start_time();
 
-            // List of sorted video clips, so the input grabber only has to move forwards in the stream.
-            final List<VideoClip> sortedVideoClips = new ArrayList<>(videoClips);
-            sortedVideoClips.sort(Comparator.comparingLong(VideoClip::getTimeStamp));
-
-            /* Iterate through the sorted video clips and write them to disk */
+            // Only the video & the selected audio stream are copied into the segments.
+            int videoStreamIndex = -1;
+            for (int i = 0; i < formatContext.nb_streams(); i++) {
+                if (formatContext.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+                    videoStreamIndex = i;
+                    break;
+                }
+            }
+            final int audioStreamIndex = decoder.getAudioStream();
+
+            // The clip windows sorted by their start, so the packet stream only has to be read forwards once.
+            final List<ExportWindow> windows = new ArrayList<>();
+            for (int i = 0; i < videoClips.size(); i++) {
+                windows.add(new ExportWindow(videoClips.get(i), i));
+            }
+            windows.sort(Comparator.comparingLong(window -> window.start));
+
+            int nextWindow = 0;
+            int seekedWindow = -1;
+            boolean keyFrameSeen = false;
+
+            /* Sweep through the packets and fan them out to every window that covers them */
+
+            AVPacket packet;
+            while ((nextWindow < windows.size() || !activeWindows.isEmpty()) && (packet = decoder.grabPacket()) != null) {
+                final int streamIndex = packet.stream_index();
+
+                if (streamIndex != videoStreamIndex && streamIndex != audioStreamIndex)
+                    continue;
+
+                final boolean video = streamIndex == videoStreamIndex;
+                final long packetMicros = packetMicros(packet, formatContext.streams(streamIndex).time_base(), startTime);
+
+                if (video && (packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                    // Cut at the keyframe: every window which has ended is closed before the new group of pictures starts.
+                    final Iterator<ExportWindow> iterator = activeWindows.iterator();
+                    while (iterator.hasNext()) {
+                        final ExportWindow window = iterator.next();
+                        if (window.end <= packetMicros) {
+                            iterator.remove();
+                            window.close();
+                        }
+                    }
+
+                    releasePackets(groupOfPictures);
+                    keyFrameSeen = true;
+
+                    // Nothing to copy until the next window, skip the gap with one seek instead of reading through it.
+                    if (activeWindows.isEmpty() && nextWindow < windows.size() && nextWindow != seekedWindow
+                            && windows.get(nextWindow).start - packetMicros > GAP_SEEK_MICROS) {
+                        seekedWindow = nextWindow;
+                        keyFrameSeen = false;
+                        seek(formatContext, keyframeIndex.floor(windows.get(nextWindow).start) + startTime);
+                        continue;
+                    }
+                }
 
-            for (final VideoClip videoClip : sortedVideoClips) {
-                final int segmentPosition = videoClips.indexOf(videoClip);
-                // Write a new segment to disk
-                final File segmentFile = new File(outputDirectory, String.format("segment %d.mp4", segmentPosition));
+                if (!keyFrameSeen)
+                    continue;
 
-                // Recorder for the segment file. Configured in the same way the final recorder is configured, as to not lose quality.
-                final FFmpegFrameRecorder encoder = getEncoder(segmentFile, decoder);
-                // Possibly empty array of filter(s) which are processed in a chain if there are any.
-                final FFmpegFrameFilter[] filters = getFilters(decoder, encoder);
+                // Copy the packet into the windows which are already open.
+                for (final ExportWindow window : activeWindows) {
+                    window.record(packet);
+                }
 
-                // Navigate to the clip.
-                decoder.setVideoTimestamp(videoClip.getTimeStamp());
+                if (nextWindow < windows.size()) {
+                    groupOfPictures.add(av_packet_clone(packet));
+                }
 
-                // The end of the clip in microseconds, e.g. stamp + length
-                final long endMicros = videoClip.getTimeStamp() + videoClip.getLength() + 1500000L; //1.5s (see: https://github.com/bytedeco/javacv/issues/1333)
+                // Open the windows which start with this packet & replay the group of pictures leading up to it.
+                while (video && nextWindow < windows.size() && windows.get(nextWindow).start <= packetMicros) {
+                    final ExportWindow window = windows.get(nextWindow++);
+                    window.open(decoder);
+                    activeWindows.add(window);
 
-                AVPacket packet;
-                while (decoder.getTimestamp() <= endMicros && (packet = decoder.grabPacket()) != null) {
-                    // See https://github.com/bytedeco/javacv/issues/1333
-                    //    if (packet.pts() >= videoClip.getTimeStamp() && packet.pts() <= endMicros) {
-                    encoder.recordPacket(packet);
-                    //  }
+                    for (final AVPacket bufferedPacket : groupOfPictures) {
+                        window.record(bufferedPacket);
+                    }
+                }
+            }   /* End packet sweep */
+
+            // The stream has ended, close the remaining windows.
+            final Iterator<ExportWindow> iterator = activeWindows.iterator();
+            while (iterator.hasNext()) {
+                final ExportWindow window = iterator.next();
+                iterator.remove();
+                window.close();
+            }
+        } catch (FrameGrabber.Exception | FrameFilter.Exception | FrameRecorder.Exception e) {
+            e.printStackTrace();
+        } finally {
+            // Windows are only left over if the sweep failed, their segments are incomplete.
+            for (final ExportWindow window : activeWindows) {
+                window.closeQuietly();
+            }
+            releasePackets(groupOfPictures);
+
+            if (decoder != null) {
+                try {
+                    decoder.close(); // Close the input grabber, free the resources.
+                } catch (FrameGrabber.Exception e) {
+                    e.printStackTrace();
                 }
+            }
+        }
+    }
 
+    /**
+     * Converts the packet's presentation timestamp (or its decoding timestamp if the pts is not set) into microseconds,
+     * relative to the container's start, i.e. the same time base as the clips' timestamps.
+     */
+    private static long packetMicros(final AVPacket packet, final AVRational timeBase, final long startTime) {
+        final long timestamp = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+        return (long) (timestamp * av_q2d(timeBase) * AV_TIME_BASE) - startTime;
+    }
 
-                // Close the filter(s) if there are any.
-                for (final FFmpegFrameFilter filter : filters) {
-                    filter.close();
-                }
+    /**
+     * Seeks the demuxer to the keyframe before the given timestamp. Bypasses the grabber's seek, as that decodes up to the exact frame,
+     * which would swallow the packets between the keyframe and the timestamp.
+     */
+    private static void seek(final AVFormatContext formatContext, final long timestamp) throws FrameGrabber.Exception {
+        final int ret = av_seek_frame(formatContext, -1, timestamp, AVSEEK_FLAG_BACKWARD);
+        if (ret < 0) {
+            throw new FrameGrabber.Exception("av_seek_frame() error " + ret + ": Could not seek to " + timestamp + ".");
+        }
+    }
 
-                // Close our local recorder.
-                encoder.close();
-            }   /* End video clip loop */
+    private static void releasePackets(final List<AVPacket> packets) {
+        for (final AVPacket packet : packets) {
+            av_packet_free(packet);
+        }
+        packets.clear();
+    }
 
-            decoder.close(); // Close the input grabber, free the resources.
-        } catch (FrameGrabber.Exception | FrameFilter.Exception | FrameRecorder.Exception e) {
-            e.printStackTrace();
+    /**
+     * The [start, end] window of one clip in the sweep & the encoder of its segment, while the window is open.
+     */
+    private class ExportWindow {
+
+        private final int segmentPosition;
+        private final long start, end;
+
+        private FFmpegFrameRecorder encoder;
+        private FFmpegFrameFilter[] filters;
+
+        ExportWindow(final VideoClip videoClip, final int segmentPosition) {
+            this.segmentPosition = segmentPosition;
+            // Snapped clips start on their keyframe & keep their length from there.
+            this.start = editingFlags.contains(EditingFlag.SNAP_TO_KEYFRAMES) ? keyframeIndex.floor(videoClip.getTimeStamp()) : videoClip.getTimeStamp();
+            this.end = start + videoClip.getLength();
+        }
+
+        void open(final FFmpegFrameGrabber decoder) throws FFmpegFrameRecorder.Exception, FFmpegFrameFilter.Exception {
+            // Write a new segment to disk
+            final File segmentFile = new File(outputDirectory, String.format("segment %d.mp4", segmentPosition));
+
+            // Recorder for the segment file. Configured in the same way the final recorder is configured, as to not lose quality.
+            this.encoder = getEncoder(segmentFile, decoder);
+            // Possibly empty array of filter(s) which are processed in a chain if there are any.
+            this.filters = getFilters(decoder, encoder);
+        }
+
+        void record(final AVPacket packet) throws FFmpegFrameRecorder.Exception {
+            // The recorder rescales & consumes the packet it writes, every window needs its own reference.
+            final AVPacket copy = av_packet_clone(packet);
+            encoder.recordPacket(copy);
+            av_packet_free(copy);
+        }
+
+        void close() throws FrameRecorder.Exception, FrameFilter.Exception {
+            // Close the filter(s) if there are any.
+            for (final FFmpegFrameFilter filter : filters) {
+                filter.close();
+            }
+
+            // Close our local recorder.
+            encoder.close();
+        }
+
+        void closeQuietly() {
+            try {
+                this.close();
+            } catch (FrameRecorder.Exception | FrameFilter.Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -1,6 +1,7 @@
 package de.yugata.easy.edits.editor.video;
 
-import de.yugata.easy.edits.util.FFmpegUtil;
+import de.yugata.easy.edits.editor.edit.EditingFlag;
+import de.yugata.easy.edits.util.DecoderPool;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
@@ -12,123 +13,237 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.yugata.easy.edits.util.DecoderPool.DECODER_POOL;
 
 public class FrameExporter {
 
+    /**
+     * Bytes of encoded thumbnails held in memory.
+     */
+    private static final long MEMORY_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Bytes of encoded thumbnails stored on disk.
+     */
+    private static final long DISK_CACHE_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * The amount of frames decoded ahead of the scrub direction.
+     */
+    private static final int PREFETCH_FRAMES = 4;
+
     private final String source, workingPath;
 
     /**
-     * The {@see FrameGrabber} which grabs the input video
+     * The source's keyframes, the grabber seeks to the keyframe before the requested timestamp & decodes forward from there.
+     */
+    private final KeyframeIndex keyframeIndex;
+
+    /**
+     * Whether the frames are exported from the keyframe before the requested timestamp, see {@link EditingFlag#SNAP_TO_KEYFRAMES}.
+     */
+    private final boolean snapToKeyframes;
+
+    /**
+     * Cache for the encoded frames, in memory & on disk.
+     */
+    private final ThumbnailCache thumbnailCache;
+
+    /**
+     * Single background thread which decodes the frames ahead of the scrub direction.
      */
-    private FFmpegFrameGrabber videoGrabber;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "frame-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Incremented with every request, a prefetch stops as soon as a newer request has been made.
+     */
+    private final AtomicLong requestGeneration = new AtomicLong();
+
+    /**
+     * The previously requested timestamp, to determine the scrub direction & speed.
+     */
+    private long lastTimeStamp = -1;
+
+    /**
+     * The source's frame rate & length in microseconds.
+     */
+    private final double frameRate;
+    private final long lengthInTime;
 
     public FrameExporter(final String source, final String workingPath) {
+        this(source, workingPath, EnumSet.noneOf(EditingFlag.class));
+    }
+
+    public FrameExporter(final String source, final String workingPath, final EnumSet<EditingFlag> editingFlags) {
         this.source = source;
         this.workingPath = workingPath;
-        this.initFrameGrabber();
+        this.keyframeIndex = KeyframeIndex.of(source, new File(workingPath));
+        this.snapToKeyframes = editingFlags.contains(EditingFlag.SNAP_TO_KEYFRAMES);
+        this.thumbnailCache = new ThumbnailCache(new File(workingPath, "thumbnails"), ThumbnailCache.prefixOf(source), MEMORY_CACHE_BYTES, DISK_CACHE_BYTES);
+
+        // Keep the source's grabbers warm for as long as the exporter lives.
+        DECODER_POOL.retain(source);
+
+        try (final DecoderPool.Lease lease = DECODER_POOL.acquire(source, 0)) {
+            this.frameRate = lease.getGrabber().getFrameRate();
+            this.lengthInTime = lease.getGrabber().getLengthInTime();
+        } catch (FrameGrabber.Exception e) {
+            DECODER_POOL.release(source);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void destroyGrabber() {
+        prefetcher.shutdownNow();
+        DECODER_POOL.release(source);
     }
 
     /**
-     * Initializes & configure the frame grabber for the input video.
+     * Quantises the timestamp to the number of the frame it falls into.
+     * Without a known frame rate every timestamp is a frame of its own.
      */
-    private void initFrameGrabber() {
-        if (videoGrabber == null) {
-            try {
-                this.videoGrabber = new FFmpegFrameGrabber(source);
-                FFmpegUtil.configureDecoder(videoGrabber);
-                videoGrabber.start();
-            } catch (FFmpegFrameGrabber.Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
-            try {
-                videoGrabber.restart();
-            } catch (FrameGrabber.Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
+    private long frameOf(final long timeStamp) {
+        return frameRate > 0 ? Math.round(timeStamp * frameRate / 1000000D) : timeStamp;
     }
 
-    public void destroyGrabber() {
-        if (videoGrabber != null) {
+    /**
+     * @return the frame's timestamp in microseconds, the image cached for the frame is always decoded at it.
+     */
+    private long timeOf(final long frame) {
+        return frameRate > 0 ? Math.round(frame * 1000000D / frameRate) : frame;
+    }
+
+    /**
+     * @return the frame to export for the requested timestamp, the keyframe before it if the frames are snapped.
+     */
+    private long targetOf(final long timeStamp) {
+        return frameOf(snapToKeyframes ? keyframeIndex.floor(timeStamp) : timeStamp);
+    }
+
+    public ByteBuffer exportFrame(final long timeStamp) {
+        // Timestamps within the same frame share the exported image, which is decoded at the frame's own timestamp.
+        final long frame = targetOf(timeStamp);
+
+        requestGeneration.incrementAndGet();
+
+        byte[] thumbnail = thumbnailCache.get(frame);
+
+        if (thumbnail == null) {
             try {
-                videoGrabber.close();
+                thumbnail = decodeFrame(timeOf(frame));
             } catch (FrameGrabber.Exception e) {
+                e.printStackTrace();
+                return null;
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            thumbnailCache.put(frame, thumbnail, false);
         }
+
+        this.prefetch(timeStamp);
+        return ByteBuffer.wrap(thumbnail);
     }
 
-    public ByteBuffer exportFrame(final long timeStamp) {
-        try {
-            final String identifier = new File(source).getName() + timeStamp + ".jpeg";
+    /**
+     * Decodes the frames ahead of the scrub direction in the background, spaced by the distance between the last two requests.
+     *
+     * @param timeStamp the timestamp that has just been requested.
+     */
+    private void prefetch(final long timeStamp) {
+        final long step = lastTimeStamp < 0 ? 0 : timeStamp - lastTimeStamp;
+        this.lastTimeStamp = timeStamp;
 
-            final File workingDir = new File(workingPath);
+        if (step == 0)
+            return;
 
-            if (!workingDir.exists()) {
-                workingDir.mkdirs();
-            }
+        final long generation = requestGeneration.get();
 
-            final File output = new File(workingDir, identifier);
+        prefetcher.execute(() -> {
+            for (int i = 1; i <= PREFETCH_FRAMES && requestGeneration.get() == generation; i++) {
+                final long target = timeStamp + i * step;
+                if (target < 0 || target > lengthInTime)
+                    break;
 
-            if (output.exists()) {
-                final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                try (final FileInputStream fileInputStream = new FileInputStream(output)) {
-                    fileInputStream.transferTo(byteArrayOutputStream);
-                }
+                final long frame = targetOf(target);
 
-                return ByteBuffer.wrap(byteArrayOutputStream.toByteArray());
+                if (thumbnailCache.contains(frame))
+                    continue;
+
+                try {
+                    thumbnailCache.put(frame, decodeFrame(timeOf(frame)), true);
+                } catch (IOException e) {
+                    // Prefetching is best effort.
+                    return;
+                }
             }
+        });
+    }
 
-            videoGrabber.setTimestamp(timeStamp);
+    /**
+     * Seeks to the keyframe before the timestamp, decodes forward to the frame at the timestamp & encodes it as a JPEG.
+     * The grabber is borrowed from the pool, so the caller's thread and the prefetcher decode on grabbers of their own.
+     */
+    private byte[] decodeFrame(final long timeStamp) throws IOException {
+        final BufferedImage bufferedImage;
 
-            final Frame frame = videoGrabber.grabImage();
+        try (final DecoderPool.Lease lease = DECODER_POOL.acquire(source, timeStamp)) {
+            final Frame frame = keyframeIndex.seekExact(lease.getGrabber(), timeStamp);
 
             if (frame == null) {
-                throw new RuntimeException("Frame is null");
+                throw new FFmpegFrameGrabber.Exception("Frame is null");
             }
 
-            final BufferedImage bufferedImage = Java2DFrameUtils.toBufferedImage(frame);
+            // Converted while the grabber is still ours, the frame's buffer is reused by the next grab.
+            bufferedImage = Java2DFrameUtils.toBufferedImage(frame);
+        }
 
-            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
 
-            try (final ImageOutputStream outputStream = ImageIO.createImageOutputStream(compressed)) {
+        try (final ImageOutputStream outputStream = ImageIO.createImageOutputStream(compressed)) {
 
-                // NOTE: The rest of the code is just a cleaned up version of your code
+            // NOTE: The rest of the code is just a cleaned up version of your code
 
-                // Obtain writer for JPEG format
-                final ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("JPEG").next();
+            // Obtain writer for JPEG format
+            final ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("JPEG").next();
 
-                // Configure JPEG compression: 30% quality
-                final ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
-                jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                jpgWriteParam.setCompressionQuality(0.3f);
+            // Configure JPEG compression: 30% quality
+            final ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
+            jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            jpgWriteParam.setCompressionQuality(0.3f);
 
-                // Set your in-memory stream as the output
-                jpgWriter.setOutput(outputStream);
+            // Set your in-memory stream as the output
+            jpgWriter.setOutput(outputStream);
 
-                // Write image as JPEG w/configured settings to the in-memory stream
-                // (the IIOImage is just an aggregator object, allowing you to associate
-                // thumbnails and metadata to the image, it "does" nothing)
-                jpgWriter.write(null, new IIOImage(bufferedImage, null, null), jpgWriteParam);
+            // Write image as JPEG w/configured settings to the in-memory stream
+            // (the IIOImage is just an aggregator object, allowing you to associate
+            // thumbnails and metadata to the image, it "does" nothing)
+            jpgWriter.write(null, new IIOImage(bufferedImage, null, null), jpgWriteParam);
 
-                // Dispose the writer to free resources
-                jpgWriter.dispose();
-            }
+            // Dispose the writer to free resources
+            jpgWriter.dispose();
+        }
 
-            // Write to file
-            try (final FileOutputStream fileOutputStream = new FileOutputStream(output)) {
-                compressed.writeTo(fileOutputStream);
-            }
+        return compressed.toByteArray();
+    }
 
-            return ByteBuffer.wrap(compressed.toByteArray());
-        } catch (FFmpegFrameGrabber.Exception e) {
-            e.printStackTrace();
-            return null;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * @return the thumbnail cache's hit & miss counters.
+     */
+    public Map<String, Long> getCacheStats() {
+        return thumbnailCache.getStats();
     }
 }
@@ -0,0 +1,257 @@
+package de.yugata.easy.edits.editor.video;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * Sorted index of the keyframe timestamps (in microseconds) of a source video.
+ * The index is built with one scan over the source's packets (nothing is decoded) and stored in the working directory as a flat file of longs.
+ * The file is keyed by the source's path, size & modification time, later sessions map it into memory instead of scanning again.
+ * <br>
+ * Seeking to the keyframe before a timestamp & decoding forward reaches the exact frame with one seek, no matter how long the group of pictures is.
+ */
+public class KeyframeIndex {
+
+    /**
+     * Loaded indices, keyed by the source's path, size & modification time.
+     */
+    private static final Map<String, KeyframeIndex> INDICES = new ConcurrentHashMap<>();
+
+    /**
+     * The sorted keyframe timestamps, a view on the memory-mapped index file.
+     */
+    private final LongBuffer keyframes;
+
+    private KeyframeIndex(final LongBuffer keyframes) {
+        this.keyframes = keyframes;
+    }
+
+    /**
+     * Returns the keyframe index for the given source. The index is loaded from the working directory if it has been built before,
+     * otherwise the source is scanned once & the index is written to the working directory.
+     *
+     * @param source           path to the source video.
+     * @param workingDirectory the directory the index file is stored in.
+     * @return the source's keyframe index.
+     */
+    public static KeyframeIndex of(final String source, final File workingDirectory) {
+        final File sourceFile = new File(source);
+        final String key = sourceFile.getAbsolutePath() + ":" + sourceFile.length() + ":" + sourceFile.lastModified();
+
+        return INDICES.computeIfAbsent(key, k -> {
+            final File indexFile = new File(workingDirectory, "keyframes_" + UUID.nameUUIDFromBytes(k.getBytes(StandardCharsets.UTF_8)) + ".idx");
+
+            try {
+                if (indexFile.exists()) {
+                    try {
+                        return new KeyframeIndex(mapIndex(indexFile));
+                    } catch (IOException e) {
+                        // Corrupt or truncated, e.g. by a full disk. Drop it & scan the source again.
+                        e.printStackTrace();
+                        Files.deleteIfExists(indexFile.toPath());
+                    }
+                }
+
+                writeIndex(indexFile, scanKeyframes(source));
+                return new KeyframeIndex(mapIndex(indexFile));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Reads through the source's packets & collects the presentation timestamps of the video keyframes.
+     * The timestamps are relative to the container's start, the same time base the grabber's timestamps use.
+     */
+    private static long[] scanKeyframes(final String source) throws IOException {
+        try (final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source)) {
+            grabber.start();
+
+            final AVFormatContext formatContext = grabber.getFormatContext();
+            final long startTime = formatContext.start_time() == AV_NOPTS_VALUE ? 0 : formatContext.start_time();
+
+            int videoStreamIndex = -1;
+            for (int i = 0; i < formatContext.nb_streams(); i++) {
+                if (formatContext.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+                    videoStreamIndex = i;
+                    break;
+                }
+            }
+
+            if (videoStreamIndex == -1) {
+                return new long[0];
+            }
+
+            final AVStream videoStream = formatContext.streams(videoStreamIndex);
+            final double timeBase = av_q2d(videoStream.time_base());
+
+            long[] keyframes = new long[1024];
+            int size = 0;
+
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() != videoStreamIndex || (packet.flags() & AV_PKT_FLAG_KEY) == 0)
+                    continue;
+
+                final long timestamp = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                if (timestamp == AV_NOPTS_VALUE)
+                    continue;
+
+                if (size == keyframes.length) {
+                    keyframes = Arrays.copyOf(keyframes, size * 2);
+                }
+                keyframes[size++] = (long) (timestamp * timeBase * AV_TIME_BASE) - startTime;
+            }
+
+            keyframes = Arrays.copyOf(keyframes, size);
+            Arrays.sort(keyframes);
+            return keyframes;
+        }
+    }
+
+    /**
+     * Writes the index to disk: the amount of keyframes followed by the sorted timestamps.
+     * The file is written next to the target first & moved into place afterwards, so a half-written index is never mapped.
+     */
+    private static void writeIndex(final File indexFile, final long[] keyframes) throws IOException {
+        indexFile.getParentFile().mkdirs();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * (keyframes.length + 1));
+        buffer.putLong(keyframes.length);
+        buffer.asLongBuffer().put(keyframes);
+
+        final File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        Files.write(tempFile.toPath(), buffer.array());
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static LongBuffer mapIndex(final File indexFile) throws IOException {
+        try (final FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+
+            // Validate the header before mapping, a mapped file could not be deleted on every platform.
+            final ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1)
+                    break;
+            }
+
+            if (header.hasRemaining() || size % Long.BYTES != 0 || header.getLong(0) != size / Long.BYTES - 1) {
+                throw new IOException("Corrupt keyframe index: " + indexFile);
+            }
+
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.position(Long.BYTES);
+            return mapped.slice().asLongBuffer();
+        }
+    }
+
+    /**
+     * Moves the grabber to the exact frame at the timestamp. The grabber seeks to the keyframe before the timestamp
+     * & the frames up to the timestamp are decoded & dropped. If the grabber is already between that keyframe & the timestamp, it only reads forward.
+     *
+     * @param grabber   the started grabber of the indexed source.
+     * @param timeStamp the timestamp in microseconds.
+     * @return the image frame at the timestamp, its buffer is reused by the grabber's next grab. Null if the timestamp is after the last frame.
+     */
+    public Frame seekExact(final FFmpegFrameGrabber grabber, final long timeStamp) throws FrameGrabber.Exception {
+        // A frame covers the timestamp if the timestamp is within half a frame of it.
+        final long halfFrame = grabber.getFrameRate() > 0 ? (long) (AV_TIME_BASE / 2 / grabber.getFrameRate()) : 0;
+
+        final long keyframe = floor(timeStamp);
+        final long position = grabber.getTimestamp();
+
+        if (position < keyframe || position + halfFrame >= timeStamp) {
+            grabber.setTimestamp(keyframe);
+        }
+
+        Frame frame;
+        while ((frame = grabber.grabImage()) != null) {
+            if (frame.timestamp + halfFrame >= timeStamp)
+                break;
+        }
+        return frame;
+    }
+
+    /**
+     * @return the amount of keyframes in the source.
+     */
+    public int size() {
+        return keyframes.limit();
+    }
+
+    /**
+     * Binary search for the last keyframe at or before the timestamp.
+     *
+     * @return the keyframe's position in the index, -1 if the timestamp is before the first keyframe.
+     */
+    private int floorIndex(final long timeStamp) {
+        int low = 0;
+        int high = keyframes.limit() - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (keyframes.get(mid) <= timeStamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @param timeStamp the timestamp in microseconds.
+     * @return the last keyframe at or before the timestamp. The first keyframe if there is none before it, the timestamp itself if the index is empty.
+     */
+    public long floor(final long timeStamp) {
+        if (size() == 0)
+            return timeStamp;
+
+        return keyframes.get(Math.max(floorIndex(timeStamp), 0));
+    }
+
+    /**
+     * @param timeStamp the timestamp in microseconds.
+     * @return the keyframe closest to the timestamp, the timestamp itself if the index is empty.
+     */
+    public long nearest(final long timeStamp) {
+        if (size() == 0)
+            return timeStamp;
+
+        final int index = floorIndex(timeStamp);
+
+        if (index < 0)
+            return keyframes.get(0);
+
+        if (index == size() - 1)
+            return keyframes.get(index);
+
+        final long before = keyframes.get(index);
+        final long after = keyframes.get(index + 1);
+        return timeStamp - before <= after - timeStamp ? before : after;
+    }
+}
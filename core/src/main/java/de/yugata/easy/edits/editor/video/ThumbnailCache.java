@@ -0,0 +1,295 @@
+package de.yugata.easy.edits.editor.video;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache for the exported thumbnails.
+ * The first tier is an in-memory LRU bounded by the bytes of the encoded images,
+ * the second tier is a directory on disk which is capped in size, the least recently used files are deleted first.
+ * The disk tier is shared by all caches storing into the same directory, the cap applies to the whole directory.
+ * <br>
+ * Thumbnails are keyed by their frame number, so timestamps within the same frame share one entry.
+ * The files are read & written outside the cache's locks, so a reader never waits on another thread's disk access.
+ */
+public class ThumbnailCache {
+
+    /**
+     * The disk tiers, by their directory.
+     */
+    private static final Map<File, DiskStore> DISK_STORES = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum amount of bytes held in memory.
+     */
+    private final long memoryCapacity;
+
+    /**
+     * The directory the thumbnails are stored in.
+     */
+    private final File directory;
+
+    /**
+     * Prefix of all the thumbnail files of this cache's source.
+     */
+    private final String prefix;
+
+    /**
+     * Memory tier, in access order.
+     */
+    private final LinkedHashMap<Long, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * The thumbnails of the directory, shared with the other caches storing into it.
+     */
+    private final DiskStore disk;
+
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong(), diskHits = new AtomicLong(), misses = new AtomicLong(), prefetched = new AtomicLong();
+
+    /**
+     * @param directory      the directory the thumbnails are stored in.
+     * @param prefix         the prefix of the source's thumbnail files, see {@link #prefixOf(String)}.
+     * @param memoryCapacity the maximum amount of bytes held in memory.
+     * @param diskCapacity   the maximum amount of bytes stored in the directory. If caches sharing the directory disagree, the smallest cap applies.
+     */
+    public ThumbnailCache(final File directory, final String prefix, final long memoryCapacity, final long diskCapacity) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.memoryCapacity = memoryCapacity;
+
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        this.disk = DISK_STORES.computeIfAbsent(directory.getAbsoluteFile(), DiskStore::new);
+        this.disk.limit(diskCapacity);
+    }
+
+    /**
+     * The prefix is derived from the source's path, size & modification time, so sources with the same name don't share thumbnails
+     * & a re-encoded source does not get the thumbnails of its previous version.
+     *
+     * @param source path to the source video.
+     * @return the prefix of the source's thumbnail files.
+     */
+    public static String prefixOf(final String source) {
+        final File sourceFile = new File(source);
+        final String key = sourceFile.getAbsolutePath() + ":" + sourceFile.length() + ":" + sourceFile.lastModified();
+        return "thumb_" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + "_";
+    }
+
+    private String nameOf(final long frame) {
+        return prefix + frame + ".jpeg";
+    }
+
+    /**
+     * @param frame the thumbnail's frame number.
+     * @return whether the thumbnail is in either tier. Does not count towards the hits & misses.
+     */
+    public boolean contains(final long frame) {
+        synchronized (this) {
+            if (memory.containsKey(frame))
+                return true;
+        }
+        return disk.contains(nameOf(frame));
+    }
+
+    /**
+     * Looks the thumbnail up in memory first, then on disk. Thumbnails read from disk are promoted to the memory tier.
+     *
+     * @param frame the thumbnail's frame number.
+     * @return the encoded thumbnail, null if it is not cached.
+     */
+    public byte[] get(final long frame) {
+        synchronized (this) {
+            final byte[] cached = memory.get(frame);
+            if (cached != null) {
+                memoryHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        final String name = nameOf(frame);
+        if (disk.touch(name)) {
+            try {
+                final byte[] stored = Files.readAllBytes(new File(directory, name).toPath());
+                diskHits.incrementAndGet();
+                synchronized (this) {
+                    this.putMemory(frame, stored);
+                }
+                return stored;
+            } catch (IOException e) {
+                // Deleted from outside or evicted meanwhile, forget about it.
+                disk.remove(name);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the thumbnail in both tiers.
+     *
+     * @param frame     the thumbnail's frame number.
+     * @param thumbnail the encoded thumbnail.
+     * @param prefetch  whether the thumbnail has been decoded ahead of time.
+     */
+    public void put(final long frame, final byte[] thumbnail, final boolean prefetch) {
+        if (prefetch) {
+            prefetched.incrementAndGet();
+        }
+        synchronized (this) {
+            this.putMemory(frame, thumbnail);
+        }
+
+        final String name = nameOf(frame);
+        if (disk.contains(name))
+            return;
+
+        // Written next to the thumbnail & moved, so a concurrent reader never reads half an image.
+        final File file = new File(directory, name);
+        final File temporary = new File(directory, name + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(temporary.toPath(), thumbnail);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            disk.add(name, thumbnail.length);
+        } catch (IOException e) {
+            temporary.delete();
+            e.printStackTrace();
+        }
+    }
+
+    private void putMemory(final long frame, final byte[] thumbnail) {
+        final byte[] previous = memory.put(frame, thumbnail);
+        if (previous != null) {
+            memoryBytes -= previous.length;
+        }
+        memoryBytes += thumbnail.length;
+
+        final Iterator<byte[]> iterator = memory.values().iterator();
+        while (memoryBytes > memoryCapacity && iterator.hasNext()) {
+            memoryBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the cache's counters, the bytes held in memory & the bytes stored in the directory.
+     */
+    public Map<String, Long> getStats() {
+        final Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("memory_hits", memoryHits.get());
+        stats.put("disk_hits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("prefetched", prefetched.get());
+        synchronized (this) {
+            stats.put("memory_bytes", memoryBytes);
+        }
+        stats.put("disk_bytes", disk.getBytes());
+        return stats;
+    }
+
+    /**
+     * The thumbnail files of one directory and their size, in access order.
+     * Only the index is guarded, files are written by the caches & deleted by the store outside the lock.
+     */
+    private static class DiskStore {
+
+        private final File directory;
+
+        private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(64, 0.75f, true);
+
+        private long bytes;
+
+        private long capacity = Long.MAX_VALUE;
+
+        /**
+         * Picks up the thumbnails which have been stored by previous sessions, the oldest ones are evicted first.
+         */
+        DiskStore(final File directory) {
+            this.directory = directory;
+
+            final File[] stored = directory.listFiles((dir, name) -> name.endsWith(".jpeg"));
+            if (stored == null)
+                return;
+
+            Arrays.sort(stored, Comparator.comparingLong(File::lastModified));
+            for (final File file : stored) {
+                files.put(file.getName(), file.length());
+                bytes += file.length();
+            }
+        }
+
+        void limit(final long capacity) {
+            final List<String> evicted;
+            synchronized (this) {
+                this.capacity = Math.min(this.capacity, capacity);
+                evicted = this.evict();
+            }
+            this.delete(evicted);
+        }
+
+        synchronized boolean contains(final String name) {
+            return files.containsKey(name);
+        }
+
+        /**
+         * @return whether the file is stored, marks it as recently used.
+         */
+        synchronized boolean touch(final String name) {
+            return files.get(name) != null;
+        }
+
+        synchronized void remove(final String name) {
+            final Long size = files.remove(name);
+            if (size != null) {
+                bytes -= size;
+            }
+        }
+
+        void add(final String name, final long size) {
+            final List<String> evicted;
+            synchronized (this) {
+                final Long previous = files.put(name, size);
+                bytes += size - (previous == null ? 0 : previous);
+                evicted = this.evict();
+            }
+            this.delete(evicted);
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Removes the least recently used files from the index until the directory fits its cap.
+         *
+         * @return the names of the files to delete.
+         */
+        private List<String> evict() {
+            final List<String> evicted = new ArrayList<>();
+            final Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+            while (bytes > capacity && iterator.hasNext()) {
+                final Map.Entry<String, Long> entry = iterator.next();
+                evicted.add(entry.getKey());
+                bytes -= entry.getValue();
+                iterator.remove();
+            }
+            return evicted;
+        }
+
+        private void delete(final List<String> evicted) {
+            for (final String name : evicted) {
+                new File(directory, name).delete();
+            }
+        }
+    }
+}
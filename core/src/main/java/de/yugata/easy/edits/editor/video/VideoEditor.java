@@ -2,23 +2,35 @@ package de.yugata.easy.edits.editor.video;
 
 
 import de.yugata.easy.edits.audio.AudioClip;
+import de.yugata.easy.edits.audio.AudioMixer;
 import de.yugata.easy.edits.editor.Editor;
 import de.yugata.easy.edits.editor.edit.EditInfo;
 import de.yugata.easy.edits.editor.edit.EditInfoBuilder;
 import de.yugata.easy.edits.editor.edit.EditingFlag;
 import de.yugata.easy.edits.filter.FilterManager;
 import de.yugata.easy.edits.filter.FilterWrapper;
+import de.yugata.easy.edits.util.DecoderPool;
 import de.yugata.easy.edits.util.FFmpegUtil;
+import de.yugata.easy.edits.util.MediaProbe;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
 import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static de.yugata.easy.edits.util.DecoderPool.DECODER_POOL;
 import static org.bytedeco.ffmpeg.global.avutil.*;
 
 /**
@@ -26,6 +38,11 @@ import static org.bytedeco.ffmpeg.global.avutil.*;
  */
 public class VideoEditor implements Editor {
 
+    /**
+     * The length of the fades at the edges of the audio clips, in microseconds. Avoids clicks where a clip starts or ends mid-waveform.
+     */
+    private static final long AUDIO_CLIP_FADE = 10_000L;
+
     private final List<VideoClip> videoClips;
 
 
@@ -40,6 +57,11 @@ public class VideoEditor implements Editor {
      */
     private FFmpegFrameGrabber videoGrabber;
 
+    /**
+     * The lease of the video grabber, the grabber is returned to the pool once the edit is done.
+     */
+    private DecoderPool.Lease videoLease;
+
     /**
      * The video's input path
      */
@@ -56,7 +78,12 @@ public class VideoEditor implements Editor {
 
     private final File outputFile;
 
-    private final File segmentAudioFile;
+    private final File workingDirectory;
+
+    /**
+     * The amount of workers which encode the video clips in parallel. Values <= 1 encode the clips sequentially into the output.
+     */
+    private final int segmentWorkers;
 
     public VideoEditor(final String videoPath,
                        final String overlayAudioPath,
@@ -64,13 +91,16 @@ public class VideoEditor implements Editor {
                        final List<VideoClip> videoClips,
                        final EnumSet<EditingFlag> flags,
                        final List<FilterWrapper> filters,
-                       final File workingDirectory) {
+                       final File workingDirectory,
+                       final int segmentWorkers) {
 
         this.videoPath = videoPath;
         this.overlayAudioPath = overlayAudioPath;
         this.videoClips = videoClips;
         this.editingFlags = flags;
         this.filters = filters;
+        this.workingDirectory = workingDirectory;
+        this.segmentWorkers = segmentWorkers;
 
         if (outputFile.exists()) {
             this.outputFile = new File(workingDirectory.getParent(), UUID.randomUUID() + outputFile.getName());
@@ -78,7 +108,7 @@ public class VideoEditor implements Editor {
             this.outputFile = outputFile;
         }
 
-        this.segmentAudioFile = new File(workingDirectory, UUID.randomUUID() + ".wav");
+        MediaProbe.persistTo(workingDirectory);
 
         if (flags.contains(EditingFlag.PRINT_DEBUG)) {
             FFmpegLogCallback.set();
@@ -88,16 +118,14 @@ public class VideoEditor implements Editor {
 
 
     /**
-     * Initializes & configure the frame grabber for the input video.
+     * Borrows the frame grabber for the input video from the decoder pool.
      */
     private void initFrameGrabber() {
-        if (videoGrabber == null) {
+        if (videoLease == null) {
             try {
-                this.videoGrabber = new FFmpegFrameGrabber(videoPath);
-                FFmpegUtil.configureDecoder(videoGrabber);
-                videoGrabber.start();
-
-            } catch (FFmpegFrameGrabber.Exception e) {
+                this.videoLease = DECODER_POOL.acquire(videoPath, 0);
+                this.videoGrabber = videoLease.getGrabber();
+            } catch (FrameGrabber.Exception e) {
                 throw new RuntimeException(e);
             }
         } else {
@@ -110,21 +138,18 @@ public class VideoEditor implements Editor {
     }
 
     /**
-     * Frees the resource allocated by the frame grabber
+     * Returns the frame grabber to the decoder pool
      */
     private void releaseFrameGrabber() {
-        if (videoGrabber != null) {
-            try {
-                videoGrabber.close();
-                this.videoGrabber = null;
-            } catch (FrameGrabber.Exception e) {
-                throw new RuntimeException(e);
-            }
+        if (videoLease != null) {
+            videoLease.close();
+            this.videoLease = null;
+            this.videoGrabber = null;
         }
     }
 
-    private FFmpegFrameRecorder getEncoder(final File outputFile, final EnumSet<EditingFlag> editingFlags, final FFmpegFrameGrabber decoder) throws FFmpegFrameRecorder.Exception {
-        final FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, decoder.getImageWidth(), decoder.getImageHeight(), 2);
+    private FFmpegFrameRecorder getEncoder(final File outputFile, final EnumSet<EditingFlag> editingFlags, final FFmpegFrameGrabber decoder, final int audioChannels) throws FFmpegFrameRecorder.Exception {
+        final FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, decoder.getImageWidth(), decoder.getImageHeight(), audioChannels);
 
 
         recorder.setFormat("mkv");
@@ -151,7 +176,7 @@ public class VideoEditor implements Editor {
         }
 
         recorder.setAudioOption("ac", "2"); // Downsample the 5.1 to stereo
-        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H265);
+        FFmpegUtil.configureVideoCodec(recorder, avcodec.AV_CODEC_ID_H265);
         recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
 
         recorder.setSampleFormat(avutil.AV_SAMPLE_FMT_FLTP);
@@ -164,113 +189,208 @@ public class VideoEditor implements Editor {
         return recorder;
     }
 
-    private void pushAudioFilter(FFmpegFrameGrabber videoGrabber, final FFmpegFrameFilter filter, final int n, final AudioClip audioClip) throws FFmpegFrameGrabber.Exception, FFmpegFrameFilter.Exception {
-        videoGrabber.setAudioTimestamp(audioClip.getTimestamp());
-
-        Frame frame;
-        while ((frame = videoGrabber.grabSamples()) != null && (videoGrabber.getTimestamp() - audioClip.getTimestamp()) <= audioClip.getLength()) {
-            filter.push(n, frame);
-        }
+    /**
+     * Opens the source of an audio clip: a grabber on the input video, positioned at the clip's timestamp.
+     * The grabbers are borrowed from the decoder pool, so consecutive clips reuse a warm grabber instead of opening the video again.
+     *
+     * @param audioClip  the clip to read.
+     * @param sampleRate the mix's sample rate, the clip's audio is resampled to it.
+     * @return the clip's source, which returns the grabber once closed.
+     */
+    private AudioMixer.Source openClipSource(final AudioClip audioClip, final int sampleRate) throws FrameGrabber.Exception {
+        final DecoderPool.Lease lease = DECODER_POOL.acquire(videoPath, "mix_" + sampleRate, source -> {
+            final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source);
+            grabber.setSampleFormat(AV_SAMPLE_FMT_FLTP);
+            grabber.setSampleRate(sampleRate);
+            grabber.setAudioChannels(2);
+            return grabber;
+        }, audioClip.getTimestamp());
+
+        lease.getGrabber().setAudioTimestamp(audioClip.getTimestamp());
+        return new AudioMixer.GrabberSource(lease.getGrabber(), null, lease);
     }
 
 
-    private void combineAudioClips() throws FrameRecorder.Exception, FrameFilter.Exception, FFmpegFrameGrabber.Exception {
-        // FIXME: In an ideal world, we would not need this. the data would already be in the audio clip.
-        this.initFrameGrabber();
-
-        // Audio recorder
-        final FFmpegFrameRecorder audioRecorder = new FFmpegFrameRecorder(segmentAudioFile, 2);
-        audioRecorder.setAudioOption("ac", "2"); // Downsample the 5.1 to stereo
-        audioRecorder.setFrameRate(videoGrabber.getAudioFrameRate());
-        audioRecorder.setSampleRate(videoGrabber.getSampleRate()); // Sample rate from the audio source
-        audioRecorder.setSampleFormat(AV_SAMPLE_FMT_FLTP);
-        audioRecorder.setAudioCodec(avcodec.AV_CODEC_ID_AC3);
-        audioRecorder.start();
-
-        // Filter to convert the supplied audio into the same format & sample rate as the recorder.
-        final FFmpegFrameFilter convertAudioFilter = convertAudioFilter(audioRecorder);
-
-        // Record the background audio.
+    /**
+     * Decodes a single video clip from the source video, pushes its frames through the filters and records them.
+     * Both the sequential & the parallel path encode the clips through this method.
+     *
+     * @param videoClip         the clip to encode.
+     * @param recorder          the recorder to record the filtered frames to.
+     * @param editInfo          the edit's info, needed to populate the transition filters.
+     * @param simpleVideoFilter optional: the chained video filters, may be null.
+     */
+    private void encodeClip(final VideoClip videoClip, final FFmpegFrameRecorder recorder, final EditInfo editInfo, final FFmpegFrameFilter simpleVideoFilter) throws FrameGrabber.Exception, FrameFilter.Exception {
+        // grabber for the individual clip segment
+        final FFmpegFrameGrabber segmentGrabber = baseSegmentGrabber(new File(videoPath), recorder, null);
+        segmentGrabber.setTimestamp(videoClip.getTimeStamp());
 
-        // Grabs the audio frames from the supplied audio
-        final FFmpegFrameGrabber overlayAudioGrabber = new FFmpegFrameGrabber(overlayAudioPath);
-        overlayAudioGrabber.setSampleFormat(AV_SAMPLE_FMT_FLTP);
-        overlayAudioGrabber.start();
+        // Optional: Populate the transition filters, we have to reconfigure them every time, as the offsets depend on it.
+        final FFmpegFrameFilter transitionFilter = FFmpegUtil.populateTransitionFilters(editInfo);
 
-        // Feed the background audio into the single overlay filter.
-        // This overlay filter will then be
-        Frame audioFrame;
+        // Add the filters to a chain.
+        final FFmpegFrameFilter[] filters = simpleVideoFilter == null ? new FFmpegFrameFilter[0] : transitionFilter == null ? new FFmpegFrameFilter[]{simpleVideoFilter} : new FFmpegFrameFilter[]{transitionFilter, simpleVideoFilter};
 
+        // grab the video frames of the clip & send them to the filters
+        Frame frame;
+        while (segmentGrabber.getTimestamp() - videoClip.getTimeStamp() < videoClip.getLength() && (frame = segmentGrabber.grabImage()) != null) {
+            FFmpegUtil.pushToFilters(frame, recorder, filters);
+        }
 
+        // Close the transition filter, free the resources
+        if (transitionFilter != null)
+            transitionFilter.close();
 
+        segmentGrabber.close(); // Close the segment grabber, free the resources.
+    }
 
-        // Sort the audio filters by their appearance
+    /**
+     * Encodes every video clip into its own temporary segment in the working directory.
+     * The clips are distributed over a bounded pool with {@link #segmentWorkers} threads.
+     * Every worker has its own recorder & filter chain, as neither of them may be shared between threads.
+     *
+     * @param editInfo the edit's info, needed to populate the filters.
+     * @return the encoded segments in clip order.
+     */
+    private List<File> encodeSegments(final EditInfo editInfo) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(segmentWorkers, videoClips.size()));
+        final List<Future<File>> futures = new ArrayList<>();
+        final List<File> segmentFiles = new ArrayList<>();
+
+        for (int i = 0; i < videoClips.size(); i++) {
+            final VideoClip videoClip = videoClips.get(i);
+            final File segmentFile = new File(workingDirectory, String.format("segment_%d_%s.mkv", i, UUID.randomUUID()));
+            segmentFiles.add(segmentFile);
+
+            futures.add(executor.submit(() -> {
+                // Video only, the audio is recorded in the final stage.
+                final FFmpegFrameRecorder segmentRecorder = getEncoder(segmentFile, editingFlags, videoGrabber, 0);
+                FFmpegFrameFilter simpleVideoFilter = null;
+                try {
+                    segmentRecorder.start();
+                    simpleVideoFilter = FFmpegUtil.populateVideoFilters(editInfo);
+                    encodeClip(videoClip, segmentRecorder, editInfo, simpleVideoFilter);
+                } finally {
+                    if (simpleVideoFilter != null)
+                        simpleVideoFilter.close();
+
+                    segmentRecorder.close();
+                }
+                return segmentFile;
+            }));
+        }
 
+        boolean done = false;
+        try {
+            // Wait in clip order, not in order of completion.
+            for (final Future<File> future : futures) {
+                future.get();
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Encoding a segment failed.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (!done) {
+                // The other workers may still be writing their segments, they are deleted once they are done.
+                try {
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                segmentFiles.forEach(File::delete);
+            }
+        }
 
+        return segmentFiles;
+    }
 
-        // Check audio clip overlap
-        for (final AudioClip audioClip : audioClips) {
-            // Count the amount of overlays with the other audio clips.
-            final int overlaps = (int) audioClips.stream().filter(clip -> clip.uniqueOverlap(audioClip)).count();
-            // Audio filter which overlays audio and input audio if there is input audio given.
-            final FFmpegFrameFilter overlayFilter = overlayAudioFilter(overlaps + 1, audioRecorder);
+    /**
+     * Stitches the encoded segments together through ffmpeg's concat demuxer & copies their packets into the recorder without re-encoding.
+     * The recorder is started with the demuxer's format context, the audio is encoded into the recorder afterwards.
+     *
+     * @param segmentFiles the segments in clip order.
+     * @param recorder     the (unstarted) recorder of the final output.
+     * @return the concat grabber, which has to be closed after the recorder.
+     */
+    private FFmpegFrameGrabber concatSegments(final List<File> segmentFiles, final FFmpegFrameRecorder recorder) throws IOException {
+        final File concatList = new File(workingDirectory, UUID.randomUUID() + ".txt");
+        final List<String> lines = new ArrayList<>();
+        for (final File segmentFile : segmentFiles) {
+            lines.add("file '" + segmentFile.getAbsolutePath().replace("'", "'\\''") + "'");
+        }
 
+        final FFmpegFrameGrabber concatGrabber = new FFmpegFrameGrabber(concatList);
+        boolean copied = false;
+        try {
+            Files.write(concatList.toPath(), lines);
 
-            for (int i = 0; i < audioClips.size(); i++) {
-                final AudioClip comparisonClip = audioClips.get(i);
-                // Overlap check.
-                if (audioClip.uniqueOverlap(comparisonClip)) {
+            concatGrabber.setFormat("concat");
+            concatGrabber.setOption("safe", "0");
+            concatGrabber.start();
 
-                    pushAudioFilter(videoGrabber, overlayFilter, i, comparisonClip);
-                }
+            // Copy the video stream, the segments have already been encoded with the recorder's settings.
+            recorder.setVideoCodec(concatGrabber.getVideoCodec());
+            recorder.start(concatGrabber.getFormatContext());
 
-                // Remove the clip, as it has been layered already.
-                audioClips.remove(comparisonClip);
+            AVPacket packet;
+            while ((packet = concatGrabber.grabPacket()) != null) {
+                recorder.recordPacket(packet);
             }
+            copied = true;
+        } finally {
+            if (!copied)
+                closeQuietly(concatGrabber);
+            concatList.delete();
+        }
 
-            // push the audio clip to the filter
-            pushAudioFilter(videoGrabber, overlayFilter, overlaps + 1, audioClip);
-
-            // pull from the fed overlay filter & record at the appropriate time.
-            Frame frame;
-            while ((frame = overlayFilter.pull()) != null) {
-
-            }
+        return concatGrabber;
+    }
 
-            overlayFilter.close(); // Close the overlay filter.
+    private static void closeQuietly(final AutoCloseable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        convertAudioFilter.close();
-        audioRecorder.close();
-        this.releaseFrameGrabber();
     }
 
-
     public void edit() {
 
         this.initFrameGrabber();
+        // Keep the grabbers of the audio clips warm for the whole edit.
+        DECODER_POOL.retain(videoPath);
+
+        FFmpegFrameGrabber overlayAudioGrabber = null;
+        FFmpegFrameRecorder recorder = null;
+        FFmpegFrameFilter simpleAudioFiler = null;
+        // Holds the concatenated segments, which have to outlive the recorder's packet copying.
+        FFmpegFrameGrabber concatGrabber = null;
+        List<File> segmentFiles = new ArrayList<>();
         try {
-            // Grabs the audio frames from the supplied audio
-            final FFmpegFrameGrabber overlayAudioGrabber = new FFmpegFrameGrabber(overlayAudioPath);
+            // Grabs the audio frames from the supplied audio, as stereo so the frames can be mixed directly.
+            overlayAudioGrabber = new FFmpegFrameGrabber(overlayAudioPath);
             overlayAudioGrabber.setSampleFormat(AV_SAMPLE_FMT_FLTP);
+            overlayAudioGrabber.setAudioChannels(2);
             overlayAudioGrabber.start();
 
-            // grabs audio frames from the concatenated sequence audio.
-            final FFmpegFrameGrabber segmentAudioGrabber = new FFmpegFrameGrabber(segmentAudioFile);
-            // segmentAudioGrabber.setSampleMode(FrameGrabber.SampleMode.FLOAT);
-            segmentAudioGrabber.setSampleFormat(AV_SAMPLE_FMT_FLTP); // Does not read properly-
-            segmentAudioGrabber.start();
-
             // Configure the recorder
-            final FFmpegFrameRecorder recorder = getEncoder(outputFile, editingFlags, videoGrabber);
-            recorder.setAudioCodec(segmentAudioGrabber.getAudioCodec());
-            recorder.setSampleRate(segmentAudioGrabber.getSampleRate());
-            recorder.setSampleFormat(segmentAudioGrabber.getSampleFormat());
-            recorder.start();
+            recorder = getEncoder(outputFile, editingFlags, videoGrabber, 2);
+            recorder.setSampleRate(overlayAudioGrabber.getSampleRate());
 
+            long editTime = 0;
+            for (final VideoClip videoClip : videoClips) {
+                editTime += videoClip.getLength();
+            }
 
             // Edit: I fucking hate this, we just pass the frame grabber in the fucking future...
             final EditInfo editInfo = new EditInfoBuilder()
-                    .setEditTime(segmentAudioGrabber.getLengthInTime())
+                    .setEditTime(editTime)
                     .setAudioCodec(overlayAudioGrabber.getAudioCodec())
                     .setAspectRatio(videoGrabber.getAspectRatio())
                     .setAudioChannels(overlayAudioGrabber.getAudioChannels())
@@ -294,102 +414,64 @@ public class VideoEditor implements Editor {
 
 
             // optional: audio filter with chained  audio filters.
-            final FFmpegFrameFilter simpleAudioFiler = simpleAudioFilter(recorder);
-
-            // Audio filter which overlays audio and input audio if there is input audio given.
-            final FFmpegFrameFilter overlayFilter = overlayAudioFilter(5, recorder);
-
-            // Filter to convert the supplied audio into the same format & sample rate as the recorder.
-            final FFmpegFrameFilter convertAudioFilter = convertAudioFilter(recorder);
-
-            // optional: Frame filter with chained together video filters
-            final FFmpegFrameFilter simpleVideoFiler = FFmpegUtil.populateVideoFilters(editInfo);
+            simpleAudioFiler = simpleAudioFilter(recorder);
 
             /* Workflow */
 
-            //  1. Record the segments video frames.
-            //  2. Record the audio frames in a separate loop#
+            //  1. Record the segments video frames, either directly or through the parallel segment workers.
+            //  2. Mix the overlay audio & the audio clips into the recorder
 
             /* video clip loop */
 
-            for (final VideoClip videoClip : videoClips) {
-                // grabber for the individual clip segment
-                final FFmpegFrameGrabber segmentGrabber = baseSegmentGrabber(new File(""), recorder, "h265_cuvid");
-
-                // Optional: Populate the transition filters, we have to reconfigure them every time, as the offsets depend on it.
-                final FFmpegFrameFilter transitionFilter = FFmpegUtil.populateTransitionFilters(editInfo);
-
-                // Add the filters to a chain.
-                final FFmpegFrameFilter[] filters = simpleVideoFiler == null ? new FFmpegFrameFilter[0] : transitionFilter == null ? new FFmpegFrameFilter[]{simpleVideoFiler} : new FFmpegFrameFilter[]{transitionFilter, simpleVideoFiler};
-
-                // grab the video frames & send them to the filters
-                Frame frame;
-                while ((frame = segmentGrabber.grabImage()) != null) {
-                    FFmpegUtil.pushToFilters(frame, recorder, filters);
+            if (segmentWorkers > 1 && videoClips.size() > 1) {
+                segmentFiles = encodeSegments(editInfo);
+                concatGrabber = concatSegments(segmentFiles, recorder);
+            } else {
+                recorder.start();
+
+                // optional: Frame filter with chained together video filters
+                final FFmpegFrameFilter simpleVideoFiler = FFmpegUtil.populateVideoFilters(editInfo);
+
+                try {
+                    for (final VideoClip videoClip : videoClips) {
+                        encodeClip(videoClip, recorder, editInfo, simpleVideoFiler);
+                    }
+                } finally {
+                    closeQuietly(simpleVideoFiler);
                 }
-
-                // Close the transition filter, free the resources
-                if (transitionFilter != null)
-                    transitionFilter.close();
-
-                segmentGrabber.close(); // Close the segment grabber, free the resources.
             }
 
             /* End video loop */
 
 
-            Frame segmentAudio;
-            while ((segmentAudio = segmentAudioGrabber.grabSamples()) != null) {
-                // Push the background audio to [0], no volume decrease
-                overlayFilter.push(0, segmentAudio);
-            }
-
-            Frame audioFrame;
-            while ((audioFrame = overlayAudioGrabber.grabSamples()) != null) {
-                // process the audio frame, convert the audio frame to our sample-rate, sample-format
-                convertAudioFilter.push(audioFrame);
-
-                Frame convertAudioFrame;
-                if ((convertAudioFrame = convertAudioFilter.pull()) != null) {
-                    FFmpegUtil.pushToFilterOrElse(convertAudioFrame, simpleAudioFiler, f -> {
-                        try {
-                            overlayFilter.push(1, f);
-                        } catch (FFmpegFrameFilter.Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                }
-            }
+            // The overlay audio runs through the audio filters, the clips are laid on top of it at their start in the edit.
+            final FFmpegFrameGrabber overlayGrabber = overlayAudioGrabber;
+            final FFmpegFrameRecorder mixRecorder = recorder;
+            final FFmpegFrameFilter mixFilter = simpleAudioFiler;
+            final AudioMixer mixer = new AudioMixer(recorder.getSampleRate(), 2);
+            mixer.addTrack(0, overlayAudioGrabber.getLengthInTime(), 1f, 0, 0, () -> new AudioMixer.GrabberSource(overlayGrabber, mixFilter, null));
 
-            // Pull from the overlay filter & record.
-            Frame overlayFrame;
-            while ((overlayFrame = overlayFilter.pull()) != null) {
-                // Set the timestamp in the recorder.
-                recorder.setTimestamp(overlayFrame.timestamp);
-                recorder.record(overlayFrame);
+            for (final AudioClip audioClip : audioClips) {
+                mixer.addClip(audioClip, 1f, AUDIO_CLIP_FADE, AUDIO_CLIP_FADE, () -> openClipSource(audioClip, mixRecorder.getSampleRate()));
             }
 
+            mixer.mix(mixer.recorderSink(recorder));
 
             /* End audio grabbing */
-
-            /* Close & free resources */
-
-            if (simpleVideoFiler != null)
-                simpleVideoFiler.close();
-
-            if (simpleAudioFiler != null)
-                simpleAudioFiler.close();
-
-
-            overlayFilter.close();
-            overlayAudioGrabber.close();
-            segmentAudioGrabber.close();
-
-            recorder.close();
-        } catch (FrameRecorder.Exception | FrameGrabber.Exception | FrameFilter.Exception e) {
+        } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            /* Close & free resources */
+            closeQuietly(simpleAudioFiler);
+            closeQuietly(overlayAudioGrabber);
+            closeQuietly(recorder);
+            // The recorder copies the packets of the concatenated segments until it is closed.
+            closeQuietly(concatGrabber);
+            segmentFiles.forEach(File::delete);
+
             this.releaseFrameGrabber();
+            DECODER_POOL.release(videoPath);
+            MediaProbe.store(workingDirectory);
         }
     }
 
@@ -18,6 +18,7 @@ public class VideoEditorBuilder {
     private List<VideoClip> videoClips = new ArrayList<>();
     private EnumSet<EditingFlag> flags = EnumSet.noneOf(EditingFlag.class);
     private File workingDirectory;
+    private int segmentWorkers = 1;
 
 
     public VideoEditorBuilder setVideoPath(String videoPath) {
@@ -55,6 +56,11 @@ public class VideoEditorBuilder {
         return this;
     }
 
+    public VideoEditorBuilder setSegmentWorkers(int segmentWorkers) {
+        this.segmentWorkers = segmentWorkers;
+        return this;
+    }
+
 
     //TODO: Maybe move to filter wrapper
     public VideoEditor fromJson(final String json) {
@@ -83,6 +89,8 @@ public class VideoEditorBuilder {
         final String sourceAudio = root.get("source_audio").getAsString();
         final String outputPath = root.get("output_path").getAsString();
         final String workingPath = root.get("working_path").getAsString();
+        // Optional, the clips are encoded sequentially if not given.
+        final int segmentWorkers = editorState.has("segment_workers") ? editorState.get("segment_workers").getAsInt() : 1;
 
         return setVideoPath(sourceVideo)
                 .setWorkingDirectory(new File(workingPath))
@@ -91,11 +99,12 @@ public class VideoEditorBuilder {
                 .setFilters(mappedFilters)
                 .setFlags(mappedEditingFlags)
                 .setVideoClips(mappedVideoClips)
+                .setSegmentWorkers(segmentWorkers)
                 .createVideoEditor();
     }
 
 
     public VideoEditor createVideoEditor() {
-        return new VideoEditor(videoPath, audioPath, outputFile, videoClips, flags, filters, workingDirectory);
+        return new VideoEditor(videoPath, audioPath, outputFile, videoClips, flags, filters, workingDirectory, segmentWorkers);
     }
 }
\ No newline at end of file
@@ -0,0 +1,243 @@
+package de.yugata.easy.edits.util;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avutil.AVBufferRef;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.util.*;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * Picks the decoder & encoder used for a codec.
+ * <br>
+ * For every codec there is a list of candidates, ordered from fastest to slowest: the cuda (cuvid / nvenc) implementations first,
+ * then the multithreaded software implementations. The first time a codec is needed, the candidates are opened one after another,
+ * the first one which opens on this machine is selected, cached & reported. This way the same job runs on the gpu where there is one
+ * & falls back to the cpu where there is none, instead of failing.
+ */
+public class CodecSelector {
+
+    public static final CodecSelector CODEC_SELECTOR = new CodecSelector();
+
+    /**
+     * Decoder candidates per codec, fastest first. Codecs without candidates use ffmpeg's default decoder.
+     */
+    private static final Map<Integer, List<String>> DECODERS = new HashMap<>();
+
+    /**
+     * Encoder candidates per codec, fastest first. Codecs without candidates use ffmpeg's default encoder.
+     */
+    private static final Map<Integer, List<String>> ENCODERS = new HashMap<>();
+
+    static {
+        DECODERS.put(AV_CODEC_ID_H264, Arrays.asList("h264_cuvid", "h264"));
+        DECODERS.put(AV_CODEC_ID_HEVC, Arrays.asList("hevc_cuvid", "hevc"));
+        DECODERS.put(AV_CODEC_ID_AV1, Arrays.asList("av1_cuvid", "libdav1d", "av1"));
+        DECODERS.put(AV_CODEC_ID_VP9, Arrays.asList("vp9_cuvid", "vp9"));
+
+        ENCODERS.put(AV_CODEC_ID_H264, Arrays.asList("h264_nvenc", "libx264", "libopenh264"));
+        ENCODERS.put(AV_CODEC_ID_HEVC, Arrays.asList("hevc_nvenc", "libx265"));
+    }
+
+    /**
+     * Whether a cuda device can be created, null until checked.
+     */
+    private Boolean cudaAvailable;
+
+    private final Map<Integer, Selection> decoders = new HashMap<>();
+    private final Map<Integer, Selection> encoders = new HashMap<>();
+
+    /**
+     * @param codec the codec id.
+     * @return the fastest decoder that works on this machine, null if no decoder for the codec opens.
+     */
+    public synchronized Selection decoderFor(final int codec) {
+        if (codec == AV_CODEC_ID_NONE)
+            return null;
+
+        if (!decoders.containsKey(codec)) {
+            final Selection selection = select(codec, DECODERS.get(codec), true);
+            decoders.put(codec, selection);
+            report("Decoder", codec, selection);
+        }
+        return decoders.get(codec);
+    }
+
+    /**
+     * @param codec the codec id.
+     * @return the fastest encoder that works on this machine, null if no encoder for the codec opens.
+     */
+    public synchronized Selection encoderFor(final int codec) {
+        if (codec == AV_CODEC_ID_NONE)
+            return null;
+
+        if (!encoders.containsKey(codec)) {
+            final Selection selection = select(codec, ENCODERS.get(codec), false);
+            encoders.put(codec, selection);
+            report("Encoder", codec, selection);
+        }
+        return encoders.get(codec);
+    }
+
+    /**
+     * Selects the decoders & encoders of all codecs with candidates up front, e.g. at startup.
+     *
+     * @return the selections, see {@link #getReport()}.
+     */
+    public Map<String, String> probeAll() {
+        DECODERS.keySet().forEach(this::decoderFor);
+        ENCODERS.keySet().forEach(this::encoderFor);
+        return getReport();
+    }
+
+    /**
+     * @return the selections made so far, keyed by "decoder" / "encoder" & the codec's name.
+     */
+    public synchronized Map<String, String> getReport() {
+        final Map<String, String> report = new LinkedHashMap<>();
+        decoders.forEach((codec, selection) -> report.put("decoder " + codecName(codec), String.valueOf(selection)));
+        encoders.forEach((codec, selection) -> report.put("encoder " + codecName(codec), String.valueOf(selection)));
+        return report;
+    }
+
+    private static void report(final String kind, final int codec, final Selection selection) {
+        System.out.println(kind + " for " + codecName(codec) + ": " + (selection == null ? "none available" : selection));
+    }
+
+    private static String codecName(final int codec) {
+        final BytePointer name = avcodec_get_name(codec);
+        return name == null ? String.valueOf(codec) : name.getString();
+    }
+
+    /**
+     * Creates & releases a cuda device context once. Failing nvenc encoders may crash while closing (ffmpeg 6.0),
+     * so the hardware candidates are only opened if there is a device for them.
+     */
+    private boolean isCudaAvailable() {
+        if (cudaAvailable == null) {
+            final AVBufferRef device = new AVBufferRef(null);
+            this.cudaAvailable = av_hwdevice_ctx_create(device, AV_HWDEVICE_TYPE_CUDA, (String) null, null, 0) >= 0;
+            av_buffer_unref(device);
+        }
+        return cudaAvailable;
+    }
+
+    private Selection select(final int codec, final List<String> candidates, final boolean decoder) {
+        final List<AVCodec> codecs = new ArrayList<>();
+
+        if (candidates != null) {
+            for (final String candidate : candidates) {
+                final AVCodec found = decoder ? avcodec_find_decoder_by_name(candidate) : avcodec_find_encoder_by_name(candidate);
+                if (found == null || found.isNull())
+                    continue;
+
+                if ((found.capabilities() & AV_CODEC_CAP_HARDWARE) != 0 && !isCudaAvailable())
+                    continue;
+
+                codecs.add(found);
+            }
+        }
+
+        // ffmpeg's default as the last resort.
+        final AVCodec fallback = decoder ? avcodec_find_decoder(codec) : avcodec_find_encoder(codec);
+        if (fallback != null && !fallback.isNull())
+            codecs.add(fallback);
+
+        for (final AVCodec candidate : codecs) {
+            if (opens(candidate, decoder)) {
+                final boolean hardware = (candidate.capabilities() & AV_CODEC_CAP_HARDWARE) != 0;
+                return new Selection(candidate.name().getString(), hardware);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Test-opens the codec with a small 720p context. Hardware codecs fail to open if there is no device they can run on.
+     */
+    private static boolean opens(final AVCodec codec, final boolean decoder) {
+        final AVCodecContext context = avcodec_alloc_context3(codec);
+        if (context == null || context.isNull())
+            return false;
+
+        try {
+            context.width(1280);
+            context.height(720);
+
+            if (!decoder) {
+                context.time_base(new AVRational().num(1).den(25));
+                context.pix_fmt(pixelFormatOf(codec));
+            }
+            return avcodec_open2(context, codec, (AVDictionary) null) >= 0;
+        } finally {
+            avcodec_free_context(context);
+        }
+    }
+
+    /**
+     * @return yuv420p if the encoder supports it, otherwise the encoder's first pixel format.
+     */
+    private static int pixelFormatOf(final AVCodec codec) {
+        final IntPointer formats = codec.pix_fmts();
+        if (formats == null || formats.isNull())
+            return AV_PIX_FMT_YUV420P;
+
+        for (int i = 0; formats.get(i) != AV_PIX_FMT_NONE; i++) {
+            if (formats.get(i) == AV_PIX_FMT_YUV420P)
+                return AV_PIX_FMT_YUV420P;
+        }
+        return formats.get(0);
+    }
+
+    /**
+     * A selected codec implementation. Software codecs run with as many threads as there are cores.
+     */
+    public static class Selection {
+
+        private final String name;
+        private final boolean hardware;
+
+        private Selection(final String name, final boolean hardware) {
+            this.name = name;
+            this.hardware = hardware;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isHardware() {
+            return hardware;
+        }
+
+        public void apply(final FFmpegFrameGrabber grabber) {
+            grabber.setVideoCodecName(name);
+
+            if (!hardware) {
+                grabber.setVideoOption("threads", "auto");
+                grabber.setVideoOption("thread_type", "frame+slice");
+            }
+        }
+
+        public void apply(final FFmpegFrameRecorder recorder) {
+            recorder.setVideoCodecName(name);
+
+            if (!hardware) {
+                recorder.setVideoOption("threads", "auto");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + (hardware ? " (hardware)" : " (software, threads=auto)");
+        }
+    }
+}
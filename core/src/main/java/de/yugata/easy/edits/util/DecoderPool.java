@@ -0,0 +1,217 @@
+package de.yugata.easy.edits.util;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.util.*;
+
+/**
+ * Shares started {@link FFmpegFrameGrabber} between the preview, thumbnail, editing & playback paths.
+ * <br>
+ * Grabbers are lent out through {@link Lease}s and returned to the pool once the lease is closed.
+ * As long as a source is retained, up to {@link #warmGrabbers} started grabbers per source & profile are kept warm,
+ * so the open, probe & start cost is paid once per session rather than once per call.
+ * The video codec is looked up through the source's {@link MediaProbe}.
+ * <br>
+ * Grabbers are configured differently depending on who uses them (e.g. the previews scale the images down),
+ * every configuration is a profile of its own & pooled separately.
+ */
+public class DecoderPool {
+
+    /**
+     * The application wide pool, keeps two warm grabbers per source & profile.
+     */
+    public static final DecoderPool DECODER_POOL = new DecoderPool(2);
+
+    /**
+     * The profile of grabbers that are configured through {@link FFmpegUtil#configureDecoder(FFmpegFrameGrabber, int)} only.
+     */
+    public static final String DEFAULT_PROFILE = "default";
+
+    /**
+     * Creates & configures a new, unstarted grabber for a source.
+     */
+    public interface DecoderFactory {
+        FFmpegFrameGrabber create(final String source) throws FrameGrabber.Exception;
+    }
+
+    private final int warmGrabbers;
+
+    /**
+     * Amount of sessions that hold on to a source.
+     */
+    private final Map<String, Integer> references = new HashMap<>();
+
+    /**
+     * Idle, started grabbers keyed by source & profile.
+     */
+    private final Map<String, List<FFmpegFrameGrabber>> idleGrabbers = new HashMap<>();
+
+    public DecoderPool(final int warmGrabbers) {
+        this.warmGrabbers = warmGrabbers;
+    }
+
+    private static String keyOf(final String source, final String profile) {
+        return profile + "@" + source;
+    }
+
+    /**
+     * Marks the beginning of a session on the source. Returned grabbers are only kept warm while a source is retained.
+     *
+     * @param source the source's path.
+     */
+    public synchronized void retain(final String source) {
+        references.merge(source, 1, Integer::sum);
+    }
+
+    /**
+     * Ends a session on the source. Once the last session has ended, the idle grabbers of the source are closed.
+     *
+     * @param source the source's path.
+     */
+    public void release(final String source) {
+        final List<FFmpegFrameGrabber> toClose = new ArrayList<>();
+
+        synchronized (this) {
+            final Integer count = references.get(source);
+            if (count == null)
+                return;
+
+            if (count > 1) {
+                references.put(source, count - 1);
+                return;
+            }
+            references.remove(source);
+
+            final Iterator<Map.Entry<String, List<FFmpegFrameGrabber>>> iterator = idleGrabbers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, List<FFmpegFrameGrabber>> entry = iterator.next();
+                if (entry.getKey().endsWith("@" + source)) {
+                    toClose.addAll(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        toClose.forEach(DecoderPool::closeQuietly);
+    }
+
+    /**
+     * @param source the source's path.
+     * @return the source's video codec id, from the source's cached {@link MediaProbe}.
+     */
+    public int probeVideoCodec(final String source) throws FrameGrabber.Exception {
+        return MediaProbe.of(source).getVideoCodec();
+    }
+
+    /**
+     * Lends a grabber of the default profile.
+     *
+     * @see #acquire(String, String, DecoderFactory, long)
+     */
+    public Lease acquire(final String source, final long positionHint) throws FrameGrabber.Exception {
+        return acquire(source, DEFAULT_PROFILE, s -> {
+            final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(s);
+            FFmpegUtil.configureDecoder(grabber, probeVideoCodec(s));
+            return grabber;
+        }, positionHint);
+    }
+
+    /**
+     * Lends a started grabber for the source. An idle grabber is reused if there is one,
+     * otherwise a new one is created through the factory & started.
+     *
+     * @param source       the source's path.
+     * @param profile      the name of the grabber configuration the factory creates.
+     * @param factory      creates & configures a new grabber, if none is idle.
+     * @param positionHint the timestamp (in microseconds) the borrower is going to read from, negative if unknown.
+     *                     The idle grabber closest to (preferably just before) the position is lent, so a short forward read is cheaper than a seek.
+     * @return the lease, which has to be closed to return the grabber.
+     */
+    public Lease acquire(final String source, final String profile, final DecoderFactory factory, final long positionHint) throws FrameGrabber.Exception {
+        final String key = keyOf(source, profile);
+
+        synchronized (this) {
+            final List<FFmpegFrameGrabber> idle = idleGrabbers.get(key);
+            if (idle != null && !idle.isEmpty()) {
+                return new Lease(source, key, idle.remove(closestTo(idle, positionHint)));
+            }
+        }
+
+        // Nothing idle, open a new one outside the lock.
+        final FFmpegFrameGrabber grabber = factory.create(source);
+        grabber.start();
+        return new Lease(source, key, grabber);
+    }
+
+    private static int closestTo(final List<FFmpegFrameGrabber> grabbers, final long positionHint) {
+        if (positionHint < 0)
+            return grabbers.size() - 1;
+
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+
+        for (int i = 0; i < grabbers.size(); i++) {
+            final long timestamp = grabbers.get(i).getTimestamp();
+            // Grabbers behind the position only have to read forward, grabbers ahead of it always have to seek.
+            final long distance = timestamp <= positionHint ? positionHint - timestamp : Long.MAX_VALUE / 2 + (timestamp - positionHint);
+
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private void giveBack(final String source, final String key, final FFmpegFrameGrabber grabber) {
+        synchronized (this) {
+            if (references.containsKey(source)) {
+                final List<FFmpegFrameGrabber> idle = idleGrabbers.computeIfAbsent(key, k -> new ArrayList<>());
+                if (idle.size() < warmGrabbers) {
+                    idle.add(grabber);
+                    return;
+                }
+            }
+        }
+        closeQuietly(grabber);
+    }
+
+    private static void closeQuietly(final FFmpegFrameGrabber grabber) {
+        try {
+            grabber.close();
+        } catch (FrameGrabber.Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A grabber lent out by the pool. The grabber may only be used by the borrower until the lease is closed.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final String source, key;
+        private FFmpegFrameGrabber grabber;
+
+        private Lease(final String source, final String key, final FFmpegFrameGrabber grabber) {
+            this.source = source;
+            this.key = key;
+            this.grabber = grabber;
+        }
+
+        public FFmpegFrameGrabber getGrabber() {
+            return grabber;
+        }
+
+        /**
+         * Returns the grabber to the pool, or closes it if the pool does not keep it.
+         */
+        @Override
+        public void close() {
+            if (grabber != null) {
+                giveBack(source, key, grabber);
+                this.grabber = null;
+            }
+        }
+    }
+}
@@ -111,6 +111,47 @@ public class FFmpegUtil {
     }
 
 
+    /**
+     * Receives the frames pulled from a filter chain, together with their pixel format.
+     */
+    public interface FrameConsumer {
+        void accept(final Frame frame, final int pixelFormat) throws FrameFilter.Exception, InterruptedException;
+    }
+
+    /**
+     * Pushes a {@link Frame} through a pipeline (array) of {@link FFmpegFrameFilter}, like {@link #pushToFilters(Frame, FFmpegFrameRecorder, FFmpegFrameFilter...)},
+     * but hands the processed frames to the consumer instead of recording them.
+     * The frames handed to the consumer are owned by the last filter & only valid until the consumer returns.
+     *
+     * @param frame       the frame to push through the filters.
+     * @param pixelFormat the frame's pixel format.
+     * @param consumer    receives the frame(s) that moved through the entire filter chain.
+     * @param filters     array of filters the frame is pushed through and pulled from.
+     */
+    public static void pushToFilters(final Frame frame, final int pixelFormat, final FrameConsumer consumer, final FFmpegFrameFilter... filters) throws FrameFilter.Exception, InterruptedException {
+        if (filters.length == 0) {
+            consumer.accept(frame, pixelFormat);
+            return;
+        }
+
+        filters[0].push(frame, pixelFormat);
+
+        for (int i = 1; i < filters.length; i++) {
+            final FFmpegFrameFilter predecessor = filters[i - 1];
+            Frame processedFrame;
+
+            while ((processedFrame = predecessor.pull()) != null) {
+                filters[i].push(processedFrame, predecessor.getPixelFormat());
+            }
+        }
+
+        final FFmpegFrameFilter finalFilter = filters[filters.length - 1];
+        Frame processedFrame;
+        while ((processedFrame = finalFilter.pull()) != null) {
+            consumer.accept(processedFrame, finalFilter.getPixelFormat());
+        }
+    }
+
     public static void pushToFilterOrElse(final Frame frame, final FFmpegFrameFilter filter, final Consumer<Frame> acceptFunction) throws FFmpegFrameFilter.Exception {
         if (filter == null) {
             acceptFunction.accept(frame);
@@ -156,26 +197,47 @@ public class FFmpegUtil {
     }
 
 
-    public static void configureDecoder(final FFmpegFrameGrabber decoder) throws FFmpegFrameGrabber.Exception {
+    /**
+     * Configures the decoder for the given input, the input's video codec is looked up through its {@link MediaProbe}.
+     *
+     * @param decoder the decoder to configure.
+     * @param source  path to the decoder's input.
+     */
+    public static void configureDecoder(final FFmpegFrameGrabber decoder, final String source) throws FFmpegFrameGrabber.Exception {
+        configureDecoder(decoder, MediaProbe.of(source).getVideoCodec());
+    }
+
+    /**
+     * Configures the decoder for an input whose video codec is already known.
+     * The decoder is picked by the {@link CodecSelector}: the gpu decoder where one works, a multithreaded software decoder otherwise.
+     * Codecs the selector knows no decoder for are left to ffmpeg.
+     *
+     * @param decoder the decoder to configure.
+     * @param codec   the input's video codec id.
+     */
+    public static void configureDecoder(final FFmpegFrameGrabber decoder, final int codec) {
         decoder.setOption("allowed_extensions", "ALL");
-        decoder.setOption("hwaccel", "cuda");
         decoder.setVideoBitrate(0);
 
-        // Start, to get the codec.
-        decoder.start();
-        final int codec = decoder.getVideoCodec();
-        decoder.stop();
-
-        if (codec == avcodec.AV_CODEC_ID_H265) {
-            decoder.setVideoCodecName("hvec_cuvid");
-        } else if (codec == avcodec.AV_CODEC_ID_H264) {
-            decoder.setVideoCodecName("h264_cuvid");
-        } else if (codec == avcodec.AV_CODEC_ID_NONE) {
-            decoder.setVideoCodecName("h264_cuvid");
-        } else {
-            throw new RuntimeException("Supplied video codec not supported.");
+        final CodecSelector.Selection selection = CodecSelector.CODEC_SELECTOR.decoderFor(codec);
+        if (selection != null) {
+            selection.apply(decoder);
         }
+    }
+
+    /**
+     * Configures the encoder's video codec, the encoder is picked by the {@link CodecSelector}.
+     *
+     * @param encoder the encoder to configure.
+     * @param codec   the video codec id to encode to.
+     */
+    public static void configureVideoCodec(final FFmpegFrameRecorder encoder, final int codec) {
+        encoder.setVideoCodec(codec);
 
+        final CodecSelector.Selection selection = CodecSelector.CODEC_SELECTOR.encoderFor(codec);
+        if (selection != null) {
+            selection.apply(encoder);
+        }
     }
 
 
@@ -198,7 +260,7 @@ public class FFmpegUtil {
      * @param filters list of filters to chain.
      * @return all chained filters in one string.
      */
-    private static String chainFilters(final List<Filter> filters) {
+    public static String chainFilters(final List<Filter> filters) {
         if (filters.isEmpty()) return null;
         final StringBuilder chainedFilters = new StringBuilder();
 
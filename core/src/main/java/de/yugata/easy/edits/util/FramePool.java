@@ -0,0 +1,193 @@
+package de.yugata.easy.edits.util;
+
+import org.bytedeco.javacv.Frame;
+
+import java.nio.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable image {@link Frame}s for the video path.
+ * <br>
+ * Grabbers & filters reuse their frames, so a frame which is handed to another stage has to be copied.
+ * Instead of cloning (a new native allocation per frame), the frame is copied into an idle frame of the same shape:
+ * width, height, pixel format, depth, channels, stride & buffer sizes. A new frame is only allocated if no idle frame of that shape is left.
+ * In steady state every copy is a pool hit.
+ */
+public class FramePool {
+
+    /**
+     * The application wide pool, keeps up to 32 idle frames per shape until it is cleared.
+     */
+    public static final FramePool FRAME_POOL = new FramePool(32);
+
+    private final int maxIdle;
+
+    /**
+     * The idle frames, grouped by their shape. There usually are very few shapes, so they are scanned rather than hashed.
+     */
+    private final List<Shape> shapes = new ArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong(), allocations = new AtomicLong(), released = new AtomicLong(), discarded = new AtomicLong();
+
+    public FramePool(final int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Copies the frame's image into a pooled frame. The copy is owned by the caller until it is handed back through {@link #release(Frame, int)}.
+     *
+     * @param frame       the frame to copy, has to hold an image.
+     * @param pixelFormat the image's pixel format.
+     * @return the copy.
+     */
+    public Frame copyOf(final Frame frame, final int pixelFormat) {
+        Frame pooled = null;
+
+        synchronized (this) {
+            final Shape shape = find(frame, pixelFormat);
+            if (shape != null && !shape.idle.isEmpty()) {
+                pooled = shape.idle.poll();
+            }
+        }
+
+        if (pooled == null) {
+            allocations.incrementAndGet();
+            // A clone allocates buffers of the exact same layout.
+            return frame.clone();
+        }
+
+        hits.incrementAndGet();
+        for (int i = 0; i < frame.image.length; i++) {
+            copy(frame.image[i], pooled.image[i]);
+        }
+        pooled.keyFrame = frame.keyFrame;
+        pooled.pictType = frame.pictType;
+        pooled.streamIndex = frame.streamIndex;
+        pooled.timestamp = frame.timestamp;
+        return pooled;
+    }
+
+    /**
+     * Hands a frame obtained from {@link #copyOf(Frame, int)} back to the pool. Frames beyond the idle limit are closed.
+     *
+     * @param frame       the frame to hand back.
+     * @param pixelFormat the image's pixel format.
+     */
+    public void release(final Frame frame, final int pixelFormat) {
+        released.incrementAndGet();
+
+        synchronized (this) {
+            Shape shape = find(frame, pixelFormat);
+            if (shape == null) {
+                shape = new Shape(frame, pixelFormat);
+                shapes.add(shape);
+            }
+
+            if (shape.idle.size() < maxIdle) {
+                shape.idle.add(frame);
+                return;
+            }
+        }
+
+        discarded.incrementAndGet();
+        frame.close();
+    }
+
+    /**
+     * Closes all idle frames, e.g. once a render is done, so their native memory is not held until the next one.
+     * Frames in use are not affected & can still be handed back.
+     */
+    public void clear() {
+        final List<Frame> idle = new ArrayList<>();
+        synchronized (this) {
+            for (final Shape shape : shapes) {
+                idle.addAll(shape.idle);
+            }
+            shapes.clear();
+        }
+
+        for (final Frame frame : idle) {
+            frame.close();
+        }
+    }
+
+    private Shape find(final Frame frame, final int pixelFormat) {
+        for (final Shape shape : shapes) {
+            if (shape.matches(frame, pixelFormat))
+                return shape;
+        }
+        return null;
+    }
+
+    private static void copy(final Buffer source, final Buffer target) {
+        if (source instanceof ByteBuffer) {
+            ((ByteBuffer) target).clear().put(((ByteBuffer) source).duplicate().clear());
+        } else if (source instanceof ShortBuffer) {
+            ((ShortBuffer) target).clear().put(((ShortBuffer) source).duplicate().clear());
+        } else if (source instanceof IntBuffer) {
+            ((IntBuffer) target).clear().put(((IntBuffer) source).duplicate().clear());
+        } else if (source instanceof LongBuffer) {
+            ((LongBuffer) target).clear().put(((LongBuffer) source).duplicate().clear());
+        } else if (source instanceof FloatBuffer) {
+            ((FloatBuffer) target).clear().put(((FloatBuffer) source).duplicate().clear());
+        } else if (source instanceof DoubleBuffer) {
+            ((DoubleBuffer) target).clear().put(((DoubleBuffer) source).duplicate().clear());
+        }
+        target.rewind();
+    }
+
+    /**
+     * @return the pool's counters: copies served from idle frames, new allocations, frames handed back & frames closed beyond the idle limit.
+     */
+    public Map<String, Long> getStats() {
+        final Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("allocations", allocations.get());
+        stats.put("released", released.get());
+        stats.put("discarded", discarded.get());
+        return stats;
+    }
+
+    /**
+     * The layout of a frame's image, frames of the same shape can be copied into one another.
+     */
+    private static class Shape {
+
+        private final int width, height, pixelFormat, depth, channels, stride;
+        private final int[] capacities;
+
+        private final ArrayDeque<Frame> idle = new ArrayDeque<>();
+
+        private Shape(final Frame frame, final int pixelFormat) {
+            this.width = frame.imageWidth;
+            this.height = frame.imageHeight;
+            this.pixelFormat = pixelFormat;
+            this.depth = frame.imageDepth;
+            this.channels = frame.imageChannels;
+            this.stride = frame.imageStride;
+            this.capacities = new int[frame.image.length];
+
+            for (int i = 0; i < capacities.length; i++) {
+                capacities[i] = frame.image[i].capacity();
+            }
+        }
+
+        private boolean matches(final Frame frame, final int pixelFormat) {
+            if (frame.imageWidth != width || frame.imageHeight != height || pixelFormat != this.pixelFormat
+                    || frame.imageDepth != depth || frame.imageChannels != channels || frame.imageStride != stride
+                    || frame.image.length != capacities.length)
+                return false;
+
+            for (int i = 0; i < capacities.length; i++) {
+                if (frame.image[i].capacity() != capacities[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package de.yugata.easy.edits.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_NONE;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_get_name;
+import static org.bytedeco.ffmpeg.global.avformat.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * The stream information of a media file: codecs, dimensions, frame rate, sample rate, channels & duration.
+ * <br>
+ * Filled by one lightweight probe (the container is opened & its stream info read, no decoder is opened)
+ * and cached by the file's path, size & modification time, so every grabber on the same file shares one probe.
+ * The cache can be persisted as json in a working directory: {@link #persistTo(File)} loads the stored probes,
+ * {@link #store(File)} writes them back once an editor is done, e.g. at the end of an edit.
+ */
+public class MediaProbe {
+
+    private static final Map<String, MediaProbe> PROBES = new ConcurrentHashMap<>();
+
+    private static final Gson GSON = new Gson();
+
+    private static final String STORE_FILE = "media_probes.json";
+
+    /**
+     * Incremented with every new probe.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /**
+     * The working directories the probes have been loaded from, with the generation of the probes last written to them.
+     */
+    private static final Map<File, Long> STORES = new HashMap<>();
+
+    private int videoCodec = AV_CODEC_ID_NONE, audioCodec = AV_CODEC_ID_NONE;
+    private String videoCodecName, audioCodecName;
+    private int imageWidth, imageHeight;
+    private double frameRate;
+    private int sampleRate, audioChannels;
+
+    /**
+     * The duration in microseconds.
+     */
+    private long lengthInTime;
+
+    private MediaProbe() {
+    }
+
+    /**
+     * Returns the probe of the file, probes the file if it has not been probed before or has changed since.
+     *
+     * @param path path to the media file.
+     * @return the file's probe.
+     */
+    public static MediaProbe of(final String path) throws FFmpegFrameGrabber.Exception {
+        final File file = new File(path);
+        final String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+
+        final MediaProbe cached = PROBES.get(key);
+        if (cached != null)
+            return cached;
+
+        final MediaProbe probe = probe(path);
+        PROBES.put(key, probe);
+        GENERATION.incrementAndGet();
+        return probe;
+    }
+
+    /**
+     * Loads the probes stored in the working directory. Probes of files which have changed or are gone since are dropped.
+     * Does nothing if the directory has been loaded before.
+     *
+     * @param workingDirectory the directory the probes are kept in.
+     */
+    public static synchronized void persistTo(final File workingDirectory) {
+        final File directory = workingDirectory.getAbsoluteFile();
+        if (STORES.containsKey(directory))
+            return;
+
+        // Nothing new to write until a file is probed.
+        STORES.put(directory, GENERATION.get());
+
+        final File file = new File(directory, STORE_FILE);
+        if (!file.exists())
+            return;
+
+        try (final Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            final Map<String, MediaProbe> stored = GSON.fromJson(reader, new TypeToken<HashMap<String, MediaProbe>>() {
+            }.getType());
+
+            if (stored != null) {
+                stored.forEach((key, probe) -> {
+                    if (isCurrent(key)) {
+                        PROBES.putIfAbsent(key, probe);
+                    } else {
+                        // Written back without the stale probe.
+                        STORES.put(directory, -1L);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not read the stored media probes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the probes of the files which are still unchanged to the working directory, if any file has been probed since the last write.
+     * The probes are written once per call, not once per probe.
+     *
+     * @param workingDirectory the directory the probes are kept in, loaded through {@link #persistTo(File)} before.
+     */
+    public static synchronized void store(final File workingDirectory) {
+        final File directory = workingDirectory.getAbsoluteFile();
+        final Long written = STORES.get(directory);
+        final long generation = GENERATION.get();
+        if (written == null || written == generation)
+            return;
+
+        final Map<String, MediaProbe> current = new HashMap<>();
+        PROBES.forEach((key, probe) -> {
+            if (isCurrent(key)) {
+                current.put(key, probe);
+            } else {
+                PROBES.remove(key);
+            }
+        });
+
+        directory.mkdirs();
+        try (final Writer writer = Files.newBufferedWriter(new File(directory, STORE_FILE).toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(current, writer);
+            STORES.put(directory, generation);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param key the probe's key, the file's path, size & modification time.
+     * @return whether the file still has the size & modification time.
+     */
+    private static boolean isCurrent(final String key) {
+        final int modified = key.lastIndexOf(':');
+        final int size = modified < 0 ? -1 : key.lastIndexOf(':', modified - 1);
+        if (size < 0)
+            return false;
+
+        final File file = new File(key.substring(0, size));
+        return key.equals(file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified());
+    }
+
+    private static MediaProbe probe(final String path) throws FFmpegFrameGrabber.Exception {
+        final AVFormatContext formatContext = new AVFormatContext(null);
+        final AVDictionary options = new AVDictionary(null);
+        av_dict_set(options, "allowed_extensions", "ALL", 0);
+
+        int ret = avformat_open_input(formatContext, path, null, options);
+        av_dict_free(options);
+
+        if (ret < 0) {
+            throw new FFmpegFrameGrabber.Exception("avformat_open_input() error " + ret + ": Could not open input \"" + path + "\".");
+        }
+
+        try {
+            ret = avformat_find_stream_info(formatContext, (AVDictionary) null);
+            if (ret < 0) {
+                throw new FFmpegFrameGrabber.Exception("avformat_find_stream_info() error " + ret + ": Could not find stream information.");
+            }
+
+            final MediaProbe probe = new MediaProbe();
+
+            for (int i = 0; i < formatContext.nb_streams(); i++) {
+                final AVStream stream = formatContext.streams(i);
+                final AVCodecParameters parameters = stream.codecpar();
+
+                if (parameters.codec_type() == AVMEDIA_TYPE_VIDEO && probe.videoCodec == AV_CODEC_ID_NONE) {
+                    probe.videoCodec = parameters.codec_id();
+                    probe.videoCodecName = codecName(parameters.codec_id());
+                    probe.imageWidth = parameters.width();
+                    probe.imageHeight = parameters.height();
+                    probe.frameRate = av_q2d(av_guess_frame_rate(formatContext, stream, null));
+                } else if (parameters.codec_type() == AVMEDIA_TYPE_AUDIO && probe.audioCodec == AV_CODEC_ID_NONE) {
+                    probe.audioCodec = parameters.codec_id();
+                    probe.audioCodecName = codecName(parameters.codec_id());
+                    probe.sampleRate = parameters.sample_rate();
+                    probe.audioChannels = parameters.ch_layout().nb_channels();
+                }
+            }
+
+            probe.lengthInTime = formatContext.duration() == AV_NOPTS_VALUE ? 0 : formatContext.duration() * 1000000L / AV_TIME_BASE;
+            return probe;
+        } finally {
+            avformat_close_input(formatContext);
+        }
+    }
+
+    private static String codecName(final int codecId) {
+        final BytePointer name = avcodec_get_name(codecId);
+        return name == null ? null : name.getString();
+    }
+
+    public int getVideoCodec() {
+        return videoCodec;
+    }
+
+    public String getVideoCodecName() {
+        return videoCodecName;
+    }
+
+    public int getAudioCodec() {
+        return audioCodec;
+    }
+
+    public String getAudioCodecName() {
+        return audioCodecName;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getAudioChannels() {
+        return audioChannels;
+    }
+
+    /**
+     * @return the duration in microseconds, the same as {@link FFmpegFrameGrabber#getLengthInTime()}.
+     */
+    public long getLengthInTime() {
+        return lengthInTime;
+    }
+}
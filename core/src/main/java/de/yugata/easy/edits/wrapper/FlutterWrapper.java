@@ -14,11 +14,15 @@ import de.yugata.easy.edits.filter.FilterValue;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import static de.yugata.easy.edits.filter.FilterManager.FILTER_MANAGER;
+import static de.yugata.easy.edits.util.CodecSelector.CODEC_SELECTOR;
+import static de.yugata.easy.edits.util.FramePool.FRAME_POOL;
 
 public class FlutterWrapper {
 
@@ -34,8 +38,12 @@ public class FlutterWrapper {
     private static FrameExporter frameExporter;
 
     public static void initFrameExport(final String source, final String workingDirectory) {
+        initFrameExport(source, workingDirectory, EnumSet.noneOf(EditingFlag.class));
+    }
+
+    public static void initFrameExport(final String source, final String workingDirectory, final EnumSet<EditingFlag> editingFlags) {
         if (frameExporter == null) {
-            frameExporter = new FrameExporter(source, workingDirectory);
+            frameExporter = new FrameExporter(source, workingDirectory, editingFlags);
         }
     }
 
@@ -50,6 +58,18 @@ public class FlutterWrapper {
         return frameExporter.exportFrame(timeStamp);
     }
 
+    public static Map<String, Long> getFrameCacheStats() {
+        return frameExporter == null ? Collections.emptyMap() : frameExporter.getCacheStats();
+    }
+
+    public static Map<String, Long> getFramePoolStats() {
+        return FRAME_POOL.getStats();
+    }
+
+    public static Map<String, String> getCodecReport() {
+        return CODEC_SELECTOR.probeAll();
+    }
+
     public static void exportSegments(final String json) {
         final ClipExporter exporter = ClipExporter.fromJson(json);
 
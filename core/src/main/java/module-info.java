@@ -6,6 +6,9 @@ module Easy.Edits.core {
     exports de.yugata.easy.edits.editor.video;
     exports de.yugata.easy.edits.editor.edit;
 
+    // The media probes are persisted through gson.
+    opens de.yugata.easy.edits.util to com.google.gson;
+
     requires java.logging;
     requires java.desktop;
     requires org.apache.commons.io;
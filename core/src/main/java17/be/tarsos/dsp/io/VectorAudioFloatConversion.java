@@ -0,0 +1,124 @@
+/*
+*      _______                       _____   _____ _____
+*     |__   __|                     |  __ \ / ____|  __ \
+*        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+*        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+*        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+*        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+*
+* -------------------------------------------------------------
+*
+* TarsosDSP is developed by Joren Six at IPEM, University Ghent
+*
+* -------------------------------------------------------------
+*
+*  Info: http://0110.be/tag/TarsosDSP
+*  Github: https://github.com/JorenSix/TarsosDSP
+*  Releases: http://0110.be/releases/TarsosDSP/
+*
+*  TarsosDSP includes modified source code by various authors,
+*  for credits and info, see README.
+*
+*/
+
+package be.tarsos.dsp.io;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Converts little-endian signed PCM samples with the (incubating) Vector API,
+ * a vector of floats at a time. Compiled for Java 17 into the versioned part of
+ * the multi-release jar and only loaded by {@link TarsosDSPAudioFloatConverter}
+ * when the jdk.incubator.vector module is present, e.g. with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * The samples are converted to floats and scaled exactly like the scalar
+ * conversion does, the results are bit for bit the same. Both methods convert
+ * the samples which fill whole vectors and leave the rest to the caller.
+ */
+final class VectorAudioFloatConversion implements TarsosDSPAudioFloatConverter.VectorConversion {
+
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	/**
+	 * The bytes of one vector of 16 bit samples.
+	 */
+	private static final VectorSpecies<Byte> BYTES_16 = ByteVector.SPECIES_PREFERRED
+			.withShape(VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+
+	/**
+	 * The bytes of one vector of 24 bit samples and a few of the next ones.
+	 */
+	private static final VectorSpecies<Byte> BYTES_32 = ByteVector.SPECIES_PREFERRED
+			.withShape(FLOATS.vectorShape());
+
+	/**
+	 * Moves the three bytes of every 24 bit sample to the top of an int, the
+	 * lowest byte is a copy and shifted out again with the sign extension.
+	 */
+	private static final VectorShuffle<Byte> SPREAD_24 = VectorShuffle.fromOp(BYTES_32,
+			i -> 3 * (i / 4) + Math.max(0, i % 4 - 1));
+
+	/**
+	 * @throws IllegalStateException if the vectors do not convert a few known
+	 *             samples the way the scalar conversion does, e.g. on a big
+	 *             endian platform.
+	 */
+	VectorAudioFloatConversion() {
+		final int samples = FLOATS.length();
+		final byte[] bytes = new byte[4 * samples];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (37 * i - 128);
+		}
+		final float[] converted = new float[samples];
+
+		toFloat16SL(bytes, 0, converted, 0, samples);
+		for (int i = 0; i < samples; i++) {
+			final short x = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+			if (converted[i] != x * (1.0f / 32767.0f))
+				throw new IllegalStateException("16 bit samples are converted differently");
+		}
+
+		toFloat24SL(bytes, 0, converted, 0, samples);
+		for (int i = 0; i < samples; i++) {
+			final int x = ((bytes[3 * i] & 0xFF) | ((bytes[3 * i + 1] & 0xFF) << 8) | (bytes[3 * i + 2] << 16));
+			if (converted[i] != x * (1.0f / (float) 0x7FFFFF))
+				throw new IllegalStateException("24 bit samples are converted differently");
+		}
+	}
+
+	@Override
+	public int toFloat16SL(byte[] in_buff, int in_offset, float[] out_buff, int out_offset, int out_len) {
+		final int lanes = FLOATS.length();
+		int i = 0;
+		for (; i + lanes <= out_len; i += lanes) {
+			final ByteVector bytes = ByteVector.fromArray(BYTES_16, in_buff, in_offset + 2 * i);
+			final FloatVector floats = (FloatVector) bytes.reinterpretAsShorts()
+					.convertShape(VectorOperators.S2F, FLOATS, 0);
+			floats.mul(1.0f / 32767.0f).intoArray(out_buff, out_offset + i);
+		}
+		return i;
+	}
+
+	@Override
+	public int toFloat24SL(byte[] in_buff, int in_offset, float[] out_buff, int out_offset, int out_len) {
+		final int lanes = FLOATS.length();
+		int i = 0;
+		// A vector of bytes reads a third more than the samples it converts.
+		for (; i + lanes <= out_len && in_offset + 3 * i + BYTES_32.length() <= in_buff.length; i += lanes) {
+			final IntVector spread = ByteVector.fromArray(BYTES_32, in_buff, in_offset + 3 * i)
+					.rearrange(SPREAD_24)
+					.reinterpretAsInts()
+					.lanewise(VectorOperators.ASHR, 8);
+			final FloatVector floats = (FloatVector) spread.convert(VectorOperators.I2F, 0);
+			floats.mul(1.0f / (float) 0x7FFFFF).intoArray(out_buff, out_offset + i);
+		}
+		return i;
+	}
+}
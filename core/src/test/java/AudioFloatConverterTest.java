@@ -0,0 +1,128 @@
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class AudioFloatConverterTest {
+
+    private static final int BUFFER_SIZE = 2048;
+
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * Compares the signed pcm converters to the byte by byte conversion they replaced, in result & speed.
+     */
+    public static void main(String[] args) {
+        final Random random = new Random(7);
+        boolean identical = true;
+        System.out.println("16 & 24 bit little-endian samples converted " + (TarsosDSPAudioFloatConverter.isVectorized() ? "with vectors" : "sample by sample"));
+
+        // The first round warms the jit up.
+        for (int round = 0; round < 2; round++) {
+            for (final int bits : new int[]{16, 24, 32}) {
+                identical &= compare(random, bits, false, round == 1);
+                identical &= compare(random, bits, true, round == 1);
+            }
+        }
+
+        if (!identical)
+            throw new AssertionError("The conversion differs from the byte by byte conversion.");
+    }
+
+    private static boolean compare(final Random random, final int bits, final boolean bigEndian, final boolean report) {
+        final TarsosDSPAudioFormat format = new TarsosDSPAudioFormat(44100, bits, 1, true, bigEndian);
+        final TarsosDSPAudioFloatConverter converter = TarsosDSPAudioFloatConverter.getConverter(format);
+        final int bytesPerSample = bits / 8;
+
+        // Random bytes at an offset, the input ends right after the last sample. The length is not a multiple of four samples.
+        final int offset = 5, length = BUFFER_SIZE - 3;
+        final byte[] bytes = new byte[offset + length * bytesPerSample];
+        random.nextBytes(bytes);
+
+        final float[] expected = new float[length + 3];
+        final float[] actual = new float[length + 3];
+        legacyToFloat(bits, bigEndian, bytes, offset, expected, 3, length);
+        converter.toFloatArray(bytes, offset, actual, 3, length);
+        final boolean floatsIdentical = Arrays.equals(expected, actual);
+
+        // Samples in & slightly out of range.
+        final float[] samples = new float[length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (random.nextDouble() * 2.2 - 1.1);
+        }
+        final byte[] expectedBytes = new byte[offset + length * bytesPerSample];
+        final byte[] actualBytes = new byte[offset + length * bytesPerSample];
+        legacyToBytes(bits, bigEndian, samples, expectedBytes, offset);
+        converter.toByteArray(samples, 0, samples.length, actualBytes, offset);
+        final boolean bytesIdentical = Arrays.equals(expectedBytes, actualBytes);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacyToFloat(bits, bigEndian, bytes, offset, expected, 0, length);
+        }
+        final double legacyNs = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            converter.toFloatArray(bytes, offset, actual, 0, length);
+        }
+        final double converterNs = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        if (report) {
+            System.out.printf("%d bit %s: to float %s, to bytes %s, legacy %.0fns, converter %.0fns, speedup %.2fx%n",
+                    bits, bigEndian ? "BE" : "LE",
+                    floatsIdentical ? "identical" : "different", bytesIdentical ? "identical" : "different",
+                    legacyNs, converterNs, legacyNs / converterNs);
+        }
+        return floatsIdentical && bytesIdentical;
+    }
+
+    /**
+     * The byte by byte conversion of the signed pcm converters.
+     */
+    private static void legacyToFloat(final int bits, final boolean bigEndian, final byte[] in, final int inOffset, final float[] out, final int outOffset, final int length) {
+        int ix = inOffset;
+        for (int i = 0; i < length; i++) {
+            if (bits == 16) {
+                final short x = bigEndian
+                        ? (short) ((in[ix++] << 8) | (in[ix++] & 0xFF))
+                        : (short) ((in[ix++] & 0xFF) | (in[ix++] << 8));
+                out[outOffset + i] = x * (1.0f / 32767.0f);
+            } else if (bits == 24) {
+                int x = bigEndian
+                        ? ((in[ix++] & 0xFF) << 16) | ((in[ix++] & 0xFF) << 8) | (in[ix++] & 0xFF)
+                        : (in[ix++] & 0xFF) | ((in[ix++] & 0xFF) << 8) | ((in[ix++] & 0xFF) << 16);
+                if (x > 0x7FFFFF)
+                    x -= 0x1000000;
+                out[outOffset + i] = x * (1.0f / (float) 0x7FFFFF);
+            } else {
+                final int x = bigEndian
+                        ? ((in[ix++] & 0xFF) << 24) | ((in[ix++] & 0xFF) << 16) | ((in[ix++] & 0xFF) << 8) | (in[ix++] & 0xFF)
+                        : (in[ix++] & 0xFF) | ((in[ix++] & 0xFF) << 8) | ((in[ix++] & 0xFF) << 16) | ((in[ix++] & 0xFF) << 24);
+                out[outOffset + i] = x * (1.0f / (float) 0x7FFFFFFF);
+            }
+        }
+    }
+
+    private static void legacyToBytes(final int bits, final boolean bigEndian, final float[] in, final byte[] out, final int outOffset) {
+        final int bytesPerSample = bits / 8;
+        for (int i = 0; i < in.length; i++) {
+            int x;
+            if (bits == 16) {
+                x = (int) (in[i] * 32767.0);
+            } else if (bits == 24) {
+                x = (int) (in[i] * (float) 0x7FFFFF);
+                if (x < 0)
+                    x += 0x1000000;
+            } else {
+                x = (int) (in[i] * (float) 0x7FFFFFFF);
+            }
+
+            for (int b = 0; b < bytesPerSample; b++) {
+                final int shift = bigEndian ? (bytesPerSample - 1 - b) * 8 : b * 8;
+                out[outOffset + i * bytesPerSample + b] = (byte) (x >>> shift);
+            }
+        }
+    }
+}
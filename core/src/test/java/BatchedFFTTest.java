@@ -0,0 +1,111 @@
+import be.tarsos.dsp.util.ConcurrencyUtils;
+import be.tarsos.dsp.util.fft.FFT;
+import be.tarsos.dsp.util.fft.FloatFFT;
+import be.tarsos.dsp.util.fft.HannWindow;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchedFFTTest {
+
+    private static final int FRAMES = 4000;
+
+    /**
+     * Compares batched transforms to transforming frame by frame, for every plan of the fft, on the default & on a small fixed executor.
+     */
+    public static void main(String[] args) {
+        final Random random = new Random(11);
+        boolean identical = true;
+
+        // The frames of a track: windowed, split radix.
+        final float[][] frames = frames(random, FRAMES, 2048);
+        final float[][] expected = copy(frames);
+        final FFT fft = new FFT(2048, new HannWindow());
+
+        for (int round = 0; round < 3; round++) {
+            final float[][] serial = copy(frames), batched = copy(frames);
+            long start = System.nanoTime();
+            for (final float[] frame : serial) {
+                fft.forwardTransform(frame);
+            }
+            final double serialMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            fft.forwardTransform(batched);
+            final double batchedMs = (System.nanoTime() - start) / 1e6;
+
+            identical &= Arrays.deepEquals(serial, batched);
+            if (round == 0)
+                System.arraycopy(serial, 0, expected, 0, serial.length);
+            System.out.printf("%d frames of 2048: one by one in %.1fms, batched in %.1fms (parallelism %d)%n",
+                    FRAMES, serialMs, batchedMs, ConcurrencyUtils.getParallelism());
+        }
+
+        // Mixed radix & bluestein sizes.
+        for (final int size : new int[]{1500, 1031}) {
+            final FloatFFT floatFFT = new FloatFFT(size);
+            final float[][] serial = frames(random, 200, size), batched = copy(serial);
+            for (final float[] frame : serial) {
+                floatFFT.realForward(frame);
+            }
+            floatFFT.realForward(batched);
+            identical &= Arrays.deepEquals(serial, batched);
+        }
+
+        // Large transforms use threads themselves, a batch of them must not wait on its own small executor.
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            threads.incrementAndGet();
+            final Thread thread = new Thread(runnable, "fft-test-" + threads.get());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final int numberOfThreads = ConcurrencyUtils.getNumberOfThreads();
+        try {
+            ConcurrencyUtils.setExecutor(executor);
+            ConcurrencyUtils.setNumberOfThreads(4);
+
+            final FloatFFT large = new FloatFFT(1 << 18);
+            final float[][] serial = frames(random, 8, 1 << 18), batched = copy(serial);
+            for (final float[] frame : serial) {
+                large.realForward(frame);
+            }
+            large.realForward(batched);
+            identical &= Arrays.deepEquals(serial, batched);
+
+            final float[][] onSmallExecutor = copy(frames);
+            fft.forwardTransform(onSmallExecutor);
+            identical &= Arrays.deepEquals(expected, onSmallExecutor);
+        } finally {
+            ConcurrencyUtils.setExecutor(null);
+            ConcurrencyUtils.setNumberOfThreads(numberOfThreads);
+            executor.shutdown();
+        }
+        System.out.println("Threads created by the fixed executor: " + threads.get());
+        System.out.println("Batched transforms " + (identical ? "identical" : "different"));
+
+        if (!identical || threads.get() > 2)
+            throw new AssertionError("The batched transforms differ");
+    }
+
+    private static float[][] frames(final Random random, final int count, final int size) {
+        final float[][] frames = new float[count][size];
+        for (final float[] frame : frames) {
+            for (int i = 0; i < size; i++) {
+                frame[i] = random.nextFloat() * 2 - 1;
+            }
+        }
+        return frames;
+    }
+
+    private static float[][] copy(final float[][] frames) {
+        final float[][] copy = new float[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            copy[i] = frames[i].clone();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,70 @@
+import de.yugata.easy.edits.audio.AudioAnalyser;
+import de.yugata.easy.edits.audio.BeatGrid;
+import de.yugata.easy.edits.audio.BeatGridService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class BeatGridServiceTest {
+
+    private static final double PEAK_THRESHOLD = 0.3, MS_THRESHOLD = 30;
+
+    /**
+     * Analyses a small generated library twice: the second run reads every grid from the store, the grids are the ones a single file analysis returns.
+     */
+    public static void main(String[] args) throws IOException {
+        final File library = Files.createTempDirectory("library").toFile();
+        final File store = new File(library, "store");
+        final Random random = new Random(7);
+
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            files.add(TestAudio.writeClicks(random, new File(library, "track" + i + ".wav"), 20 + 5 * i, 0.4 + 0.05 * i));
+        }
+        files.add(new File(library, "missing.wav"));
+
+        boolean identical = true;
+        try (final BeatGridService service = new BeatGridService(store, 2)) {
+            final List<BeatGridService.Result> first = service.analyse(files, PEAK_THRESHOLD, MS_THRESHOLD,
+                    (result, completed, total) -> System.out.println(completed + "/" + total + " " + result));
+            final List<BeatGridService.Result> second = service.analyse(files, PEAK_THRESHOLD, MS_THRESHOLD, null);
+
+            double firstMs = 0, secondMs = 0;
+            for (int i = 0; i < files.size() - 1; i++) {
+                final BeatGrid expected = AudioAnalyser.analyseBeatGrid(files.get(i).getAbsolutePath(), PEAK_THRESHOLD, MS_THRESHOLD);
+                identical &= expected.size() > 0 && expected.equals(first.get(i).getGrid()) && expected.equals(second.get(i).getGrid());
+                identical &= !first.get(i).isStored() && second.get(i).isStored();
+                identical &= expected.toStamps().equals(AudioAnalyser.analyseStamps(files.get(i).getAbsolutePath(), PEAK_THRESHOLD, MS_THRESHOLD));
+                firstMs += first.get(i).getMillis();
+                secondMs += second.get(i).getMillis();
+            }
+            identical &= first.get(files.size() - 1).getError() != null && second.get(files.size() - 1).getError() != null;
+
+            // A copy has the same content & is not analysed again.
+            final File copy = new File(library, "copy.wav");
+            Files.copy(files.get(0).toPath(), copy.toPath());
+            final BeatGridService.Result copied = service.analyse(Collections.singletonList(copy), PEAK_THRESHOLD, MS_THRESHOLD, null).get(0);
+            identical &= copied.isStored() && copied.getGrid().equals(first.get(0).getGrid());
+
+            System.out.printf("Analysed in %.0fms, from the store in %.1fms%n", firstMs, secondMs);
+        } finally {
+            for (final File file : store.listFiles()) {
+                file.delete();
+            }
+            store.delete();
+            for (final File file : library.listFiles()) {
+                file.delete();
+            }
+            library.delete();
+        }
+        System.out.println("Beat grids " + (identical ? "identical" : "different"));
+
+        if (!identical)
+            throw new AssertionError("The stored grids differ from the analysed ones");
+    }
+}
@@ -0,0 +1,240 @@
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
+import be.tarsos.dsp.util.fft.FFT;
+import be.tarsos.dsp.util.fft.HannWindow;
+import de.yugata.easy.edits.audio.FFmpegAudioInputStream;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ComplexOnsetDetectorBenchmark {
+
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    private static final int ITERATIONS = 10;
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * Runs the detector over the buffers of a generated track, or of the file given as the first argument,
+     * & compares it to the angle based computation it replaced, in speed & result.
+     */
+    public static void main(String[] args) throws IOException, UnsupportedAudioFileException {
+        final List<AudioEvent> events = args.length == 0 ? generateEvents(new Random(5), 200) : readEvents(args[0]);
+
+        final OnsetDetectionFunction expected = new OnsetDetectionFunction();
+        final OnsetDetectionFunction actual = new OnsetDetectionFunction();
+        final OnsetDetectionFunction exact = new OnsetDetectionFunction();
+
+        // Warm up & results.
+        runLegacy(events, expected);
+        runDetector(events, actual);
+        runExact(events, exact);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runLegacy(events, new OnsetDetectionFunction());
+        }
+        final double legacyMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runDetector(events, new OnsetDetectionFunction());
+        }
+        final double detectorMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        System.out.printf("%d buffers: legacy %.1fms, detector %.1fms, speedup %.2fx%n", events.size(), legacyMs, detectorMs, legacyMs / detectorMs);
+
+        final double legacyDeviation = maxDeviation(expected, actual);
+        final double exactDeviation = maxDeviation(exact, actual);
+        System.out.printf("Max relative deviation of the detection function: %.2e from the legacy, %.2e from double precision%n", legacyDeviation, exactDeviation);
+
+        boolean identical = true;
+        for (final double threshold : new double[]{0.1, 0.3, 0.5, 0.8}) {
+            final List<Double> expectedOnsets = new ArrayList<>();
+            final List<Double> actualOnsets = new ArrayList<>();
+            expected.pickOnsets(threshold, 0.03, (time, salience) -> expectedOnsets.add(time));
+            actual.pickOnsets(threshold, 0.03, (time, salience) -> actualOnsets.add(time));
+            identical &= expectedOnsets.equals(actualOnsets);
+            System.out.println("Threshold " + threshold + ": " + expectedOnsets.size() + " / " + actualOnsets.size() + " onsets, "
+                    + (expectedOnsets.equals(actualOnsets) ? "identical" : "different"));
+        }
+
+        // The bounds documented on the detector.
+        if (legacyDeviation > 5e-4 || exactDeviation > 1e-4)
+            throw new AssertionError("The detection function deviates more than documented");
+        // A file might have a peak within the tolerance of a threshold, the generated track has none.
+        if (args.length == 0 && !identical)
+            throw new AssertionError("The picked onsets differ");
+    }
+
+    private static double maxDeviation(final OnsetDetectionFunction reference, final OnsetDetectionFunction actual) {
+        double maxDeviation = 0;
+        for (int i = 0; i < reference.size(); i++) {
+            final double magnitude = Math.max(Math.abs(reference.getValue(i)), 1e-3);
+            maxDeviation = Math.max(maxDeviation, Math.abs(reference.getValue(i) - actual.getValue(i)) / magnitude);
+        }
+        return maxDeviation;
+    }
+
+    private static List<AudioEvent> readEvents(final String audioInput) throws IOException {
+        try (final FFmpegAudioInputStream stream = new FFmpegAudioInputStream(audioInput)) {
+            return collectEvents(new AudioDispatcher(stream, BUFFER_SIZE, BUFFER_OVERLAP));
+        }
+    }
+
+    /**
+     * A track of noise clicks on a varying beat over a slowly swelling chord, with some background noise & a few seconds of silence.
+     * The chord's bins barely change from buffer to buffer, which is where the two computations differ the most.
+     */
+    private static List<AudioEvent> generateEvents(final Random random, final int seconds) throws UnsupportedAudioFileException {
+        final float[] samples = new float[SAMPLE_RATE * seconds];
+        int nextBeat = 0, lastBeat = 0;
+        for (int i = 0; i < samples.length; i++) {
+            if (i == nextBeat) {
+                lastBeat = i;
+                nextBeat += (int) (SAMPLE_RATE * (0.3 + random.nextDouble() * 0.4));
+            }
+            final double time = (double) i / SAMPLE_RATE;
+            if (time % 40 > 37) {
+                // Silence.
+                continue;
+            }
+            final double click = (random.nextDouble() * 2 - 1) * Math.exp(-(i - lastBeat) / (SAMPLE_RATE * 0.02));
+            final double chord = (1 + 0.5 * Math.sin(time)) * (Math.sin(2 * Math.PI * 220 * time) + Math.sin(2 * Math.PI * 277.18 * time) + Math.sin(2 * Math.PI * 1000.5 * time));
+            samples[i] = (float) (0.2 * chord + (time % 80 < 40 ? 0.5 * click : 0) + 0.0001 * (random.nextDouble() * 2 - 1));
+        }
+        return collectEvents(AudioDispatcherFactory.fromFloatArray(samples, SAMPLE_RATE, BUFFER_SIZE, BUFFER_OVERLAP));
+    }
+
+    /**
+     * Runs the dispatcher & keeps a copy of every buffer.
+     */
+    private static List<AudioEvent> collectEvents(final AudioDispatcher dispatcher) {
+        final List<AudioEvent> events = new ArrayList<>();
+        final TarsosDSPAudioFormat format = dispatcher.getFormat();
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                final AudioEvent copy = new AudioEvent(format);
+                copy.setFloatBuffer(audioEvent.getFloatBuffer().clone());
+                copy.setOverlap(audioEvent.getOverlap());
+                copy.setBytesProcessed(audioEvent.getSamplesProcessed() * format.getFrameSize());
+                events.add(copy);
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+            }
+        });
+        dispatcher.run();
+        return events;
+    }
+
+    private static void runDetector(final List<AudioEvent> events, final OnsetDetectionFunction detectionFunction) {
+        final ComplexOnsetDetector detector = new ComplexOnsetDetector(BUFFER_SIZE);
+        detector.setHandler((time, salience) -> {
+        });
+        detector.setDetectionFunctionHandler(detectionFunction);
+        for (final AudioEvent event : events) {
+            detector.process(event);
+        }
+    }
+
+    private static void runLegacy(final List<AudioEvent> events, final OnsetDetectionFunction detectionFunction) {
+        final LegacyDetector detector = new LegacyDetector(BUFFER_SIZE);
+        for (final AudioEvent event : events) {
+            final double delay = event.getOverlap() * 4.3 / event.getSampleRate();
+            detectionFunction.handleDetectionFunction(event.getTimeStamp() - delay, detector.process(event), event.isSilence(-70.0));
+        }
+    }
+
+    private static void runExact(final List<AudioEvent> events, final OnsetDetectionFunction detectionFunction) {
+        final ExactDetector detector = new ExactDetector(BUFFER_SIZE);
+        for (final AudioEvent event : events) {
+            final double delay = event.getOverlap() * 4.3 / event.getSampleRate();
+            detectionFunction.handleDetectionFunction(event.getTimeStamp() - delay, detector.process(event), event.isSilence(-70.0));
+        }
+    }
+
+    /**
+     * The angle based computation of the same spectra in double precision, as the reference for the rounding of the others.
+     */
+    private static class ExactDetector {
+
+        private final FFT fft;
+        private final double[] theta1, theta2, oldmag;
+
+        private ExactDetector(final int fftSize) {
+            this.fft = new FFT(fftSize, new HannWindow());
+            final int rsize = fftSize / 2;
+            this.oldmag = new double[rsize];
+            this.theta1 = new double[rsize];
+            this.theta2 = new double[rsize];
+        }
+
+        private float process(final AudioEvent audioEvent) {
+            final float[] data = audioEvent.getFloatBuffer().clone();
+            fft.forwardTransform(data);
+
+            double onsetValue = 0;
+            for (int j = 0; j < oldmag.length; j++) {
+                // The DC bin has a phase of pi and a signed magnitude, like in the fft's powerPhaseFFT.
+                final double re = data[2 * j], im = j == 0 ? 0 : data[2 * j + 1];
+                final double magnitude = j == 0 ? -re : Math.hypot(re, im);
+                final double phase = j == 0 ? Math.PI : Math.atan2(im, re);
+
+                final double predicted = 2 * theta1[j] - theta2[j];
+                onsetValue += Math.hypot(re - oldmag[j] * Math.cos(predicted), im - oldmag[j] * Math.sin(predicted));
+                theta2[j] = theta1[j];
+                theta1[j] = phase;
+                oldmag[j] = magnitude;
+            }
+            return (float) onsetValue;
+        }
+    }
+
+    /**
+     * The detection function as it was computed before: polar coordinates & the law of cosines.
+     */
+    private static class LegacyDetector {
+
+        private final FFT fft;
+        private final float[] theta1, theta2, oldmag, dev1;
+
+        private LegacyDetector(final int fftSize) {
+            this.fft = new FFT(fftSize, new HannWindow());
+            final int rsize = fftSize / 2 + 1;
+            this.oldmag = new float[rsize];
+            this.dev1 = new float[rsize];
+            this.theta1 = new float[rsize];
+            this.theta2 = new float[rsize];
+        }
+
+        private float process(final AudioEvent audioEvent) {
+            final float[] data = audioEvent.getFloatBuffer().clone();
+            final float[] power = new float[data.length / 2];
+            final float[] phase = new float[data.length / 2];
+            fft.powerPhaseFFT(data, power, phase);
+
+            float onsetValue = 0;
+            for (int j = 0; j < power.length; j++) {
+                dev1[j] = 2.f * theta1[j] - theta2[j];
+                onsetValue += Math.sqrt(Math.abs(Math.pow(oldmag[j], 2) + Math.pow(power[j], 2) - 2. * oldmag[j] * power[j] * Math.cos(dev1[j] - phase[j])));
+                theta2[j] = theta1[j];
+                theta1[j] = phase[j];
+                oldmag[j] = power[j];
+            }
+            return onsetValue;
+        }
+    }
+}
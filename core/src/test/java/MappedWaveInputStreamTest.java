@@ -0,0 +1,160 @@
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.MappedWaveInputStream;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+import be.tarsos.dsp.io.UniversalAudioInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MappedWaveInputStreamTest {
+
+    private static final int ITERATIONS = 20;
+
+    /**
+     * Dispatches generated wav files through a mapped stream & through a byte stream & compares the buffers, then times reruns on a long file.
+     */
+    public static void main(String[] args) throws IOException {
+        final Random random = new Random(3);
+        boolean identical = true;
+
+        for (final int format : new int[]{16, 24, 32, -32}) {
+            for (final int samples : new int[]{1500, 2048, 3072, 44100 + 17}) {
+                final File file = writeWave(random, format, samples);
+
+                for (final int[] config : new int[][]{{2048, 1024}, {1024, 0}, {512, 384}}) {
+                    for (final boolean zeroPadLast : new boolean[]{true, false}) {
+                        for (final double skip : new double[]{0, 0.01}) {
+                            final List<float[]> expected = dispatch(byteStream(file), config[0], config[1], zeroPadLast, skip);
+                            final List<float[]> actual = dispatch(new MappedWaveInputStream(file), config[0], config[1], zeroPadLast, skip);
+
+                            if (!equals(expected, actual)) {
+                                identical = false;
+                                System.out.printf("Different: format %d, %d samples, buffer %d/%d, zero pad %b, skip %.2f%n",
+                                        format, samples, config[0], config[1], zeroPadLast, skip);
+                            }
+                        }
+                    }
+                }
+                file.delete();
+            }
+        }
+        System.out.println("Mapped buffers " + (identical ? "identical" : "different"));
+
+        // Five minutes of 16 bit audio, analysed repeatedly.
+        final File file = writeWave(random, 16, 44100 * 300);
+        final MappedWaveInputStream mapped = new MappedWaveInputStream(file);
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                dispatch(byteStream(file), 2048, 1024, true, 0, null);
+            }
+            final double byteMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                dispatch(mapped.duplicate(), 2048, 1024, true, 0, null);
+            }
+            final double mappedMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            if (round == 1)
+                System.out.printf("300s: byte stream %.1fms, mapped %.1fms, speedup %.2fx%n", byteMs, mappedMs, byteMs / mappedMs);
+        }
+        file.delete();
+
+        if (!identical)
+            throw new AssertionError("The mapped stream dispatches other buffers.");
+    }
+
+    private static TarsosDSPAudioInputStream byteStream(final File file) throws IOException {
+        final MappedWaveInputStream header = new MappedWaveInputStream(file);
+        final BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        // The generated files have a 44 byte header & a 26 byte list chunk.
+        in.skip(44 + 26);
+        return new UniversalAudioInputStream(in, header.getFormat());
+    }
+
+    private static List<float[]> dispatch(final TarsosDSPAudioInputStream stream, final int size, final int overlap, final boolean zeroPadLast, final double skip) {
+        final List<float[]> buffers = new ArrayList<>();
+        dispatch(stream, size, overlap, zeroPadLast, skip, buffers);
+        return buffers;
+    }
+
+    private static void dispatch(final TarsosDSPAudioInputStream stream, final int size, final int overlap, final boolean zeroPadLast, final double skip, final List<float[]> buffers) {
+        final AudioDispatcher dispatcher = new AudioDispatcher(stream, size, overlap);
+        dispatcher.setZeroPadLastBuffer(zeroPadLast);
+        dispatcher.skip(skip);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                if (buffers != null) {
+                    final float[] buffer = Arrays.copyOf(audioEvent.getFloatBuffer(), audioEvent.getFloatBuffer().length + 2);
+                    // The time & overlap are compared as well.
+                    buffer[buffer.length - 2] = (float) audioEvent.getTimeStamp();
+                    buffer[buffer.length - 1] = audioEvent.getOverlap();
+                    buffers.add(buffer);
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+            }
+        });
+        dispatcher.run();
+    }
+
+    private static boolean equals(final List<float[]> expected, final List<float[]> actual) {
+        if (expected.size() != actual.size())
+            return false;
+
+        for (int i = 0; i < expected.size(); i++) {
+            if (!Arrays.equals(expected.get(i), actual.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param format the bits per sample, negative for float samples.
+     */
+    private static File writeWave(final Random random, final int format, final int samples) throws IOException {
+        final int bytesPerSample = Math.abs(format) / 8;
+        final int dataLength = samples * bytesPerSample;
+
+        final ByteBuffer header = ByteBuffer.allocate(44 + 26).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + 26 + dataLength).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) (format < 0 ? 3 : 1)).putShort((short) 1)
+                .putInt(44100).putInt(44100 * bytesPerSample).putShort((short) bytesPerSample).putShort((short) Math.abs(format));
+        // A list chunk with an odd length, padded.
+        header.put("LIST".getBytes()).putInt(17).put("INFOISFT\5\0\0\0Lavf\0".getBytes()).put((byte) 0);
+        header.put("data".getBytes()).putInt(dataLength);
+
+        final ByteBuffer data = ByteBuffer.allocate(dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        if (format < 0) {
+            while (data.hasRemaining())
+                data.putFloat((float) (random.nextDouble() * 2 - 1));
+        } else {
+            random.nextBytes(data.array());
+        }
+
+        final File file = File.createTempFile("mapped", ".wav");
+        try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.write(header.array());
+            out.write(data.array());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,76 @@
+import be.tarsos.dsp.beatroot.BeatRootOnsetEventHandler;
+import be.tarsos.dsp.beatroot.OnlineBeatRootOnsetEventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class OnlineBeatTrackingTest {
+
+    private static final double BEAT_INTERVAL = 0.5;
+
+    /**
+     * Feeds the onsets of a long synthetic track to the online tracker one by one & compares its beats to the offline tracker's.
+     */
+    public static void main(String[] args) {
+        final double[] onsets = onsets(new Random(42), 600);
+
+        final BeatRootOnsetEventHandler offline = new BeatRootOnsetEventHandler();
+        final List<Double> expected = new ArrayList<>();
+        long start = System.nanoTime();
+        for (final double onset : onsets) {
+            offline.handleOnset(onset, 1);
+        }
+        offline.trackBeats((time, salience) -> expected.add(time));
+        final double offlineMs = (System.nanoTime() - start) / 1e6;
+
+        final List<Double> provisional = new ArrayList<>();
+        final double[] firstBeatMs = {-1};
+        final long onlineStart = System.nanoTime();
+        final OnlineBeatRootOnsetEventHandler online = new OnlineBeatRootOnsetEventHandler((time, salience) -> {
+            if (provisional.isEmpty())
+                firstBeatMs[0] = (System.nanoTime() - onlineStart) / 1e6;
+            provisional.add(time);
+        });
+        for (final double onset : onsets) {
+            online.handleOnset(onset, 1);
+        }
+        final double provisionalMs = (System.nanoTime() - onlineStart) / 1e6;
+
+        final List<Double> actual = new ArrayList<>();
+        online.trackBeats((time, salience) -> actual.add(time));
+
+        boolean ordered = !provisional.isEmpty();
+        double deviation = 0;
+        for (int i = 1; i < provisional.size(); i++) {
+            final double interval = provisional.get(i) - provisional.get(i - 1);
+            ordered &= interval > 0;
+            deviation = Math.max(deviation, Math.abs(interval - BEAT_INTERVAL));
+        }
+
+        System.out.printf("%d onsets: offline beats after %.0fms; online first beat after %.1fms, %d provisional beats in %.0fms, max interval deviation %.3fs%n",
+                onsets.length, offlineMs, firstBeatMs[0], provisional.size(), provisionalMs, deviation);
+        System.out.println("Final beats " + (expected.equals(actual) ? "identical" : "different") + ", provisional beats " + (ordered ? "ordered" : "not ordered"));
+
+        if (!expected.equals(actual) || !ordered)
+            throw new AssertionError("The online tracker changes the beats");
+    }
+
+    /**
+     * Onsets on every beat with a little jitter, some off-beat onsets & some dropped beats.
+     */
+    private static double[] onsets(final Random random, final double duration) {
+        final List<Double> onsets = new ArrayList<>();
+        for (double beat = 0.3; beat < duration; beat += BEAT_INTERVAL) {
+            if (random.nextDouble() > 0.1)
+                onsets.add(beat + random.nextGaussian() * 0.01);
+            if (random.nextDouble() < 0.3)
+                onsets.add(beat + BEAT_INTERVAL / 2 + random.nextGaussian() * 0.01);
+        }
+        final double[] times = new double[onsets.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = onsets.get(i);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,178 @@
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.GainProcessor;
+import be.tarsos.dsp.SpectrumProcessor;
+import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.dsp.mfcc.MFCC;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.PercussionOnsetDetector;
+import be.tarsos.dsp.pitch.PitchProcessor;
+import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ParallelDispatchTest {
+
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * Runs a chain of a gain, onset detectors, mfcc & a pitch tracker one after the other & in parallel, the results have to be the same.
+     */
+    public static void main(String[] args) throws UnsupportedAudioFileException {
+        final float[] samples = clicks(new Random(3), 120);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                final List<Object> serial = new ArrayList<>();
+                final List<Object> parallel = new ArrayList<>();
+                final double serialMs = run(samples, null, serial);
+                final double parallelMs = run(samples, executor, parallel);
+
+                System.out.printf("Chain one after the other in %.0fms, in parallel in %.0fms%n", serialMs, parallelMs);
+
+                final boolean identical = serial.size() == parallel.size() && deepEquals(serial, parallel);
+                System.out.println("Results " + (identical ? "identical" : "different"));
+
+                if (!identical)
+                    throw new AssertionError("The parallel chain changes the results");
+            }
+
+            final int processed = interrupt(samples, executor, 10);
+            System.out.println("Interrupted dispatcher stopped after " + processed + " blocks");
+
+            if (processed != 10)
+                throw new AssertionError("The interrupted dispatcher kept on processing");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the time the dispatcher took in ms, the results are added to the list per processor.
+     */
+    private static double run(final float[] samples, final ExecutorService executor, final List<Object> results) throws UnsupportedAudioFileException {
+        final AudioDispatcher dispatcher = AudioDispatcherFactory.fromFloatArray(samples.clone(), SAMPLE_RATE, BUFFER_SIZE, BUFFER_OVERLAP);
+        dispatcher.setExecutor(executor);
+
+        final List<Double> complexOnsets = new ArrayList<>();
+        final List<Double> percussionOnsets = new ArrayList<>();
+        final List<Double> sharedOnsets = new ArrayList<>();
+        final List<float[]> coefficients = new ArrayList<>();
+        final List<Float> pitches = new ArrayList<>();
+
+        final ComplexOnsetDetector complex = new ComplexOnsetDetector(BUFFER_SIZE);
+        complex.setHandler((time, salience) -> complexOnsets.add(time));
+        final MFCC mfcc = new MFCC(BUFFER_SIZE, SAMPLE_RATE, 30, 30, 133.3334f, SAMPLE_RATE / 2f);
+        final SpectrumProcessor spectrum = new SpectrumProcessor(BUFFER_SIZE);
+        final ComplexOnsetDetector shared = new ComplexOnsetDetector(spectrum);
+        shared.setHandler((time, salience) -> sharedOnsets.add(time));
+
+        // The gain, the mfcc reader, the spectrum & the percussion detector are barriers, everything else reads the buffer only.
+        final AudioProcessor gain = new GainProcessor(0.8);
+        dispatcher.addAudioProcessor(gain);
+        dispatcher.addIndependentAudioProcessor(complex);
+        dispatcher.addIndependentAudioProcessor(mfcc);
+        dispatcher.addAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                coefficients.add(mfcc.getMFCC().clone());
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+            }
+        });
+        dispatcher.addAudioProcessor(spectrum);
+        dispatcher.addIndependentAudioProcessor(shared);
+        dispatcher.addIndependentAudioProcessor(new PitchProcessor(PitchEstimationAlgorithm.FFT_YIN, SAMPLE_RATE, BUFFER_SIZE, (result, event) -> pitches.add(result.getPitch())));
+        // Transforms the buffer in place.
+        dispatcher.addAudioProcessor(new PercussionOnsetDetector(SAMPLE_RATE, BUFFER_SIZE, (time, salience) -> percussionOnsets.add(time), 60, 8));
+
+        final long start = System.nanoTime();
+        dispatcher.run();
+        final double ms = (System.nanoTime() - start) / 1e6;
+
+        dispatcher.getProcessingTimes().forEach((processor, nanos) ->
+                System.out.printf("  %-24s %6.1fms%n", processor.getClass().getSimpleName(), nanos / 1e6));
+
+        results.add(complexOnsets);
+        results.add(percussionOnsets);
+        results.add(sharedOnsets);
+        results.add(coefficients);
+        results.add(pitches);
+        return ms;
+    }
+
+    /**
+     * Interrupts the dispatching thread while it waits for a parallel group, the dispatcher has to stop instead of failing.
+     *
+     * @return the amount of blocks the dispatcher processed.
+     */
+    private static int interrupt(final float[] samples, final ExecutorService executor, final int block) throws UnsupportedAudioFileException {
+        final AudioDispatcher dispatcher = AudioDispatcherFactory.fromFloatArray(samples.clone(), SAMPLE_RATE, BUFFER_SIZE, BUFFER_OVERLAP);
+        dispatcher.setExecutor(executor);
+
+        final int[] processed = new int[1];
+        // The dispatching thread runs the first processor of the group itself.
+        dispatcher.addIndependentAudioProcessor(new AudioProcessor() {
+            @Override
+            public boolean process(AudioEvent audioEvent) {
+                if (++processed[0] == block) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void processingFinished() {
+            }
+        });
+        dispatcher.addIndependentAudioProcessor(new PitchProcessor(PitchEstimationAlgorithm.FFT_YIN, SAMPLE_RATE, BUFFER_SIZE, (result, event) -> {
+        }));
+
+        dispatcher.run();
+
+        // Clear the interrupt the dispatcher has kept for us.
+        if (!Thread.interrupted() || !dispatcher.isStopped())
+            throw new AssertionError("The interrupt has not stopped the dispatcher");
+        return processed[0];
+    }
+
+    private static boolean deepEquals(final List<Object> expected, final List<Object> actual) {
+        for (int i = 0; i < expected.size(); i++) {
+            final List<?> a = (List<?>) expected.get(i), b = (List<?>) actual.get(i);
+            if (a.size() != b.size())
+                return false;
+            for (int j = 0; j < a.size(); j++) {
+                final Object x = a.get(j), y = b.get(j);
+                if (x instanceof float[] ? !Arrays.equals((float[]) x, (float[]) y) : !x.equals(y))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Noise clicks every half second over a quiet tone.
+     */
+    private static float[] clicks(final Random random, final int seconds) {
+        final float[] samples = new float[SAMPLE_RATE * seconds];
+        final int beat = SAMPLE_RATE / 2;
+        for (int i = 0; i < samples.length; i++) {
+            final double click = (random.nextDouble() * 2 - 1) * Math.exp(-(i % beat) / (SAMPLE_RATE * 0.01));
+            samples[i] = (float) (0.1 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE) + 0.6 * click);
+        }
+        return samples;
+    }
+}
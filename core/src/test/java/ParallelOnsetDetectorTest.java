@@ -0,0 +1,78 @@
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
+import de.yugata.easy.edits.audio.FFmpegAudioInputStream;
+import de.yugata.easy.edits.audio.ParallelOnsetDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelOnsetDetectorTest {
+
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    /**
+     * Compares the chunked detection function to the sequential one, for several chunk sizes.
+     * Analyses a generated wav file, or the file given as the first argument.
+     */
+    public static void main(String[] args) throws IOException {
+        final File generated = args.length == 0 ? TestAudio.writeClicks(new Random(13), File.createTempFile("onsets", ".wav"), 45, 0.45) : null;
+        try {
+            compare(args.length == 0 ? generated.getAbsolutePath() : args[0]);
+        } finally {
+            if (generated != null)
+                generated.delete();
+        }
+    }
+
+    private static void compare(final String audioInput) throws IOException {
+        long start = System.currentTimeMillis();
+        final OnsetDetectionFunction sequential = detectSequential(audioInput);
+        System.out.println("Sequential: " + sequential.size() + " buffers in " + (System.currentTimeMillis() - start) + "ms");
+
+        for (final int buffersPerChunk : new int[]{1, 2, 3, 7, 64, 1024}) {
+            start = System.currentTimeMillis();
+
+            final ParallelOnsetDetector detector = new ParallelOnsetDetector(BUFFER_SIZE, BUFFER_OVERLAP, buffersPerChunk, ForkJoinPool.commonPool());
+            final OnsetDetectionFunction parallel;
+            try (final FFmpegAudioInputStream stream = new FFmpegAudioInputStream(audioInput)) {
+                parallel = detector.detect(stream);
+            }
+
+            final long time = System.currentTimeMillis() - start;
+            final int mismatch = firstMismatch(sequential, parallel);
+            System.out.println(buffersPerChunk + " buffers per chunk: " + (mismatch < 0 ? "identical" : "differs at buffer " + mismatch) + " in " + time + "ms");
+
+            if (mismatch >= 0)
+                throw new AssertionError("The chunked detection function differs from the sequential one.");
+        }
+    }
+
+    private static OnsetDetectionFunction detectSequential(final String audioInput) throws IOException {
+        final OnsetDetectionFunction detectionFunction = new OnsetDetectionFunction();
+
+        try (final FFmpegAudioInputStream stream = new FFmpegAudioInputStream(audioInput)) {
+            final AudioDispatcher dispatcher = new AudioDispatcher(stream, BUFFER_SIZE, BUFFER_OVERLAP);
+            final ComplexOnsetDetector detector = new ComplexOnsetDetector(BUFFER_SIZE);
+            detector.setHandler((time, salience) -> {
+            });
+            detector.setDetectionFunctionHandler(detectionFunction);
+            dispatcher.addAudioProcessor(detector);
+            dispatcher.run();
+        }
+        return detectionFunction;
+    }
+
+    private static int firstMismatch(final OnsetDetectionFunction expected, final OnsetDetectionFunction actual) {
+        final int size = Math.min(expected.size(), actual.size());
+        for (int i = 0; i < size; i++) {
+            if (Float.compare(expected.getValue(i), actual.getValue(i)) != 0
+                    || Double.compare(expected.getTime(i), actual.getTime(i)) != 0
+                    || expected.isSilent(i) != actual.isSilent(i))
+                return i;
+        }
+        return expected.size() == actual.size() ? -1 : size;
+    }
+}
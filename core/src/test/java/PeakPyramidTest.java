@@ -0,0 +1,136 @@
+import de.yugata.easy.edits.audio.PeakPyramid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PeakPyramidTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int ITERATIONS = 100;
+
+    /**
+     * Compares every level of the pyramid & the rendered pixels to the peaks computed from the samples, checks the file round trip & times rendering.
+     */
+    public static void main(String[] args) throws IOException {
+        final Random random = new Random(11);
+        boolean identical = true;
+
+        for (final int length : new int[]{0, 1, 255, 256, 257, 44100, SAMPLE_RATE * 30 + 123}) {
+            final float[] samples = new float[length];
+            for (int i = 0; i < length; i++) {
+                samples[i] = (float) ((random.nextDouble() * 2 - 1) * Math.abs(Math.sin(i / 5000.0)));
+            }
+
+            // Added in uneven slices, like a decoder delivers them.
+            final PeakPyramid.Builder builder = new PeakPyramid.Builder(SAMPLE_RATE, -1);
+            for (int offset = 0; offset < length; ) {
+                final int slice = Math.min(length - offset, 1 + random.nextInt(5000));
+                builder.add(samples, offset, slice);
+                offset += slice;
+            }
+            final PeakPyramid pyramid = builder.build();
+
+            for (int level = 0; level < pyramid.levels(); level++) {
+                identical &= levelMatches(pyramid, level, samples);
+            }
+            identical &= pyramid.getMin(pyramid.levels() - 1).length == 1;
+
+            for (final int pixels : new int[]{1, 200, 1999}) {
+                identical &= renderMatches(pyramid, samples, pixels);
+            }
+
+            final File file = File.createTempFile("pyramid", PeakPyramid.FILE_SUFFIX);
+            pyramid.write(file);
+            final PeakPyramid read = PeakPyramid.read(file);
+            file.delete();
+
+            for (int level = 0; level < pyramid.levels(); level++) {
+                identical &= Arrays.equals(pyramid.getMin(level), read.getMin(level))
+                        && Arrays.equals(pyramid.getMax(level), read.getMax(level))
+                        && Arrays.equals(pyramid.getRms(level), read.getRms(level));
+            }
+            identical &= read.levels() == pyramid.levels() && read.getTotalSamples() == length;
+        }
+        System.out.println("Pyramid peaks " + (identical ? "identical" : "different"));
+
+        if (!identical)
+            throw new AssertionError("The pyramid does not match the samples");
+
+        // An hour of audio, rendered at the width of a window.
+        final PeakPyramid.Builder builder = new PeakPyramid.Builder(SAMPLE_RATE, -1);
+        final float[] block = new float[SAMPLE_RATE];
+        long start = System.nanoTime();
+        for (int second = 0; second < 3600; second++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (float) Math.sin(second + i / 100.0);
+            }
+            builder.add(block, 0, block.length);
+        }
+        final PeakPyramid pyramid = builder.build();
+        final double buildMs = (System.nanoTime() - start) / 1e6;
+
+        final float[] min = new float[1920], max = new float[1920], rms = new float[1920];
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                pyramid.render(0, pyramid.getDuration(), min, max, rms);
+            }
+            final double fullMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                pyramid.render(1800, 1810, min, max, rms);
+            }
+            final double zoomedMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            System.out.printf("1h of audio: built in %.0fms, %d levels, 1920 pixels rendered in %.3fms (whole file) / %.3fms (10s)%n",
+                    buildMs, pyramid.levels(), fullMs, zoomedMs);
+        }
+    }
+
+    private static boolean levelMatches(final PeakPyramid pyramid, final int level, final float[] samples) {
+        final int size = PeakPyramid.bucketSize(level);
+        final float[] min = pyramid.getMin(level), max = pyramid.getMax(level), rms = pyramid.getRms(level);
+
+        if (min.length != Math.max(1, (samples.length + size - 1) / size))
+            return false;
+
+        for (int bucket = 0; bucket * size < samples.length; bucket++) {
+            float expectedMin = Float.POSITIVE_INFINITY, expectedMax = Float.NEGATIVE_INFINITY;
+            double squares = 0;
+            final int end = Math.min(samples.length, (bucket + 1) * size);
+            for (int i = bucket * size; i < end; i++) {
+                expectedMin = Math.min(expectedMin, samples[i]);
+                expectedMax = Math.max(expectedMax, samples[i]);
+                squares += samples[i] * samples[i];
+            }
+            final double expectedRms = Math.sqrt(squares / (end - bucket * size));
+
+            if (min[bucket] != expectedMin || max[bucket] != expectedMax || Math.abs(rms[bucket] - expectedRms) > 1e-4 * Math.max(expectedRms, 1e-3))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Every pixel covers at least the samples it spans, with at most a bucket of slack on either side.
+     */
+    private static boolean renderMatches(final PeakPyramid pyramid, final float[] samples, final int pixels) {
+        final float[] min = new float[pixels], max = new float[pixels];
+        pyramid.render(0, pyramid.getDuration(), min, max, null);
+
+        final double samplesPerPixel = samples.length / (double) pixels;
+        for (int x = 0; x < pixels && samples.length > 0; x++) {
+            final int from = (int) Math.ceil(x * samplesPerPixel);
+            final int to = (int) Math.min(samples.length, Math.floor((x + 1) * samplesPerPixel));
+            for (int i = from; i < to; i++) {
+                if (samples[i] < min[x] || samples[i] > max[x])
+                    return false;
+            }
+        }
+        return true;
+    }
+}
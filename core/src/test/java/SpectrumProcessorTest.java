@@ -0,0 +1,139 @@
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.SpectralPeakProcessor;
+import be.tarsos.dsp.SpectrumProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.mfcc.MFCC;
+import be.tarsos.dsp.onsets.ComplexOnsetDetector;
+import be.tarsos.dsp.onsets.OnsetDetectionFunction;
+import be.tarsos.dsp.util.fft.HammingWindow;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SpectrumProcessorTest {
+
+    private static final int BUFFER_SIZE = 2048, BUFFER_OVERLAP = 1024;
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int DETECTORS = 4;
+
+    private static final int ITERATIONS = 10;
+
+    /**
+     * Compares the processors reading a shared spectrum to the ones transforming the buffers themselves, then times several detectors on one fft.
+     */
+    public static void main(String[] args) {
+        final AudioEvent[] events = events(new Random(5), 60);
+
+        // Complex onset detection, Hann window.
+        final OnsetDetectionFunction expected = new OnsetDetectionFunction();
+        final OnsetDetectionFunction actual = new OnsetDetectionFunction();
+        final SpectrumProcessor hann = new SpectrumProcessor(BUFFER_SIZE);
+        run(events, detector(null, expected));
+        run(events, hann, detector(hann, actual));
+
+        boolean identical = expected.size() == actual.size();
+        for (int i = 0; identical && i < expected.size(); i++) {
+            identical = expected.getValue(i) == actual.getValue(i) && expected.getTime(i) == actual.getTime(i);
+        }
+        System.out.println("Complex onset detection function " + (identical ? "identical" : "different"));
+
+        // Spectral peaks & mfcc, Hamming window.
+        final SpectrumProcessor hamming = new SpectrumProcessor(BUFFER_SIZE, new HammingWindow());
+        final SpectralPeakProcessor expectedPeaks = new SpectralPeakProcessor(BUFFER_SIZE, BUFFER_OVERLAP, SAMPLE_RATE);
+        final SpectralPeakProcessor actualPeaks = new SpectralPeakProcessor(hamming, BUFFER_OVERLAP, SAMPLE_RATE);
+        final MFCC expectedMfcc = new MFCC(BUFFER_SIZE, SAMPLE_RATE, 30, 30, 133.3334f, SAMPLE_RATE / 2f);
+        final MFCC actualMfcc = new MFCC(hamming, SAMPLE_RATE, 30, 30, 133.3334f, SAMPLE_RATE / 2f);
+
+        boolean peaksIdentical = true, mfccIdentical = true;
+        for (final AudioEvent event : events) {
+            expectedPeaks.process(event);
+            expectedMfcc.process(event);
+            hamming.process(event);
+            actualPeaks.process(event);
+            actualMfcc.process(event);
+
+            peaksIdentical &= Arrays.equals(expectedPeaks.getMagnitudes(), actualPeaks.getMagnitudes())
+                    && Arrays.equals(expectedPeaks.getFrequencyEstimates(), actualPeaks.getFrequencyEstimates());
+            mfccIdentical &= Arrays.equals(expectedMfcc.getMFCC(), actualMfcc.getMFCC());
+        }
+        System.out.println("Spectral peaks " + (peaksIdentical ? "identical" : "different") + ", mfcc " + (mfccIdentical ? "identical" : "different"));
+
+        if (!identical || !peaksIdentical || !mfccIdentical)
+            throw new AssertionError("The shared spectrum changes the results");
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                final AudioProcessor[] detectors = new AudioProcessor[DETECTORS];
+                for (int j = 0; j < DETECTORS; j++) {
+                    detectors[j] = detector(null, null);
+                }
+                run(events, detectors);
+            }
+            final double ownMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                final SpectrumProcessor spectrum = new SpectrumProcessor(BUFFER_SIZE);
+                final AudioProcessor[] processors = new AudioProcessor[DETECTORS + 1];
+                processors[0] = spectrum;
+                for (int j = 1; j <= DETECTORS; j++) {
+                    processors[j] = detector(spectrum, null);
+                }
+                run(events, processors);
+            }
+            final double sharedMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            System.out.printf("%d detectors, %d buffers: own fft %.1fms, shared fft %.1fms, speedup %.2fx%n",
+                    DETECTORS, events.length, ownMs, sharedMs, ownMs / sharedMs);
+        }
+    }
+
+    private static ComplexOnsetDetector detector(final SpectrumProcessor spectrum, final OnsetDetectionFunction detectionFunction) {
+        final ComplexOnsetDetector detector = spectrum == null ? new ComplexOnsetDetector(BUFFER_SIZE) : new ComplexOnsetDetector(spectrum);
+        detector.setHandler((time, salience) -> {
+        });
+        detector.setDetectionFunctionHandler(detectionFunction);
+        return detector;
+    }
+
+    private static void run(final AudioEvent[] events, final AudioProcessor... processors) {
+        final List<AudioProcessor> chain = Arrays.asList(processors);
+        for (final AudioEvent event : events) {
+            for (final AudioProcessor processor : chain) {
+                processor.process(event);
+            }
+        }
+    }
+
+    /**
+     * A chord with noise bursts every half second, framed like the dispatcher frames it.
+     */
+    private static AudioEvent[] events(final Random random, final int seconds) {
+        final float[] samples = new float[SAMPLE_RATE * seconds];
+        final int beat = SAMPLE_RATE / 2;
+        for (int i = 0; i < samples.length; i++) {
+            final double time = i / (double) SAMPLE_RATE;
+            final double chord = Math.sin(2 * Math.PI * 220 * time) + Math.sin(2 * Math.PI * 277.18 * time) + Math.sin(2 * Math.PI * 329.63 * time);
+            final double burst = (random.nextDouble() * 2 - 1) * Math.exp(-(i % beat) / (SAMPLE_RATE * 0.02));
+            samples[i] = (float) (0.2 * chord + 0.4 * burst);
+        }
+
+        final TarsosDSPAudioFormat format = new TarsosDSPAudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        final int stepSize = BUFFER_SIZE - BUFFER_OVERLAP;
+        final AudioEvent[] events = new AudioEvent[(samples.length - BUFFER_SIZE) / stepSize + 1];
+
+        for (int i = 0; i < events.length; i++) {
+            final AudioEvent event = new AudioEvent(format);
+            event.setFloatBuffer(Arrays.copyOfRange(samples, i * stepSize, i * stepSize + BUFFER_SIZE));
+            event.setOverlap(i == 0 ? 0 : BUFFER_OVERLAP);
+            event.setBytesProcessed((i == 0 ? 0 : BUFFER_SIZE + (long) (i - 1) * stepSize) * format.getFrameSize());
+            events[i] = event;
+        }
+        return events;
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Generated audio shared by the tests.
+ */
+public class TestAudio {
+
+    static final int SAMPLE_RATE = 44100;
+
+    /**
+     * A 16 bit wav of noise clicks on every beat over a quiet tone.
+     */
+    static File writeClicks(final Random random, final File file, final int seconds, final double beatInterval) throws IOException {
+        final int samples = SAMPLE_RATE * seconds;
+        final ByteBuffer data = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        final int beat = (int) (beatInterval * SAMPLE_RATE);
+        for (int i = 0; i < samples; i++) {
+            final double click = (random.nextDouble() * 2 - 1) * Math.exp(-(i % beat) / (SAMPLE_RATE * 0.01));
+            data.putShort((short) ((0.1 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE) + 0.6 * click) * Short.MAX_VALUE));
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + samples * 2).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        header.put("data".getBytes()).putInt(samples * 2);
+
+        try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.write(header.array());
+            out.write(data.array());
+        }
+        return file;
+    }
+}